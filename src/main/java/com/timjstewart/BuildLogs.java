@@ -0,0 +1,190 @@
+package com.timjstewart;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * command line access to the raw build logs kept by LogSpool.
+ * Segments are numbered from 0, the most recent build.
+ */
+public class BuildLogs {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int PAGE_LINES = 200;
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            usage();
+            System.exit(1);
+        }
+
+        try {
+            final List<Path> segments = LogSpool.list(LogSpool.directoryOf(Main.loadProperties()));
+
+            switch (args[0]) {
+            case "list":
+                list(segments);
+                break;
+            case "show":
+                show(segments, number(args, 1), number(args, 2));
+                break;
+            case "errors":
+                errors(segment(segments, number(args, 1)));
+                break;
+            case "search":
+                if (args.length < 2) {
+                    usage();
+                    System.exit(1);
+                }
+                final Pattern pattern = Pattern.compile(args[1]);
+                if (args.length > 2) {
+                    search(segment(segments, number(args, 2)), pattern);
+                } else {
+                    for (final Path segment : segments) {
+                        search(segment, pattern);
+                    }
+                }
+                break;
+            default:
+                usage();
+                System.exit(1);
+            }
+        } catch (IOException | IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void usage() {
+        System.err.println("usage: mvn8r logs list");
+        System.err.println("       mvn8r logs show [SEGMENT [PAGE]]");
+        System.err.println("       mvn8r logs errors [SEGMENT]");
+        System.err.println("       mvn8r logs search REGEX [SEGMENT]");
+    }
+
+    /**
+     * returns the numeric argument at position, or 0 if it is absent
+     */
+    private static int number(final String[] args, final int position) {
+        return args.length > position ? Integer.parseInt(args[position]) : 0;
+    }
+
+    private static Path segment(final List<Path> segments, final int n) {
+        if (n < 0 || n >= segments.size())
+            throw new IllegalArgumentException("no such build log: " + n);
+
+        return segments.get(n);
+    }
+
+    private static void list(final List<Path> segments) throws IOException {
+        for (int i = 0; i < segments.size(); ++i) {
+            final Path segment = segments.get(i);
+
+            int errors = 0;
+            for (final String entry : readIndex(segment)) {
+                if (entry.split(" ", 3)[1].equals(LogSegment.ERROR))
+                    errors++;
+            }
+
+            System.out.format("%4d  %-50s %10d bytes %5d errors%n",
+                              i, segment.getFileName(), Files.size(segment), errors);
+        }
+    }
+
+    /**
+     * prints one page of a segment.  Line boundaries are found by
+     * scanning the mapped bytes; only the page itself is decoded.
+     */
+    private static void show(final List<Path> segments,
+                             final int n,
+                             final int page) throws IOException {
+        final MappedByteBuffer bytes = map(segment(segments, n));
+
+        final int firstLine = page * PAGE_LINES;
+        int line = 0;
+        int start = 0;
+
+        while (line < firstLine && start < bytes.limit()) {
+            if (bytes.get(start++) == '\n')
+                line++;
+        }
+
+        for (int i = 0; i < PAGE_LINES && start < bytes.limit(); ++i) {
+            final int end = lineEnd(bytes, start);
+            System.out.println(decode(bytes, start, end));
+            start = end + 1;
+        }
+
+        if (start < bytes.limit()) {
+            System.out.format("-- more: mvn8r logs show %d %d --%n", n, page + 1);
+        }
+    }
+
+    /**
+     * prints the lines the index marks as errors
+     */
+    private static void errors(final Path segment) throws IOException {
+        final MappedByteBuffer bytes = map(segment);
+
+        for (final String entry : readIndex(segment)) {
+            final String[] fields = entry.split(" ", 3);
+            if (fields[1].equals(LogSegment.ERROR)) {
+                final int start = (int) Long.parseLong(fields[0]);
+                System.out.println(decode(bytes, start, lineEnd(bytes, start)));
+            }
+        }
+    }
+
+    private static void search(final Path segment, final Pattern pattern) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(segment, UTF8)) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                if (pattern.matcher(line).find()) {
+                    System.out.format("%s:%d: %s%n", segment.getFileName(), number, line);
+                }
+            }
+        }
+    }
+
+    private static List<String> readIndex(final Path segment) throws IOException {
+        final Path index = LogSegment.indexFileOf(segment);
+
+        if (!Files.isRegularFile(index))
+            return Collections.emptyList();
+
+        return Files.readAllLines(index, UTF8);
+    }
+
+    private static MappedByteBuffer map(final Path segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static int lineEnd(final MappedByteBuffer bytes, final int start) {
+        int end = start;
+        while (end < bytes.limit() && bytes.get(end) != '\n')
+            end++;
+        return end;
+    }
+
+    private static String decode(final MappedByteBuffer bytes, final int start, final int end) {
+        final byte[] line = new byte[end - start];
+        for (int i = 0; i < line.length; ++i) {
+            line[i] = bytes.get(start + i);
+        }
+        return new String(line, UTF8);
+    }
+}
@@ -0,0 +1,196 @@
+package com.timjstewart;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * remembers the outcome of every completed build keyed on the
+ * contents of the watched source files and poms.  When the working
+ * tree returns to a state that has already been built (an undo, a
+ * stash pop, switching back to a branch) the recorded output and
+ * verdict can be replayed instead of running maven again.
+ */
+class BuildMemo {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String SUCCESS = "SUCCESS";
+    private static final String FAILURE = "FAILURE";
+
+    /**
+     * the only files that take part in the key are the ones that
+     * would trigger a build when they change
+     */
+    private static final TreeHasher.Filter WATCHED = new TreeHasher.Filter() {
+            @Override
+            public boolean acceptDirectory(final Path directory) {
+                return TreeHasher.SOURCES.acceptDirectory(directory);
+            }
+
+            @Override
+            public boolean acceptFile(final Path file) {
+                return WatchDir.fileRequiresBuild(file);
+            }
+        };
+
+    /**
+     * a recorded build
+     */
+    static final class Record {
+        private final boolean success;
+        private final List<String> lines;
+
+        Record(final boolean success, final List<String> lines) {
+            this.success = success;
+            this.lines = Collections.unmodifiableList(lines);
+        }
+
+        boolean isSuccess() {
+            return success;
+        }
+
+        List<String> getLines() {
+            return lines;
+        }
+    }
+
+    private final Path directory;
+
+    private final TreeHasher hasher;
+
+    private final int maxEntries;
+
+    BuildMemo(final Path directory, final TreeHasher hasher, final int maxEntries) {
+        this.directory = directory;
+        this.hasher = hasher;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * returns a BuildMemo configured by the memo.* properties, or null
+     * if memoization is turned off
+     */
+    static BuildMemo create(final Properties properties, final TreeHasher hasher) {
+        if (!Boolean.parseBoolean(properties.getProperty("memo.enabled", "false")))
+            return null;
+
+        final String configured = properties.getProperty("memo.directory");
+
+        final Path directory = configured != null
+            ? Paths.get(configured)
+            : Paths.get(System.getProperty("user.home"), ".mvn8r", "memo");
+
+        return new BuildMemo(directory,
+                             hasher,
+                             Integer.parseInt(properties.getProperty("memo.entries", "200")));
+    }
+
+    /**
+     * returns the key of the working tree's current state, built
+     * online or offline
+     */
+    String computeKey(final Job job, final boolean offline) throws IOException {
+        final Path root = new File(job.getPomFile()).getAbsoluteFile().getParentFile().toPath();
+
+        return TreeHasher.hashStrings(Arrays.asList(
+            root.toString(),
+            Arrays.toString(job.getTasks()),
+            String.valueOf(job.getJavaHome()),
+            offline ? "offline" : "online",
+            hasher.hashTree(root, WATCHED)));
+    }
+
+    /**
+     * returns the build recorded under the given key, or null
+     */
+    Record find(final String key) throws IOException {
+        final Path file = directory.resolve(key + ".log");
+
+        if (!Files.isRegularFile(file))
+            return null;
+
+        try (BufferedReader reader = Files.newBufferedReader(file, UTF8)) {
+            final String verdict = reader.readLine();
+            if (!SUCCESS.equals(verdict) && !FAILURE.equals(verdict))
+                return null;
+
+            final List<String> lines = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+
+            // mark the entry as recently used so pruning keeps it
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+
+            return new Record(SUCCESS.equals(verdict), lines);
+        }
+    }
+
+    /**
+     * records a completed build under the given key
+     */
+    void save(final String key, final Record record) throws IOException {
+        Files.createDirectories(directory);
+
+        final Path temporary = directory.resolve(key + ".tmp");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(temporary, UTF8)) {
+            writer.write(record.isSuccess() ? SUCCESS : FAILURE);
+            writer.newLine();
+            for (final String line : record.getLines()) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+
+        Files.move(temporary,
+                   directory.resolve(key + ".log"),
+                   StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+
+        prune();
+    }
+
+    /**
+     * removes the least recently used entries beyond maxEntries
+     */
+    private void prune() throws IOException {
+        final List<Path> entries = new ArrayList<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.log")) {
+            for (final Path entry : stream) {
+                entries.add(entry);
+            }
+        }
+
+        if (entries.size() <= maxEntries)
+            return;
+
+        Collections.sort(entries, new Comparator<Path>() {
+                @Override
+                public int compare(final Path a, final Path b) {
+                    return Long.compare(a.toFile().lastModified(), b.toFile().lastModified());
+                }
+            });
+
+        for (final Path entry : entries.subList(0, entries.size() - maxEntries)) {
+            Files.deleteIfExists(entry);
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package com.timjstewart;
+
+import org.apache.maven.shared.invoker.InvocationOutputHandler;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.timjstewart.rules.BlockRule;
+import com.timjstewart.rules.BytePrefilter;
+import com.timjstewart.rules.NullRule;
+import com.timjstewart.rules.RuleSet;
+
+/**
+ * runs maven's output through the BlockRules and prints what they
+ * let through.  Lines can arrive either decoded (from the
+ * maven-invoker) or as raw bytes (from ProcessLauncher); raw lines
+ * that the prefilter proves would be ignored are never decoded.
+ */
+class BuildOutputHandler implements InvocationOutputHandler {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte[] BUILD_FAILURE = "BUILD FAILURE".getBytes(UTF8);
+
+    private static final Pattern TESTS_RUN =
+        Pattern.compile("Tests run: ([0-9]+), Failures: ([0-9]+), Errors: ([0-9]+), Skipped: ([0-9]+)");
+
+    /**
+     * lines containing any of these are indexed as errors
+     */
+    private static final String[] ERRORS = new String[] {
+        "[ERROR]", "BUILD FAILURE", "<<< FAILURE!"
+    };
+
+    private static final byte[][] ERROR_MARKERS = new byte[][] {
+        ERRORS[0].getBytes(UTF8), ERRORS[1].getBytes(UTF8), ERRORS[2].getBytes(UTF8)
+    };
+
+    /**
+     * lines containing any of these mean the build failed because of
+     * the sources themselves (a compiler error or a failing test),
+     * whatever the rules make of them
+     */
+    private static final String[] SOURCE_FAILURES = new String[] {
+        "COMPILATION ERROR", "Compilation failure", "There are test failures", "<<< FAILURE!", "<<< ERROR!"
+    };
+
+    private static final byte[][] SOURCE_FAILURE_MARKERS = new byte[SOURCE_FAILURES.length][];
+
+    /**
+     * lines containing any of these mean maven could not resolve a
+     * dependency, plugin, extension or parent
+     */
+    private static final String[] RESOLUTION_FAILURES = new String[] {
+        "Could not resolve dependencies", "could not be resolved", "in offline mode",
+        "Non-resolvable", "Unresolveable build extension"
+    };
+
+    private static final byte[][] RESOLUTION_FAILURE_MARKERS = new byte[RESOLUTION_FAILURES.length][];
+
+    static {
+        for (int i = 0; i < SOURCE_FAILURES.length; ++i) {
+            SOURCE_FAILURE_MARKERS[i] = SOURCE_FAILURES[i].getBytes(UTF8);
+        }
+        for (int i = 0; i < RESOLUTION_FAILURES.length; ++i) {
+            RESOLUTION_FAILURE_MARKERS[i] = RESOLUTION_FAILURES[i].getBytes(UTF8);
+        }
+    }
+
+    private final RuleSet ruleSet;
+
+    private final Transcript transcript;
+
+    /**
+     * the (optional) segment the raw output is spooled to
+     */
+    private final LogSegment segment;
+
+    /**
+     * the (optional) server matches and test results are published to
+     */
+    private EventServer events;
+
+    /**
+     * absolute project path that is shortened to "." in the output
+     */
+    private final String projectPath;
+
+    private final byte[] projectPathBytes;
+
+    private boolean done = false;
+
+    private boolean unitTestFailed = false;
+
+    private boolean sourceFailure = false;
+
+    private boolean resolutionFailure = false;
+
+    private BlockRule currentRule = NullRule.getInstance();
+
+    /**
+     * offset of the current line in the segment, or -1
+     */
+    private long offset = -1;
+
+    BuildOutputHandler(final Job job,
+                       final RuleSet ruleSet,
+                       final Transcript transcript,
+                       final LogSegment segment) {
+        this.ruleSet = ruleSet;
+        this.transcript = transcript;
+        this.segment = segment;
+        this.projectPath = job.getProjectDirectory().toAbsolutePath().normalize().toString();
+        this.projectPathBytes = projectPath.getBytes(UTF8);
+    }
+
+    /**
+     * publishes the rules that match and any test results to events
+     */
+    BuildOutputHandler publishTo(final EventServer events) {
+        this.events = events;
+        return this;
+    }
+
+    /**
+     * @return true iff one of the rule set's test failure rules
+     * matched
+     */
+    boolean isUnitTestFailed() {
+        return unitTestFailed;
+    }
+
+    /**
+     * @return true iff the output showed a compiler error or a failing
+     * test, as opposed to a failure from outside the working tree (the
+     * network, dependency resolution, a killed JVM)
+     */
+    boolean isSourceFailure() {
+        return sourceFailure || unitTestFailed;
+    }
+
+    /**
+     * @return true iff the build failed to resolve a dependency,
+     * plugin or parent pom, as an offline build does when a pom asks
+     * for something that has not been downloaded yet, rather than
+     * because of the sources
+     */
+    boolean isResolutionFailure() {
+        return resolutionFailure && !isSourceFailure();
+    }
+
+    @Override
+    public void consumeLine(final String line) {
+        spool(line);
+
+        if (!sourceFailure) {
+            for (final String marker : SOURCE_FAILURES) {
+                if (line.contains(marker)) {
+                    sourceFailure = true;
+                    break;
+                }
+            }
+        }
+
+        if (!resolutionFailure) {
+            for (final String marker : RESOLUTION_FAILURES) {
+                if (line.contains(marker)) {
+                    resolutionFailure = true;
+                    break;
+                }
+            }
+        }
+
+        process(line);
+    }
+
+    /**
+     * consumes one line of raw, UTF-8 encoded output (without its
+     * line terminator)
+     */
+    void consumeLine(final byte[] bytes, final int start, final int length) {
+        spool(bytes, start, length);
+
+        // maven names the failed goal after BUILD FAILURE, and the
+        // rules may well ignore these lines, so look before either
+        if (!sourceFailure) {
+            for (final byte[] marker : SOURCE_FAILURE_MARKERS) {
+                if (BytePrefilter.indexOf(bytes, start, length, marker) >= 0) {
+                    sourceFailure = true;
+                    break;
+                }
+            }
+        }
+
+        if (!resolutionFailure) {
+            for (final byte[] marker : RESOLUTION_FAILURE_MARKERS) {
+                if (BytePrefilter.indexOf(bytes, start, length, marker) >= 0) {
+                    resolutionFailure = true;
+                    break;
+                }
+            }
+        }
+
+        if (done)
+            return;
+
+        if (currentRule.isNull() &&
+            BytePrefilter.indexOf(bytes, start, length, projectPathBytes) < 0 &&
+            BytePrefilter.indexOf(bytes, start, length, BUILD_FAILURE) < 0 &&
+            ruleSet.getPrefilter().isIgnored(bytes, start, length)) {
+            return;
+        }
+
+        process(new String(bytes, start, length, UTF8));
+    }
+
+    private void process(String line) {
+        if (done)
+            return;
+
+        line = line.replace(projectPath, ".");
+
+        if (currentRule.isNull()) {
+            currentRule = findMatchingRule(ruleSet.getRules(), line);
+
+            if (ruleSet.isTestFailure(currentRule)) {
+                unitTestFailed = true;
+            }
+
+            if (!currentRule.shouldIgnore(line)) {
+                mark(LogSegment.BLOCK_START, currentRule.getName());
+                transcript.println(currentRule.format(line));
+                publish(line);
+            }
+
+            if (currentRule.isEndOfBlock(line)) {
+                currentRule = NullRule.getInstance();
+            }
+        } else if (currentRule.isEndOfBlock(line)) {
+            // done processing the current rule
+            if (!currentRule.shouldIgnore(line)) {
+                transcript.println(currentRule.format(line));
+                publishTestResults(line);
+            }
+            mark(LogSegment.BLOCK_END, currentRule.getName());
+            currentRule = NullRule.getInstance();
+        } else {
+            // there is a current rule; see if it applies
+            if (!currentRule.shouldIgnore(line)) {
+                transcript.println(currentRule.format(line));
+            }
+        }
+
+        if (line.contains("BUILD FAILURE")) {
+            done = true;
+        }
+    }
+
+    private void publish(final String line) {
+        if (events == null)
+            return;
+
+        events.ruleMatched(currentRule.getName(), line);
+        publishTestResults(line);
+    }
+
+    private void publishTestResults(final String line) {
+        if (events == null)
+            return;
+
+        final Matcher matcher = TESTS_RUN.matcher(line);
+        if (matcher.find()) {
+            events.testResults(Integer.parseInt(matcher.group(1)),
+                               Integer.parseInt(matcher.group(2)),
+                               Integer.parseInt(matcher.group(3)),
+                               Integer.parseInt(matcher.group(4)));
+        }
+    }
+
+    private static BlockRule findMatchingRule(
+            final Collection<BlockRule> rules,
+            final String line) {
+
+        for (final BlockRule rule : rules) {
+            if (rule.isStartOfBlock(line)) {
+                rule.onRuleMatched(line);
+                return rule;
+            }
+        }
+
+        return NullRule.getInstance();
+    }
+
+    /**
+     * keeps the unfiltered line in the build's log segment
+     */
+    private void spool(final String line) {
+        if (segment == null)
+            return;
+
+        try {
+            offset = segment.append(line);
+            if (isError(line)) {
+                mark(LogSegment.ERROR, "-");
+            }
+        } catch (IOException ex) {
+            offset = -1;
+        }
+    }
+
+    private void spool(final byte[] bytes, final int start, final int length) {
+        if (segment == null)
+            return;
+
+        try {
+            offset = segment.append(bytes, start, length);
+        } catch (IOException ex) {
+            offset = -1;
+            return;
+        }
+
+        for (final byte[] marker : ERROR_MARKERS) {
+            if (BytePrefilter.indexOf(bytes, start, length, marker) >= 0) {
+                mark(LogSegment.ERROR, "-");
+                break;
+            }
+        }
+    }
+
+    private static boolean isError(final String line) {
+        for (final String error : ERRORS) {
+            if (line.contains(error))
+                return true;
+        }
+        return false;
+    }
+
+    private void mark(final String kind, final String name) {
+        if (segment != null && offset >= 0)
+            segment.mark(offset, kind, name);
+    }
+}
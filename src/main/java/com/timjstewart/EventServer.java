@@ -0,0 +1,256 @@
+package com.timjstewart;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * streams build events to any number of local subscribers.
+ *
+ * Subscribers connect to events.port on the loopback interface and
+ * receive one JSON object per line, for example
+ *
+ *   {"event":"build-started","time":1700000000000,"project":"/src/app","tasks":["test"]}
+ *
+ * The events are files-changed, build-started, rule-matched (for
+ * each line a rule shows), test-results and build-finished.  Each
+ * event is encoded once and queued for every subscriber; a
+ * subscriber whose queue of events.buffer events is full is
+ * disconnected, so a slow reader never holds up a build.
+ */
+class EventServer {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * one subscriber and the events it has not read yet
+     */
+    private final class Client {
+
+        final Socket socket;
+
+        final BlockingQueue<byte[]> queue;
+
+        Client(final Socket socket) {
+            this.socket = socket;
+            this.queue = new ArrayBlockingQueue<>(bufferSize);
+        }
+
+        void start() {
+            final Thread thread = new Thread("EventClient") {
+                    @Override
+                    public void run() {
+                        try {
+                            final OutputStream out = socket.getOutputStream();
+                            for (;;) {
+                                byte[] event = queue.take();
+                                out.write(event);
+                                // write whatever else is waiting in one go
+                                while ((event = queue.poll()) != null) {
+                                    out.write(event);
+                                }
+                                out.flush();
+                            }
+                        } catch (IOException | InterruptedException ex) {
+                            // gone
+                        } finally {
+                            drop();
+                        }
+                    }
+                };
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void drop() {
+            clients.remove(this);
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                // already closed
+            }
+        }
+    }
+
+    private final List<Client> clients = new CopyOnWriteArrayList<>();
+
+    private final ServerSocket server;
+
+    private final int bufferSize;
+
+    EventServer(final int port, final int bufferSize) throws IOException {
+        this.bufferSize = bufferSize;
+        this.server = new ServerSocket();
+        this.server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * returns an EventServer listening on events.port, or null if no
+     * port is configured or it cannot be bound
+     */
+    static EventServer create(final Properties properties) {
+        final String port = properties.getProperty("events.port");
+        if (port == null)
+            return null;
+
+        try {
+            return new EventServer(Integer.parseInt(port),
+                                   Integer.parseInt(properties.getProperty("events.buffer", "1024")));
+        } catch (IOException ex) {
+            System.err.println("Could not listen for event subscribers: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return the port subscribers connect to
+     */
+    int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * starts accepting subscribers
+     */
+    void start() {
+        final Thread thread = new Thread("EventServer") {
+                @Override
+                public void run() {
+                    try {
+                        for (;;) {
+                            final Client client = new Client(server.accept());
+                            client.socket.setTcpNoDelay(true);
+                            clients.add(client);
+                            client.start();
+                        }
+                    } catch (IOException ex) {
+                        // closed
+                    }
+                }
+            };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void filesChanged(final String[] files) {
+        if (clients.isEmpty())
+            return;
+
+        final StringBuilder json = begin("files-changed").append(",\"files\":");
+        array(json, files);
+        publish(json);
+    }
+
+    void buildStarted(final Job job, final boolean force) {
+        if (clients.isEmpty())
+            return;
+
+        final StringBuilder json = begin("build-started").append(",\"project\":");
+        string(json, job.getProjectDirectory().toAbsolutePath().normalize().toString());
+        json.append(",\"tasks\":");
+        array(json, job.getTasks());
+        json.append(",\"force\":").append(force);
+        publish(json);
+    }
+
+    void ruleMatched(final String rule, final String line) {
+        if (clients.isEmpty())
+            return;
+
+        final StringBuilder json = begin("rule-matched").append(",\"rule\":");
+        string(json, rule);
+        json.append(",\"line\":");
+        string(json, line);
+        publish(json);
+    }
+
+    void testResults(final int run, final int failures, final int errors, final int skipped) {
+        if (clients.isEmpty())
+            return;
+
+        publish(begin("test-results")
+                .append(",\"run\":").append(run)
+                .append(",\"failures\":").append(failures)
+                .append(",\"errors\":").append(errors)
+                .append(",\"skipped\":").append(skipped));
+    }
+
+    void buildFinished(final boolean success, final long millis) {
+        if (clients.isEmpty())
+            return;
+
+        publish(begin("build-finished")
+                .append(",\"success\":").append(success)
+                .append(",\"millis\":").append(millis));
+    }
+
+    /**
+     * queues the event for every subscriber, dropping those that
+     * cannot keep up
+     */
+    private void publish(final StringBuilder json) {
+        final byte[] event = json.append("}\n").toString().getBytes(UTF8);
+
+        for (final Client client : clients) {
+            if (!client.queue.offer(event)) {
+                client.drop();
+            }
+        }
+    }
+
+    private static StringBuilder begin(final String event) {
+        return new StringBuilder(128)
+            .append("{\"event\":\"").append(event)
+            .append("\",\"time\":").append(System.currentTimeMillis());
+    }
+
+    private static void array(final StringBuilder json, final String[] values) {
+        json.append('[');
+        for (int i = 0; i < values.length; ++i) {
+            if (i > 0)
+                json.append(',');
+            string(json, values[i]);
+        }
+        json.append(']');
+    }
+
+    private static void string(final StringBuilder json, final String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); ++i) {
+            final char c = value.charAt(i);
+            switch (c) {
+            case '"':
+                json.append("\\\"");
+                break;
+            case '\\':
+                json.append("\\\\");
+                break;
+            case '\n':
+                json.append("\\n");
+                break;
+            case '\r':
+                json.append("\\r");
+                break;
+            case '\t':
+                json.append("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    json.append(String.format("\\u%04x", (int) c));
+                } else {
+                    json.append(c);
+                }
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,192 @@
+package com.timjstewart;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * recursive copy, sync, delete and size of directory trees
+ */
+final class FileTrees {
+
+    private FileTrees() {
+    }
+
+    /**
+     * copies every file under source to the same relative location
+     * under destination, replacing existing files
+     */
+    static void copy(final Path source, final Path destination) throws IOException {
+        if (!Files.isDirectory(source))
+            return;
+
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(final Path dir,
+                                                         final BasicFileAttributes attrs)
+                    throws IOException {
+                    Files.createDirectories(destination.resolve(source.relativize(dir).toString()));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(final Path file,
+                                                 final BasicFileAttributes attrs)
+                    throws IOException {
+                    Files.copy(file,
+                               destination.resolve(source.relativize(file).toString()),
+                               StandardCopyOption.REPLACE_EXISTING,
+                               StandardCopyOption.COPY_ATTRIBUTES);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+    }
+
+    /**
+     * makes the files under destination that the filter accepts match
+     * those under source.  Files whose size and modification time
+     * already match are left alone, so repeated syncs only copy what
+     * changed; accepted files that no longer exist under source are
+     * deleted.
+     */
+    static void sync(final Path source,
+                     final Path destination,
+                     final TreeHasher.Filter filter) throws IOException {
+        final Set<Path> present = new HashSet<>();
+
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(final Path dir,
+                                                         final BasicFileAttributes attrs)
+                    throws IOException {
+                    if (!dir.equals(source) && !filter.acceptDirectory(dir))
+                        return FileVisitResult.SKIP_SUBTREE;
+                    Files.createDirectories(destination.resolve(source.relativize(dir).toString()));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(final Path file,
+                                                 final BasicFileAttributes attrs)
+                    throws IOException {
+                    if (!filter.acceptFile(file))
+                        return FileVisitResult.CONTINUE;
+
+                    final Path relative = source.relativize(file);
+                    final Path target = destination.resolve(relative.toString());
+                    present.add(relative);
+
+                    if (!Files.isRegularFile(target) ||
+                        Files.size(target) != attrs.size() ||
+                        !Files.getLastModifiedTime(target).equals(attrs.lastModifiedTime())) {
+                        Files.copy(file, target,
+                                   StandardCopyOption.REPLACE_EXISTING,
+                                   StandardCopyOption.COPY_ATTRIBUTES);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+
+        Files.walkFileTree(destination, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(final Path dir,
+                                                         final BasicFileAttributes attrs) {
+                    if (!dir.equals(destination) && !filter.acceptDirectory(dir))
+                        return FileVisitResult.SKIP_SUBTREE;
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(final Path file,
+                                                 final BasicFileAttributes attrs)
+                    throws IOException {
+                    final Path relative = destination.relativize(file);
+                    if (filter.acceptFile(file) &&
+                        !present.contains(source.getFileSystem().getPath(relative.toString()))) {
+                        Files.delete(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+    }
+
+    /**
+     * brings a single path under destination in line with source: a
+     * file is copied unless its size and modification time already
+     * match, a directory is synced as by sync(), and a path that no
+     * longer exists is deleted
+     */
+    static void syncPath(final Path source,
+                         final Path destination,
+                         final TreeHasher.Filter filter) throws IOException {
+        if (Files.isDirectory(source)) {
+            sync(source, destination, filter);
+        } else if (Files.isRegularFile(source)) {
+            if (!Files.isRegularFile(destination) ||
+                Files.size(destination) != Files.size(source) ||
+                !Files.getLastModifiedTime(destination).equals(Files.getLastModifiedTime(source))) {
+                Files.createDirectories(destination.getParent());
+                Files.copy(source, destination,
+                           StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.COPY_ATTRIBUTES);
+            }
+        } else {
+            delete(destination);
+        }
+    }
+
+    /**
+     * returns the total size of the files under path, or of path
+     * itself if it is a file
+     */
+    static long size(final Path path) throws IOException {
+        final long[] total = new long[1];
+
+        if (!Files.exists(path))
+            return 0;
+
+        Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(final Path file,
+                                                 final BasicFileAttributes attrs) {
+                    total[0] += attrs.size();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        return total[0];
+    }
+
+    /**
+     * deletes path and, if it is a directory, everything beneath it
+     */
+    static void delete(final Path path) throws IOException {
+        if (!Files.exists(path))
+            return;
+
+        Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(final Path file,
+                                                 final BasicFileAttributes attrs)
+                    throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(final Path dir,
+                                                          final IOException ex)
+                    throws IOException {
+                    if (ex != null)
+                        throw ex;
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+    }
+}
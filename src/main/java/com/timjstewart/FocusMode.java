@@ -0,0 +1,248 @@
+package com.timjstewart;
+
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.fusesource.jansi.AnsiConsole;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import static org.fusesource.jansi.Ansi.Color.*;
+import static org.fusesource.jansi.Ansi.ansi;
+
+/**
+ * reruns only the failing tests until they pass.
+ *
+ * After a build with failing unit tests, the failed test methods are
+ * read from the surefire reports that build wrote.  The builds that
+ * follow run only those tests (-Dtest=Class#a+b,...) in the modules
+ * that contain them, plus the modules those depend on, until all of
+ * them pass; then one full build confirms that nothing else broke.
+ * Focused builds are neither memoized nor cached, and a build forced
+ * with Enter always runs everything.
+ */
+class FocusMode {
+
+    /**
+     * how much older than the build a report may look, for file
+     * systems with coarse timestamps
+     */
+    private static final long CLOCK_SLACK_MILLIS = 2000;
+
+    private final Job job;
+
+    /**
+     * module name to the failing test classes and their failing
+     * methods ("*" standing for the whole class)
+     */
+    private final Map<String, Map<String, Set<String>>> failing = new TreeMap<>();
+
+    private boolean confirmationDue;
+
+    FocusMode(final Job job) {
+        this.job = job;
+    }
+
+    /**
+     * returns a FocusMode if focus.enabled is true, otherwise null
+     */
+    static FocusMode create(final Job job, final Properties properties) {
+        if (!Boolean.parseBoolean(properties.getProperty("focus.enabled", "false")))
+            return null;
+
+        return new FocusMode(job);
+    }
+
+    /**
+     * @return true iff the next build should run only the failing
+     * tests
+     */
+    boolean isFocused() {
+        return !failing.isEmpty();
+    }
+
+    /**
+     * narrows the request to the failing tests and their modules
+     */
+    void prepare(final InvocationRequest request) {
+        final StringBuilder tests = new StringBuilder();
+        final List<String> projects = new ArrayList<>();
+        int count = 0;
+
+        for (final Map.Entry<String, Map<String, Set<String>>> module : failing.entrySet()) {
+            projects.add(module.getKey());
+
+            for (final Map.Entry<String, Set<String>> testClass : module.getValue().entrySet()) {
+                if (tests.length() > 0)
+                    tests.append(',');
+                tests.append(testClass.getKey());
+
+                if (!testClass.getValue().contains("*")) {
+                    String separator = "#";
+                    for (final String method : testClass.getValue()) {
+                        tests.append(separator).append(method);
+                        separator = "+";
+                    }
+                }
+                count += testClass.getValue().size();
+            }
+        }
+
+        final Properties properties =
+            request.getProperties() != null ? request.getProperties() : new Properties();
+        properties.setProperty("test", tests.toString());
+        // upstream modules have none of these tests
+        properties.setProperty("surefire.failIfNoSpecifiedTests", "false");
+        properties.setProperty("failIfNoTests", "false");
+        request.setProperties(properties);
+
+        request.setProjects(projects);
+        request.setAlsoMake(true);
+
+        AnsiConsole.out.println(ansi()
+                                .fg(BLUE).a("===> ")
+                                .fg(WHITE).a(String.format("Focus: %d failing test%s in %s",
+                                                           count, count == 1 ? "" : "s", projects))
+                                .reset());
+    }
+
+    /**
+     * records the outcome of a build
+     *
+     * @param focused true iff prepare() narrowed the build
+     * @param started when the build started, to tell its reports
+     * from older ones
+     */
+    void afterBuild(final boolean focused, final boolean success, final long started) {
+        if (success) {
+            failing.clear();
+            confirmationDue = focused;
+            return;
+        }
+
+        final Map<String, Map<String, Set<String>>> found;
+        try {
+            found = readFailures(started - CLOCK_SLACK_MILLIS);
+        } catch (IOException ex) {
+            System.err.println("Could not read test reports: " + ex.getMessage());
+            return;
+        }
+
+        // a build that broke before its tests ran leaves the focus as
+        // it was; sharded builds write surefire's reports too
+        if (!found.isEmpty()) {
+            failing.clear();
+            failing.putAll(found);
+        }
+    }
+
+    /**
+     * @return true, once, after the focused tests have all passed
+     */
+    boolean takeConfirmation() {
+        final boolean due = confirmationDue;
+        confirmationDue = false;
+        return due;
+    }
+
+    /**
+     * reads the failed and erroneous test cases of every module's
+     * surefire reports written since the given time
+     */
+    private Map<String, Map<String, Set<String>>> readFailures(final long since) throws IOException {
+        final Map<String, Map<String, Set<String>>> found = new TreeMap<>();
+        final Reactor reactor = Reactor.load(new File(job.getPomFile()).toPath());
+
+        for (final Module module : reactor.getModules()) {
+            final Path reports = module.getTargetDirectory().resolve("surefire-reports");
+            if (!Files.isDirectory(reports))
+                continue;
+
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(reports, "TEST-*.xml")) {
+                for (final Path report : files) {
+                    if (Files.getLastModifiedTime(report).toMillis() < since)
+                        continue;
+
+                    readFailures(report, module.getName(), found);
+                }
+            }
+        }
+
+        return found;
+    }
+
+    private static void readFailures(final Path report,
+                                     final String module,
+                                     final Map<String, Map<String, Set<String>>> found)
+        throws IOException {
+
+        final NodeList testCases;
+        try {
+            testCases = DocumentBuilderFactory.newInstance()
+                .newDocumentBuilder()
+                .parse(report.toFile())
+                .getElementsByTagName("testcase");
+        } catch (ParserConfigurationException | SAXException ex) {
+            throw new IOException("could not parse " + report, ex);
+        }
+
+        for (int i = 0; i < testCases.getLength(); ++i) {
+            final Element testCase = (Element) testCases.item(i);
+            if (Reactor.child(testCase, "failure") == null && Reactor.child(testCase, "error") == null)
+                continue;
+
+            final String className = testCase.getAttribute("classname");
+            if (className.isEmpty())
+                continue;
+
+            Map<String, Set<String>> classes = found.get(module);
+            if (classes == null) {
+                classes = new TreeMap<>();
+                found.put(module, classes);
+            }
+
+            Set<String> methods = classes.get(className);
+            if (methods == null) {
+                methods = new LinkedHashSet<>();
+                classes.put(className, methods);
+            }
+
+            final String method = methodPattern(testCase.getAttribute("name"));
+            if (method == null) {
+                // the class itself failed (e.g. in @BeforeClass); rerun all of it
+                methods.clear();
+                methods.add("*");
+            } else if (!methods.contains("*")) {
+                methods.add(method);
+            }
+        }
+    }
+
+    /**
+     * @return the -Dtest pattern for a test case name, or null if the
+     * name is not that of a method
+     */
+    private static String methodPattern(final String name) {
+        if (name.isEmpty() || name.indexOf('.') >= 0)
+            return null;
+
+        // parameterized runs are named method[index]
+        final int bracket = name.indexOf('[');
+        return bracket > 0 ? name.substring(0, bracket) + "*" : name;
+    }
+}
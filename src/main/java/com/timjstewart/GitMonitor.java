@@ -0,0 +1,112 @@
+package com.timjstewart;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * keeps track of whether git is in the middle of rewriting the
+ * working tree (checkout, rebase, merge, pull, ...).  Builds started
+ * while that is going on would see intermediate states, so WatchDir
+ * holds back its change batches until the repository has settled.
+ *
+ * Only what git does while it runs counts: its lock files, and churn
+ * in the .git directory (refs, index) within the settle period.  The
+ * state a stopped merge or rebase leaves behind (MERGE_HEAD,
+ * rebase-merge, ...) does not, as the user builds while resolving
+ * the conflicts.
+ */
+class GitMonitor {
+
+    /**
+     * files under .git that exist only while a git command runs
+     */
+    private static final String[] LOCKS = new String[] {
+        "index.lock",
+        "HEAD.lock"
+    };
+
+    /**
+     * a lock older than this was left behind by a git that died
+     */
+    private static final long STALE_LOCK_MILLIS = 60000;
+
+    private final Path gitDirectory;
+
+    private final long settleMillis;
+
+    private volatile long lastActivity = 0;
+
+    GitMonitor(final Path gitDirectory, final long settleMillis) {
+        this.gitDirectory = gitDirectory;
+        this.settleMillis = settleMillis;
+    }
+
+    /**
+     * returns a GitMonitor for the repository containing the given
+     * directory, or null if it is not inside a git working tree
+     */
+    static GitMonitor find(final Path directory, final long settleMillis) {
+        for (Path dir = directory.toAbsolutePath().normalize(); dir != null; dir = dir.getParent()) {
+            final Path dotGit = dir.resolve(".git");
+
+            if (Files.isDirectory(dotGit))
+                return new GitMonitor(dotGit, settleMillis);
+
+            if (Files.isRegularFile(dotGit)) {
+                // worktrees and submodules: ".git" is a file holding "gitdir: PATH"
+                try {
+                    final String text = new String(Files.readAllBytes(dotGit), Charset.forName("UTF-8")).trim();
+                    if (text.startsWith("gitdir:")) {
+                        return new GitMonitor(dir.resolve(text.substring(7).trim()).normalize(),
+                                              settleMillis);
+                    }
+                } catch (IOException ex) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * returns the repository's .git directory
+     */
+    Path getGitDirectory() {
+        return gitDirectory;
+    }
+
+    /**
+     * called whenever something under the .git directory changes
+     */
+    void onActivity() {
+        lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * returns true iff a git command holds one of the repository's
+     * locks
+     */
+    boolean isOperationInProgress() {
+        final long now = System.currentTimeMillis();
+        for (final String name : LOCKS) {
+            try {
+                if (now - Files.getLastModifiedTime(gitDirectory.resolve(name)).toMillis() < STALE_LOCK_MILLIS)
+                    return true;
+            } catch (IOException ex) {
+                // no such lock
+            }
+        }
+        return false;
+    }
+
+    /**
+     * returns true iff no git command is running and the .git
+     * directory has been quiet for the settle period
+     */
+    boolean isSettled() {
+        return System.currentTimeMillis() - lastActivity >= settleMillis &&
+            !isOperationInProgress();
+    }
+}
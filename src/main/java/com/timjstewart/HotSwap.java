@@ -0,0 +1,466 @@
+package com.timjstewart;
+
+import org.fusesource.jansi.Ansi;
+import org.fusesource.jansi.AnsiConsole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+
+import static org.fusesource.jansi.Ansi.Color.*;
+import static org.fusesource.jansi.Ansi.ansi;
+
+/**
+ * pushes recompiled classes into a running application.
+ *
+ * hotswap.target names a local JVM by its pid or by part of its
+ * display name (usually its main class or jar).  After every build
+ * that compiled, the class files in the modules' target/classes that
+ * changed since the last build are redefined in that JVM by
+ * HotSwapAgent, which is loaded through the Attach API.  A JVM only
+ * accepts new method bodies: when a batch adds or removes methods or
+ * fields, or changes a class's hierarchy, none of it is applied and
+ * the user is told to restart the application.  Classes the
+ * application has not loaded yet need nothing; it will load the new
+ * versions.
+ *
+ * The time each batch took, in total and inside the application, is
+ * reported with it.
+ *
+ * The Attach API is used by reflection: JDK 9 and later have it in
+ * the jdk.attach module, older JDKs in lib/tools.jar, which is loaded
+ * if it is not on the class path, and a plain JRE has none.
+ */
+class HotSwap {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int MAX_LISTED_CLASSES = 5;
+
+    /**
+     * the parts of com.sun.tools.attach that are used
+     */
+    private static final class AttachApi {
+
+        private final Method list;
+
+        private final Method attach;
+
+        private final Method id;
+
+        private final Method displayName;
+
+        private final Method loadAgent;
+
+        private final Method detach;
+
+        private AttachApi(final ClassLoader loader) throws ReflectiveOperationException {
+            final Class<?> vm = Class.forName("com.sun.tools.attach.VirtualMachine", true, loader);
+            final Class<?> descriptor = Class.forName("com.sun.tools.attach.VirtualMachineDescriptor", true, loader);
+
+            this.list = vm.getMethod("list");
+            this.attach = vm.getMethod("attach", descriptor);
+            this.id = descriptor.getMethod("id");
+            this.displayName = descriptor.getMethod("displayName");
+            this.loadAgent = vm.getMethod("loadAgent", String.class, String.class);
+            this.detach = vm.getMethod("detach");
+        }
+
+        /**
+         * @return the Attach API of the running JDK, or null if it has
+         * none
+         */
+        static AttachApi find() {
+            try {
+                return new AttachApi(HotSwap.class.getClassLoader());
+            } catch (ReflectiveOperationException | LinkageError ex) {
+                // not on the class path
+            }
+
+            // java.home is the jre directory of a JDK 8 or older
+            final Path tools = Paths.get(System.getProperty("java.home")).resolveSibling("lib").resolve("tools.jar");
+            if (Files.isRegularFile(tools)) {
+                try {
+                    return new AttachApi(new URLClassLoader(new URL[] { tools.toUri().toURL() }));
+                } catch (IOException | ReflectiveOperationException | LinkageError ex) {
+                    // unusable
+                }
+            }
+            return null;
+        }
+
+        List<?> list() throws IOException {
+            return (List<?>) invoke(list, null);
+        }
+
+        Object attach(final Object descriptor) throws IOException {
+            return invoke(attach, null, descriptor);
+        }
+
+        String id(final Object descriptor) throws IOException {
+            return (String) invoke(id, descriptor);
+        }
+
+        String displayName(final Object descriptor) throws IOException {
+            return (String) invoke(displayName, descriptor);
+        }
+
+        void loadAgent(final Object vm, final String agent, final String options) throws IOException {
+            invoke(loadAgent, vm, agent, options);
+        }
+
+        void detach(final Object vm) throws IOException {
+            invoke(detach, vm);
+        }
+
+        /**
+         * calls method, turning whatever it throws into an IOException
+         */
+        private static Object invoke(final Method method, final Object target, final Object... args)
+            throws IOException {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException ex) {
+                final Throwable cause = ex.getCause();
+                if (cause instanceof IOException)
+                    throw (IOException) cause;
+                throw new IOException(cause.getMessage() != null ? cause.getMessage() : cause.toString(), cause);
+            } catch (IllegalAccessException ex) {
+                throw new IOException(ex.getMessage(), ex);
+            }
+        }
+    }
+
+    private final Job job;
+
+    private final String target;
+
+    private final AttachApi attachApi;
+
+    private final TreeHasher hasher;
+
+    private final Path agentJar;
+
+    private final Path requestFile;
+
+    /**
+     * every class file with the digest of its contents, as of the
+     * last build whose changes the application took or cannot take
+     */
+    private Map<Path, String> classFiles = new HashMap<>();
+
+    private Object vm;
+
+    private String attachedTo;
+
+    private HotSwap(final Job job,
+                    final String target,
+                    final Path directory,
+                    final AttachApi attachApi,
+                    final TreeHasher hasher) throws IOException {
+        this.job = job;
+        this.target = target;
+        this.attachApi = attachApi;
+        this.hasher = hasher;
+        this.agentJar = writeAgentJar(directory);
+        this.requestFile = directory.resolve("request-" + ownPid() + ".txt");
+        this.classFiles = scan(new TreeMap<String, Path>());
+    }
+
+    /**
+     * returns a HotSwap pushing classes to the JVM named by
+     * hotswap.target, or null if there is none or the Attach API is
+     * not available
+     */
+    static HotSwap create(final Job job, final Properties properties, final TreeHasher hasher) {
+        final String target = properties.getProperty("hotswap.target");
+        if (target == null || target.trim().isEmpty())
+            return null;
+
+        final AttachApi attachApi = AttachApi.find();
+        if (attachApi == null) {
+            System.err.println("Could not set up hot swapping: the Attach API is missing; run mvn8r with a JDK");
+            return null;
+        }
+
+        try {
+            return new HotSwap(job, target.trim(),
+                               Paths.get(System.getProperty("user.home"), ".mvn8r", "hotswap"),
+                               attachApi,
+                               hasher);
+        } catch (IOException ex) {
+            System.err.println("Could not set up hot swapping: " + ex);
+            return null;
+        }
+    }
+
+    /**
+     * redefines the classes that changed since the last build
+     */
+    void swapChanged() {
+        final long started = System.currentTimeMillis();
+
+        final Map<String, Path> changed = new TreeMap<>();
+        final Map<Path, String> scanned;
+        try {
+            scanned = scan(changed);
+        } catch (IOException ex) {
+            System.err.println("Could not find changed classes: " + ex.getMessage());
+            return;
+        }
+
+        // until the application has the classes, they stay changed
+        // and are sent again after the next build
+        if (changed.isEmpty()) {
+            classFiles = scanned;
+            return;
+        }
+
+        try {
+            if (attach() == null) {
+                // an application started later loads them from disk
+                classFiles = scanned;
+                report(ansi().fg(YELLOW).a(String.format("%d changed class%s, but no JVM matches '%s'",
+                                                          changed.size(), changed.size() == 1 ? "" : "es", target)));
+                return;
+            }
+
+            final StringBuilder request = new StringBuilder();
+            for (final Map.Entry<String, Path> entry : changed.entrySet()) {
+                request.append(entry.getKey()).append('\t').append(entry.getValue()).append('\n');
+            }
+            final Path resultFile = requestFile.resolveSibling(requestFile.getFileName() + ".out");
+            Files.deleteIfExists(resultFile);
+            Files.write(requestFile, request.toString().getBytes(UTF8));
+
+            attachApi.loadAgent(vm, agentJar.toString(), requestFile.toString());
+
+            if (printResult(Files.readAllLines(resultFile, UTF8),
+                            changed,
+                            System.currentTimeMillis() - started)) {
+                classFiles = scanned;
+            }
+        } catch (IOException ex) {
+            // the application may have gone; attach again next time
+            detach();
+            report(ansi().fg(RED).a("could not reach the application: " + ex.getMessage()));
+        }
+    }
+
+    /**
+     * @return true iff the classes were redefined or the application
+     * cannot take them at all, as opposed to the redefinition failing
+     */
+    private boolean printResult(final List<String> lines,
+                                final Map<String, Path> changed,
+                                final long millis) {
+        int redefined = 0;
+        int notLoaded = 0;
+        long micros = 0;
+
+        final List<String> rejected = new ArrayList<>();
+        for (final String line : lines) {
+            if (line.startsWith("REJECTED\t"))
+                rejected.add(line.substring("REJECTED\t".length()));
+        }
+
+        for (final String line : lines) {
+            final String[] fields = line.split("\t");
+
+            switch (fields[0]) {
+            case "REDEFINED":
+                redefined = Integer.parseInt(fields[1]);
+                micros = Long.parseLong(fields[2]);
+                break;
+            case "NOT_LOADED":
+                notLoaded = Integer.parseInt(fields[1]);
+                break;
+            case "REJECTED":
+                break;
+            case "UNSUPPORTED":
+                // the agent may not tell which classes were at fault
+                report(ansi().fg(RED).a(attachedTo + " cannot take these changes (" + fields[1] +
+                                        "); restart it: " +
+                                        describe(rejected.isEmpty() ? new ArrayList<>(changed.keySet()) : rejected)));
+                return true;
+            default:
+                report(ansi().fg(RED).a("redefining " + describe(new ArrayList<>(changed.keySet())) + " failed: " +
+                                        (fields.length > 1 ? fields[1] : line)));
+                return false;
+            }
+        }
+
+        report(ansi().fg(GREEN).a(String.format("%d class%s redefined in %s",
+                                                redefined, redefined == 1 ? "" : "es", attachedTo))
+               .fg(WHITE).a(String.format(" (%.1f ms in the JVM, %d ms in all%s)",
+                                          micros / 1000.0, millis,
+                                          notLoaded > 0 ? ", " + notLoaded + " not loaded yet" : "")));
+        return true;
+    }
+
+    private static void report(final Ansi message) {
+        AnsiConsole.out.println(ansi()
+                                .fg(BLUE).a("=> ")
+                                .fg(WHITE).a("HotSwap: ")
+                                .a(message)
+                                .reset());
+    }
+
+    private static String describe(final List<String> names) {
+        if (names.size() <= MAX_LISTED_CLASSES)
+            return names.toString();
+        return names.subList(0, MAX_LISTED_CLASSES) + " and " + (names.size() - MAX_LISTED_CLASSES) + " more";
+    }
+
+    /**
+     * @return the JVM to redefine classes in, attaching to it first if
+     * need be, or null if no JVM matches
+     */
+    private Object attach() throws IOException {
+        if (vm != null)
+            return vm;
+
+        final String self = ownPid();
+        final boolean byPid = target.matches("[0-9]+");
+
+        for (final Object descriptor : attachApi.list()) {
+            final String id = attachApi.id(descriptor);
+            final String displayName = attachApi.displayName(descriptor);
+            if (id.equals(self))
+                continue;
+
+            if (byPid ? id.equals(target) : displayName.contains(target)) {
+                vm = attachApi.attach(descriptor);
+                attachedTo = id + " (" + displayName.split(" ")[0] + ")";
+                return vm;
+            }
+        }
+        return null;
+    }
+
+    private void detach() {
+        if (vm != null) {
+            try {
+                attachApi.detach(vm);
+            } catch (IOException ex) {
+                // gone already
+            }
+            vm = null;
+        }
+    }
+
+    /**
+     * hashes the class files of every module and adds those that are
+     * new or whose contents changed to changed.  A rebuild that
+     * writes the same bytes again changes nothing.
+     *
+     * @return the fingerprints
+     */
+    private Map<Path, String> scan(final Map<String, Path> changed) throws IOException {
+        final Map<Path, String> scanned = new HashMap<>();
+
+        for (final Module module : Reactor.load(new File(job.getPomFile()).toPath()).getModules()) {
+            final Path classes = module.getTargetDirectory().resolve("classes");
+            if (!Files.isDirectory(classes))
+                continue;
+
+            Files.walkFileTree(classes, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs)
+                        throws IOException {
+                        final String name = file.getFileName().toString();
+                        if (!name.endsWith(".class") || name.equals("module-info.class"))
+                            return FileVisitResult.CONTINUE;
+
+                        final String fingerprint = hasher.hashFile(file);
+                        scanned.put(file, fingerprint);
+
+                        if (!fingerprint.equals(classFiles.get(file))) {
+                            final String relative = classes.relativize(file).toString();
+                            changed.put(relative
+                                        .substring(0, relative.length() - ".class".length())
+                                        .replace(File.separatorChar, '.'),
+                                        file.toAbsolutePath());
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+        }
+
+        return scanned;
+    }
+
+    /**
+     * writes the jar the agent is loaded from, named after its
+     * contents so a new version never meets an old one
+     */
+    private static Path writeAgentJar(final Path directory) throws IOException {
+        final byte[] agent;
+        try (InputStream in = HotSwap.class.getResourceAsStream("HotSwapAgent.class")) {
+            if (in == null)
+                throw new IOException("HotSwapAgent.class not found");
+
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) > 0; )
+                bytes.write(buffer, 0, n);
+            agent = bytes.toByteArray();
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(agent);
+        final Path jar = directory.resolve("agent-" + Long.toHexString(crc.getValue()) + ".jar");
+        if (Files.isRegularFile(jar))
+            return jar;
+
+        Files.createDirectories(directory);
+
+        final Manifest manifest = new Manifest();
+        final Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.putValue("Agent-Class", HotSwapAgent.class.getName());
+        attributes.putValue("Can-Redefine-Classes", "true");
+
+        final Path temporary = jar.resolveSibling(jar.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temporary);
+             JarOutputStream jarOut = new JarOutputStream(out, manifest)) {
+            jarOut.putNextEntry(new JarEntry(HotSwapAgent.class.getName().replace('.', '/') + ".class"));
+            jarOut.write(agent);
+            jarOut.closeEntry();
+        }
+        Files.move(temporary, jar, StandardCopyOption.REPLACE_EXISTING);
+        return jar;
+    }
+
+    private static String ownPid() {
+        final String name = ManagementFactory.getRuntimeMXBean().getName();
+        final int at = name.indexOf('@');
+        return at > 0 ? name.substring(0, at) : name;
+    }
+}
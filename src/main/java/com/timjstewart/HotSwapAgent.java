@@ -0,0 +1,263 @@
+package com.timjstewart;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.instrument.ClassDefinition;
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * redefines classes inside the JVM HotSwap attached to.
+ *
+ * HotSwap loads this agent once per batch with the path of a request
+ * file as its argument.  Each line of the request names a class and
+ * the class file to redefine it from, separated by a tab.  The
+ * classes that are loaded are redefined all at once, so a batch is
+ * either applied completely or not at all, and the outcome is written
+ * to the request file's path plus ".out":
+ *
+ *   REDEFINED count micros    the batch was applied
+ *   NOT_LOADED count          classes that were not loaded (yet)
+ *   REJECTED class            a class whose members or hierarchy changed,
+ *                             one line each, before UNSUPPORTED
+ *   UNSUPPORTED message       the JVM refused, e.g. a method was added
+ *   FAILED message            the class files could not be used
+ *
+ * The JVM does not say which classes it refused, so the members and
+ * supertypes of each new class file are compared with those of the
+ * loaded class.  That misses changes to modifiers or static
+ * initializers, in which case no class is named.
+ *
+ * The agent runs in the application's JVM with nothing but its own
+ * jar, so it must not use any other mvn8r class.
+ */
+public class HotSwapAgent {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static void agentmain(final String request, final Instrumentation instrumentation)
+        throws IOException {
+
+        final Map<String, String> classFiles = new HashMap<>();
+        try (BufferedReader in = new BufferedReader(
+                 new InputStreamReader(new FileInputStream(request), UTF8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                final int tab = line.indexOf('\t');
+                if (tab > 0)
+                    classFiles.put(line.substring(0, tab), line.substring(tab + 1));
+            }
+        }
+
+        final List<String> result = new ArrayList<>();
+
+        try {
+            final List<ClassDefinition> definitions = new ArrayList<>();
+            final Map<String, byte[]> bytes = new HashMap<>();
+
+            // the same class may be loaded by several class loaders
+            for (final Class<?> loaded : instrumentation.getAllLoadedClasses()) {
+                final String classFile = classFiles.get(loaded.getName());
+                if (classFile == null || !instrumentation.isModifiableClass(loaded))
+                    continue;
+
+                byte[] definition = bytes.get(loaded.getName());
+                if (definition == null) {
+                    definition = Files.readAllBytes(Paths.get(classFile));
+                    bytes.put(loaded.getName(), definition);
+                }
+                definitions.add(new ClassDefinition(loaded, definition));
+            }
+
+            final long started = System.nanoTime();
+            if (!definitions.isEmpty()) {
+                instrumentation.redefineClasses(definitions.toArray(new ClassDefinition[definitions.size()]));
+            }
+            final long micros = (System.nanoTime() - started) / 1000;
+
+            result.add("REDEFINED\t" + definitions.size() + "\t" + micros);
+            result.add("NOT_LOADED\t" + (classFiles.size() - bytes.size()));
+        } catch (UnsupportedOperationException ex) {
+            for (final Class<?> loaded : instrumentation.getAllLoadedClasses()) {
+                final String classFile = classFiles.get(loaded.getName());
+                if (classFile != null && isReshaped(loaded, classFile))
+                    result.add("REJECTED\t" + loaded.getName());
+            }
+            result.add("UNSUPPORTED\t" + oneLine(ex));
+        } catch (ClassNotFoundException | UnmodifiableClassException | LinkageError |
+                 IOException | RuntimeException ex) {
+            result.add("FAILED\t" + oneLine(ex));
+        }
+
+        final File out = new File(request + ".out");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(out), UTF8)) {
+            for (final String line : result) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+    }
+
+    /**
+     * @return true iff the class file declares other fields, methods or
+     * supertypes than the loaded class
+     */
+    private static boolean isReshaped(final Class<?> loaded, final String classFile) {
+        try {
+            return !shape(loaded).equals(shape(Files.readAllBytes(Paths.get(classFile))));
+        } catch (IOException | LinkageError | RuntimeException ex) {
+            // cannot tell
+            return false;
+        }
+    }
+
+    /**
+     * @return the supertypes and members of a loaded class
+     */
+    private static Set<String> shape(final Class<?> type) {
+        final Set<String> shape = new HashSet<>();
+
+        final Class<?> superclass = type.getSuperclass();
+        shape.add("super " + (superclass != null ? superclass.getName() : "java.lang.Object"));
+        for (final Class<?> implemented : type.getInterfaces())
+            shape.add("interface " + implemented.getName());
+
+        for (final Field field : type.getDeclaredFields())
+            shape.add("field " + field.getName() + " " + descriptor(field.getType()) +
+                      (Modifier.isStatic(field.getModifiers()) ? " static" : ""));
+
+        for (final Method method : type.getDeclaredMethods())
+            shape.add("method " + method.getName() + descriptor(method.getParameterTypes(), method.getReturnType()));
+
+        for (final Constructor<?> constructor : type.getDeclaredConstructors())
+            shape.add("method <init>" + descriptor(constructor.getParameterTypes(), void.class));
+
+        return shape;
+    }
+
+    /**
+     * @return the supertypes and members a class file declares
+     */
+    private static Set<String> shape(final byte[] classFile) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+        in.skipBytes(8);
+
+        // UTF-8 constants by index, and the index of each class's name
+        final int count = in.readUnsignedShort();
+        final String[] utf8 = new String[count];
+        final int[] classNames = new int[count];
+        for (int i = 1; i < count; ++i) {
+            final int tag = in.readUnsignedByte();
+            switch (tag) {
+            case 1:
+                utf8[i] = in.readUTF();
+                break;
+            case 7:
+                classNames[i] = in.readUnsignedShort();
+                break;
+            case 8: case 16: case 19: case 20:
+                in.skipBytes(2);
+                break;
+            case 15:
+                in.skipBytes(3);
+                break;
+            case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18:
+                in.skipBytes(4);
+                break;
+            case 5: case 6:
+                in.skipBytes(8);
+                ++i;
+                break;
+            default:
+                throw new IOException("unknown constant pool tag " + tag);
+            }
+        }
+
+        final Set<String> shape = new HashSet<>();
+
+        in.skipBytes(4);
+        final int superclass = in.readUnsignedShort();
+        shape.add("super " + (superclass != 0 ? utf8[classNames[superclass]].replace('/', '.') : "java.lang.Object"));
+        for (int i = in.readUnsignedShort(); i > 0; --i)
+            shape.add("interface " + utf8[classNames[in.readUnsignedShort()]].replace('/', '.'));
+
+        for (int i = in.readUnsignedShort(); i > 0; --i) {
+            final int access = in.readUnsignedShort();
+            final String name = utf8[in.readUnsignedShort()];
+            final String descriptor = utf8[in.readUnsignedShort()];
+            shape.add("field " + name + " " + descriptor + ((access & 0x0008) != 0 ? " static" : ""));
+            skipAttributes(in);
+        }
+
+        for (int i = in.readUnsignedShort(); i > 0; --i) {
+            in.skipBytes(2);
+            final String name = utf8[in.readUnsignedShort()];
+            final String descriptor = utf8[in.readUnsignedShort()];
+            // reflection does not show static initializers
+            if (!name.equals("<clinit>"))
+                shape.add("method " + name + descriptor);
+            skipAttributes(in);
+        }
+
+        return shape;
+    }
+
+    private static void skipAttributes(final DataInputStream in) throws IOException {
+        for (int i = in.readUnsignedShort(); i > 0; --i) {
+            in.skipBytes(2);
+            in.skipBytes(in.readInt());
+        }
+    }
+
+    private static String descriptor(final Class<?>[] parameters, final Class<?> returned) {
+        final StringBuilder descriptor = new StringBuilder("(");
+        for (final Class<?> parameter : parameters)
+            descriptor.append(descriptor(parameter));
+        return descriptor.append(')').append(descriptor(returned)).toString();
+    }
+
+    private static String descriptor(final Class<?> type) {
+        if (type.isArray())
+            return type.getName().replace('.', '/');
+        if (!type.isPrimitive())
+            return "L" + type.getName().replace('.', '/') + ";";
+
+        switch (type.getName()) {
+        case "boolean": return "Z";
+        case "byte":    return "B";
+        case "char":    return "C";
+        case "short":   return "S";
+        case "int":     return "I";
+        case "long":    return "J";
+        case "float":   return "F";
+        case "double":  return "D";
+        default:        return "V";
+        }
+    }
+
+    private static String oneLine(final Throwable ex) {
+        final String message = ex.getMessage() != null ? ex.getMessage() : ex.getClass().getName();
+        return message.replace('\n', ' ').replace('\t', ' ');
+    }
+}
@@ -2,6 +2,9 @@ package com.timjstewart;
 
 import java.io.File;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 
 public class Job {
@@ -17,9 +20,10 @@ public class Job {
     private final String[] tasks;
 
     /**
-     * the (optional) path to the Java home directory to use
+     * the paths to the Java home directories to build with; empty to
+     * use maven's default
      */
-    private final String javaHome;
+    private final List<String> javaHomes;
 
     /**
      * the (optional) specifier for how many threads to use
@@ -28,6 +32,9 @@ public class Job {
 
     /**
      * creates a Job
+     *
+     * @param javaHome an (optional) Java home directory, or a comma
+     * separated list of them to build with each
      */
     public Job(
             final String pomFile,
@@ -37,15 +44,23 @@ public class Job {
     ) {
         this.pomFile     = Objects.requireNonNull(pomFile);
         this.tasks       = Objects.requireNonNull(tasks);
-        this.javaHome    = javaHome;
+        this.javaHomes   = parseJavaHomes(javaHome);
         this.threadsSpec = threadsSpec;
     }
 
     /**
-     * returns the Java Home directory for maven to use
+     * returns the (first) Java Home directory for maven to use
      */
     public String getJavaHome() {
-        return javaHome;
+        return javaHomes.isEmpty() ? null : javaHomes.get(0);
+    }
+
+    /**
+     * returns every Java Home directory the project should be built
+     * with
+     */
+    public List<String> getJavaHomes() {
+        return javaHomes;
     }
 
     /**
@@ -76,4 +91,15 @@ public class Job {
     public Path getProjectDirectory() {
         return new File(pomFile).getParentFile().toPath();
     }
+
+    private static List<String> parseJavaHomes(final String javaHome) {
+        final List<String> javaHomes = new ArrayList<>();
+        if (javaHome != null) {
+            for (final String part : javaHome.split(",")) {
+                if (!part.trim().isEmpty())
+                    javaHomes.add(part.trim());
+            }
+        }
+        return Collections.unmodifiableList(javaHomes);
+    }
 }
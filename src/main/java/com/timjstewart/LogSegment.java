@@ -0,0 +1,175 @@
+package com.timjstewart;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * the raw maven output of one build, appended to a memory mapped
+ * file.  Appending a line is a copy into the mapping; the kernel
+ * writes the pages out in the background.
+ *
+ * Next to the segment an index file lists the byte offsets of
+ * interesting lines, one "OFFSET KIND NAME" entry per line, so that
+ * errors and rule blocks can be found without scanning the segment.
+ * The index is written when the segment is closed, after the segment
+ * has been trimmed, so a segment without one is still being written
+ * (or was left behind by a killed mvn8r).
+ */
+class LogSegment implements AutoCloseable {
+
+    static final String LOG_SUFFIX = ".log";
+    static final String INDEX_SUFFIX = ".idx";
+
+    static final String BLOCK_START = "start";
+    static final String BLOCK_END = "end";
+    static final String ERROR = "error";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * how much of the file is mapped at a time
+     */
+    private static final int CHUNK = 4 * 1024 * 1024;
+
+    private final Path file;
+
+    private final FileChannel channel;
+
+    private final StringBuilder index = new StringBuilder();
+
+    private MappedByteBuffer buffer;
+
+    /**
+     * file offset of the start of the current mapping
+     */
+    private long base = 0;
+
+    LogSegment(final Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file,
+                                        StandardOpenOption.CREATE_NEW,
+                                        StandardOpenOption.READ,
+                                        StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, CHUNK);
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * appends a line
+     *
+     * @return the offset of the line within the segment
+     */
+    long append(final String line) throws IOException {
+        final byte[] bytes = line.getBytes(UTF8);
+        return append(bytes, 0, bytes.length);
+    }
+
+    /**
+     * appends a line that is already encoded (without its line
+     * terminator)
+     *
+     * @return the offset of the line within the segment
+     */
+    synchronized long append(final byte[] bytes, final int offset, final int length)
+        throws IOException {
+        if (buffer == null)
+            throw new IOException("build log closed");
+
+        if (buffer.remaining() < length + 1) {
+            base += buffer.position();
+            unmap(buffer);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, base, Math.max(CHUNK, length + 1));
+        }
+
+        final long position = base + buffer.position();
+        buffer.put(bytes, offset, length);
+        buffer.put((byte) '\n');
+        return position;
+    }
+
+    /**
+     * adds an entry to the segment's index
+     */
+    synchronized void mark(final long offset, final String kind, final String name) {
+        index.append(offset).append(' ').append(kind).append(' ').append(name).append('\n');
+    }
+
+    /**
+     * trims the segment to what was written and saves its index.
+     * Closing a closed segment does nothing.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (buffer == null)
+            return;
+
+        final long length = base + buffer.position();
+
+        // a mapped file cannot be truncated everywhere (Windows)
+        unmap(buffer);
+        buffer = null;
+
+        try {
+            channel.truncate(length);
+        } finally {
+            channel.close();
+        }
+
+        final Path indexFile = indexFileOf(file);
+        final Path temporary = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporary, UTF8)) {
+            writer.write(index.toString());
+        }
+        Files.move(temporary, indexFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * releases a mapping now instead of whenever the buffer is garbage
+     * collected.  Java has no public way to do this, so it is done
+     * through the JDK's internals, where they allow it.
+     */
+    private static void unmap(final MappedByteBuffer buffer) {
+        try {
+            // Java 9 and later
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            return;
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            // try the Java 7 and 8 way
+        }
+
+        try {
+            final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            final Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null)
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            // left to the garbage collector
+        }
+    }
+
+    /**
+     * returns the index file that belongs to a segment
+     */
+    static Path indexFileOf(final Path segment) {
+        final String name = segment.getFileName().toString();
+        return segment.resolveSibling(name.substring(0, name.length() - LOG_SUFFIX.length()) + INDEX_SUFFIX);
+    }
+}
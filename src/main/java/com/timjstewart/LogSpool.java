@@ -0,0 +1,164 @@
+package com.timjstewart;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * the directory of raw build logs.  Every build gets a new
+ * LogSegment; once the segments add up to more than the configured
+ * size the oldest ones are deleted.  A build still running when mvn8r
+ * exits (Ctrl-C) has its segment closed by a shutdown hook.
+ */
+class LogSpool {
+
+    /**
+     * a segment without an index this much older than now was left
+     * behind by an mvn8r that could not close it (kill -9)
+     */
+    private static final long ORPHAN_MILLIS = 24 * 60 * 60 * 1000;
+
+    private final Path directory;
+
+    private final long maxBytes;
+
+    /**
+     * the segment of the build that is running, or null
+     */
+    private volatile LogSegment current;
+
+    LogSpool(final Path directory, final long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+
+        Runtime.getRuntime().addShutdownHook(new Thread("LogSpool") {
+                @Override
+                public void run() {
+                    final LogSegment segment = current;
+                    if (segment != null) {
+                        try {
+                            segment.close();
+                        } catch (IOException ex) {
+                            // exiting anyway
+                        }
+                    }
+                }
+            });
+    }
+
+    /**
+     * returns the directory named by the logs.directory property
+     */
+    static Path directoryOf(final Properties properties) {
+        final String configured = properties.getProperty("logs.directory");
+
+        return configured != null
+            ? Paths.get(configured)
+            : Paths.get(System.getProperty("user.home"), ".mvn8r", "logs");
+    }
+
+    /**
+     * returns a LogSpool configured by the logs.* properties, or null
+     * if spooling is turned off
+     */
+    static LogSpool create(final Properties properties) {
+        if (!Boolean.parseBoolean(properties.getProperty("logs.enabled", "false")))
+            return null;
+
+        return new LogSpool(directoryOf(properties),
+                            Long.parseLong(properties.getProperty("logs.max.mb", "256")) * 1024 * 1024);
+    }
+
+    /**
+     * starts the segment for a new build of the given job
+     */
+    LogSegment open(final Job job) throws IOException {
+        Files.createDirectories(directory);
+
+        final String project = new File(job.getPomFile())
+            .getAbsoluteFile().getParentFile().getName();
+
+        final String name = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date())
+            + "-" + project.replaceAll("[^A-Za-z0-9_.-]", "_");
+
+        current = new LogSegment(directory.resolve(name + LogSegment.LOG_SUFFIX));
+        return current;
+    }
+
+    /**
+     * closes the segment of the build that just finished
+     */
+    void close(final LogSegment segment) throws IOException {
+        current = null;
+        segment.close();
+    }
+
+    /**
+     * deletes the oldest segments until the rest fit in maxBytes
+     */
+    void prune() throws IOException {
+        final List<Path> segments = list(directory);
+
+        long total = 0;
+        for (final Path segment : segments) {
+            total += Files.size(segment);
+        }
+
+        // list() returns the newest first; the newest is always kept
+        for (int i = segments.size() - 1; i > 0 && total > maxBytes; --i) {
+            final Path segment = segments.get(i);
+            total -= Files.size(segment);
+            Files.deleteIfExists(segment);
+            Files.deleteIfExists(LogSegment.indexFileOf(segment));
+        }
+
+        final long orphaned = System.currentTimeMillis() - ORPHAN_MILLIS;
+        for (final Path segment : all(directory)) {
+            if (!Files.isRegularFile(LogSegment.indexFileOf(segment)) &&
+                Files.getLastModifiedTime(segment).toMillis() < orphaned) {
+                Files.deleteIfExists(segment);
+            }
+        }
+    }
+
+    /**
+     * returns the complete segments in the directory (the ones with
+     * an index), newest first
+     */
+    static List<Path> list(final Path directory) throws IOException {
+        final List<Path> segments = new ArrayList<>();
+
+        for (final Path segment : all(directory)) {
+            if (Files.isRegularFile(LogSegment.indexFileOf(segment)))
+                segments.add(segment);
+        }
+
+        // names start with a timestamp
+        Collections.sort(segments, Collections.reverseOrder());
+        return segments;
+    }
+
+    private static List<Path> all(final Path directory) throws IOException {
+        final List<Path> segments = new ArrayList<>();
+
+        if (!Files.isDirectory(directory))
+            return segments;
+
+        try (DirectoryStream<Path> stream =
+             Files.newDirectoryStream(directory, "*" + LogSegment.LOG_SUFFIX)) {
+            for (final Path segment : stream) {
+                segments.add(segment);
+            }
+        }
+        return segments;
+    }
+}
@@ -2,9 +2,7 @@ package com.timjstewart;
 
 import org.apache.maven.shared.invoker.DefaultInvocationRequest;
 import org.apache.maven.shared.invoker.DefaultInvoker;
-import org.apache.maven.shared.invoker.InvocationOutputHandler;
 import org.apache.maven.shared.invoker.InvocationRequest;
-import org.apache.maven.shared.invoker.InvocationResult;
 import org.apache.maven.shared.invoker.Invoker;
 import org.apache.maven.shared.invoker.MavenInvocationException;
 import org.fusesource.jansi.AnsiConsole;
@@ -26,25 +24,100 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 
-import com.timjstewart.rules.BlockRule;
-import com.timjstewart.rules.BlockRuleListener;
-import com.timjstewart.rules.IgnoreLineContainingRule;
-import com.timjstewart.rules.IgnoreLineMatchingRegexRule;
-import com.timjstewart.rules.MultiLineRule;
-import com.timjstewart.rules.NullRule;
-import com.timjstewart.rules.SingleLineRegexRule;
+import com.timjstewart.rules.RuleSet;
 
 public class Main {
 
+    /**
+     * remembers file digests between builds
+     */
+    private static final TreeHasher hasher = new TreeHasher();
+
+    /**
+     * the (optional) store of module outputs
+     */
+    private static ModuleCache moduleCache;
+
+    /**
+     * the (optional) record of previous builds' outcomes
+     */
+    private static BuildMemo buildMemo;
+
+    /**
+     * picks the thread count when threads.spec is "auto"
+     */
+    private static ThreadTuner threadTuner;
+
+    /**
+     * the (optional) directory raw build output is kept in
+     */
+    private static LogSpool logSpool;
+
+    /**
+     * supplies the current (hot reloaded) rules
+     */
+    private static RuleSetWatcher ruleSets;
+
+    /**
+     * the (optional) JVM options that speed up maven's startup
+     */
+    private static StartupProfile startupProfile;
+
+    /**
+     * the (optional) background dependency resolver and cache warmer
+     */
+    private static Prewarmer prewarmer;
+
+    /**
+     * builds with every JDK when several are configured, otherwise null
+     */
+    private static MatrixBuild matrix;
+
+    /**
+     * runs unit tests on worker JVMs when configured, otherwise null
+     */
+    private static ShardCoordinator shards;
+
+    /**
+     * the (optional) server build events are streamed to
+     */
+    private static EventServer events;
+
+    /**
+     * narrows builds to the failing tests when enabled, otherwise null
+     */
+    private static FocusMode focus;
+
+    /**
+     * copies changed resources without maven when enabled, otherwise
+     * null
+     */
+    private static ResourceSync resources;
+
+    /**
+     * pushes recompiled classes into a running JVM when configured,
+     * otherwise null
+     */
+    private static HotSwap hotSwap;
+
+    /**
+     * the watcher, once it is running
+     */
+    private static volatile WatchDir watchDir;
+
     /**
      * main entry point into the program
      */
     public static void main(String[] args) {
 
+        final Properties properties = loadProperties();
+
+        args = applyOptions(args, properties);
+
         if (args.length < 2) {
             usage();
             System.exit(1);
@@ -52,10 +125,33 @@ public class Main {
 
         AnsiConsole.systemInstall();
 
-        final Properties properties = loadProperties();
-
         final Job job = createJob(args, properties);
 
+        moduleCache = ModuleCache.create(properties, hasher);
+        buildMemo = BuildMemo.create(properties, hasher);
+        threadTuner = ThreadTuner.create(job, properties);
+        logSpool = LogSpool.create(properties);
+        ruleSets = RuleSetWatcher.create(job, properties);
+        ruleSets.start();
+        startupProfile = StartupProfile.create(job, properties);
+        prewarmer = Prewarmer.create(job, properties, hasher);
+        matrix = MatrixBuild.create(job, properties);
+        shards = ShardCoordinator.create(job, properties);
+        events = EventServer.create(properties);
+        focus = FocusMode.create(job, properties);
+        resources = ResourceSync.create(job, properties);
+        hotSwap = HotSwap.create(job, properties, hasher);
+        if (events != null) {
+            events.start();
+            AnsiConsole.out.println(ansi()
+                                    .fg(BLUE).a("=> ")
+                                    .fg(WHITE).a("Events: 127.0.0.1:" + events.getPort())
+                                    .reset());
+        }
+        if (prewarmer != null) {
+            prewarmer.start();
+        }
+
         watchForChanges(job, properties);
     }
 
@@ -65,155 +161,483 @@ public class Main {
      */
     private static void watchForChanges(final Job job,
                                         final Properties properties) {
+        watchConsole(job, properties);
+
         try {
-            new WatchDir(job.getProjectDirectory())
-                .processEvents(new WatchDir.Handler() {
+            final GitMonitor git =
+                GitMonitor.find(job.getProjectDirectory(),
+                                Long.parseLong(properties.getProperty("git.settle.millis", "500")));
+
+            watchDir = new WatchDir(job.getProjectDirectory(),
+                                    watchedTrees(job),
+                                    git,
+                                    watchBudget(properties),
+                                    Long.parseLong(properties.getProperty("watch.poll.millis",
+                                                                          String.valueOf(WatchDir.DEFAULT_POLL_MILLIS))));
+            watchDir.syncResourcesWith(resources);
+            watchDir.mirrorChangesTo(matrix);
+            watchDir.recomputeTreesWith(new WatchDir.Trees() {
+                    @Override
+                    public List<Path> find() throws IOException {
+                        return sourceRoots(job);
+                    }
+                });
+
+            watchDir.processEvents(new WatchDir.Handler() {
 
-                        @Override
-                        public void onChange(final String[] changedFiles) {
-                            
+                    @Override
+                    public void onChange(final String[] changedFiles) {
+
+                        if (prewarmer != null) {
+                            prewarmer.pause();
+                        }
+
+                        if (events != null) {
+                            events.filesChanged(changedFiles);
+                        }
+
+                        AnsiConsole.out.println(ansi()
+                                                .fg(BLUE).a("=> ") 
+                                                .fg(WHITE).a("Building:")
+                                                .reset());
+                        
+                        for (final String file : changedFiles) {
                             AnsiConsole.out.println(ansi()
-                                                    .fg(BLUE).a("=> ") 
-                                                    .fg(WHITE).a("Building:")
+                                                    .fg(BLUE).a("===> ")
+                                                    .fg(WHITE).a(file)
                                                     .reset());
-                            
-                            for (final String file : changedFiles) {
-                                AnsiConsole.out.println(ansi()
-                                                        .fg(BLUE).a("===> ")
-                                                        .fg(WHITE).a(file)
-                                                        .reset());
-                            }
-                            
-                            perform(job, properties, changedFiles);
                         }
-                    });
+                        
+                        perform(job, properties, false);
+                    }
+                });
         } catch (IOException ex) {
             ex.printStackTrace();
         }
     }
 
-    private static void perform(final Job job, 
-                                final Properties properties, 
-                                final String[] changedFiles) {
+    /**
+     * @return the source, resource and test roots of every module, or
+     * the whole project if the poms cannot be read
+     */
+    private static List<Path> watchedTrees(final Job job) {
+        try {
+            return sourceRoots(job);
+        } catch (IOException ex) {
+            System.err.println("Could not read the poms; watching the whole project: " + ex.getMessage());
+            return Collections.singletonList(job.getProjectDirectory());
+        }
+    }
+
+    /**
+     * @return the source, resource and test roots of every module
+     */
+    private static List<Path> sourceRoots(final Job job) throws IOException {
+        final List<Path> trees = new ArrayList<>();
+        for (final Module module : Reactor.load(new File(job.getPomFile()).toPath()).getModules()) {
+            trees.addAll(module.getSourceRoots());
+        }
+        return trees;
+    }
 
-        // array hack because flag must be final because it's passed
-        // to an anonymous class
-        final Boolean[] unitTestFailed = new Boolean[] { false };
+    /**
+     * @return the watch.budget property, or else most of the kernel's
+     * limit of inotify watches
+     */
+    private static int watchBudget(final Properties properties) {
+        final String budget = properties.getProperty("watch.budget");
+        if (budget != null)
+            return Integer.parseInt(budget);
+
+        final int limit = WatchDir.kernelWatchLimit();
+        return limit > 0 ? limit - limit / 10 : Integer.MAX_VALUE;
+    }
 
-        final List<BlockRule> rules = getBlockRules(new BlockRuleListener() {
+    /**
+     * pressing Enter runs a real build of the current tree, bypassing
+     * any recorded outcome; typing "watches" shows the watch usage
+     */
+    private static void watchConsole(final Job job,
+                                     final Properties properties) {
+        final Thread thread = new Thread("Console") {
                 @Override
-                public void onRuleMatched(final String line) {
-                    unitTestFailed[0] = true;
+                public void run() {
+                    final BufferedReader reader =
+                        new BufferedReader(new InputStreamReader(System.in, Charset.defaultCharset()));
+                    try {
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            if (line.trim().equals("watches")) {
+                                final WatchDir watching = watchDir;
+                                AnsiConsole.out.println(ansi()
+                                                        .fg(BLUE).a("=> ")
+                                                        .fg(WHITE).a("Watches: " +
+                                                                     (watching != null ? watching.getUsage() : "not started"))
+                                                        .reset());
+                                continue;
+                            }
+
+                            AnsiConsole.out.println(ansi()
+                                                    .fg(BLUE).a("=> ")
+                                                    .fg(WHITE).a("Building (forced)")
+                                                    .reset());
+                            perform(job, properties, true);
+                        }
+                    } catch (IOException ex) {
+                        // no console; nothing to do
+                    }
                 }
-            });
+            };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * runs a build.  Builds are serialized because they share the
+     * project's target directories.
+     *
+     * @param force true to run maven even if an identical tree has
+     * been built before
+     */
+    static synchronized void perform(final Job job,
+                                     final Properties properties,
+                                     final boolean force) {
+        final long started = System.currentTimeMillis();
+        boolean success = false;
+
+        if (events != null) {
+            events.buildStarted(job, force);
+        }
+
+        if (prewarmer != null) {
+            prewarmer.pause();
+        }
+
+        try {
+            success = build(job, properties, force);
+
+            if (focus != null && focus.takeConfirmation()) {
+                AnsiConsole.out.println(ansi()
+                                        .fg(BLUE).a("=> ")
+                                        .fg(WHITE).a("Focused tests pass; confirming with a full build")
+                                        .reset());
+                success = build(job, properties, false);
+            }
+        } finally {
+            if (prewarmer != null) {
+                prewarmer.resume();
+            }
+            if (events != null) {
+                events.buildFinished(success, System.currentTimeMillis() - started);
+            }
+        }
+    }
+
+    /**
+     * builds offline, even right after a pom change, and online only
+     * if the offline build could not resolve something the poms ask
+     * for.  That build fails within seconds, while an online build
+     * checks every snapshot and missing artifact against the remote
+     * repositories; the prewarmer usually downloads what a changed
+     * pom needs before the next build.
+     *
+     * @return true iff the build (or the recorded build it replayed)
+     * succeeded
+     */
+    private static boolean build(final Job job,
+                                 final Properties properties,
+                                 final boolean force) {
+
+        if (matrix != null) {
+            return matrix.run(currentRuleSet(), force);
+        }
+
+        final Boolean offline = build(job, properties, force, true);
+        if (offline != null)
+            return offline;
+
+        AnsiConsole.out.println(ansi()
+                                .fg(BLUE).a("=> ")
+                                .fg(WHITE).a("Dependencies missing offline; building online")
+                                .reset());
+        return build(job, properties, force, false);
+    }
+
+    /**
+     * @return true iff the build (or the recorded build it replayed)
+     * succeeded, or null if the build was offline and could not
+     * resolve something the poms ask for
+     */
+    private static Boolean build(final Job job,
+                                 final Properties properties,
+                                 final boolean force,
+                                 final boolean offline) {
+
+        final boolean focused = focus != null && !force && focus.isFocused();
+
+        // a focused build says nothing about the whole tree
+        final String memoKey = focused ? null : memoKey(job, offline);
+
+        if (memoKey != null && !force) {
+            final BuildMemo.Record replayed = replay(memoKey);
+            if (replayed != null)
+                return replayed.isSuccess();
+        }
+
+        final Transcript transcript = new Transcript();
+
+        final ModuleCache.Plan plan = focused ? null : planModules(job);
+
+        if (plan != null && plan.isComplete()) {
+            AnsiConsole.out.println(ansi()
+                                    .fg(GREEN).a("All modules restored from cache")
+                                    .reset());
+            return true;
+        }
+
+        final LogSegment segment = openLogSegment(job);
+
+        final RuleSet ruleSet = currentRuleSet();
+
+        final BuildOutputHandler output =
+            new BuildOutputHandler(job, ruleSet, transcript, segment).publishTo(events);
 
         InvocationRequest request = new DefaultInvocationRequest()
             .setPomFile(new File(job.getPomFile()))
             .setGoals(Arrays.asList(job.getTasks()))
             .setDebug(false)
-            .setOffline(!pomFileChanged(changedFiles))
-            .setOutputHandler(new InvocationOutputHandler() {
-                    private boolean done = false;
-                    private BlockRule currentRule = NullRule.getInstance();
-                    
-                    @Override
-                    public void consumeLine(String line) {
-                        if (done)
-                            return;
-                        
-                        line = makePathsRelative(job, line);
-                        
-                        if (currentRule.isNull()) {
-                            currentRule = findMatchingRule(rules, line);
-                            
-                            if (!currentRule.shouldIgnore(line)) {
-                                AnsiConsole.out.println(currentRule.format(line));
-                            }
-                            
-                            if (currentRule.isEndOfBlock(line)) {
-                                currentRule = NullRule.getInstance();
-                            }
-                        } else if (currentRule.isEndOfBlock(line)) {
-                            // done processing the current rule
-                            if (!currentRule.shouldIgnore(line)) {
-                                AnsiConsole.out.println(currentRule.format(line));
-                            }
-                            currentRule = NullRule.getInstance();
-                        } else {
-                            // there is a current rule; see if it applies
-                            if (!currentRule.shouldIgnore(line)) {
-                                AnsiConsole.out.println(currentRule.format(line));
-                            }
-                        }
-                        
-                        if (line.contains("BUILD FAILURE")) {
-                            done = true;
-                        }
-                    }
-                });
+            .setOffline(offline)
+            .setOutputHandler(output);
         
         if (job.getJavaHome() != null) {
             request.setJavaHome(new File(job.getJavaHome()));
         }
 
-        if (job.getThreadsSpec() != null) {
+        if (startupProfile != null) {
+            request.setMavenOpts(startupProfile.getMavenOpts());
+        }
+
+        int threads = 0;
+
+        if (threadTuner != null) {
+            threads = threadTuner.choose();
+            request.setThreads(String.valueOf(threads));
+            AnsiConsole.out.println(ansi()
+                                    .fg(BLUE).a("===> ")
+                                    .fg(WHITE).a("Threads: " + threads)
+                                    .reset());
+        } else if (job.getThreadsSpec() != null) {
             request.setThreads(job.getThreadsSpec());
         }
 
-        final Invoker invoker = new DefaultInvoker()
-                .setMavenHome(new File(properties.getProperty("maven.home")));
+        if (focused) {
+            focus.prepare(request);
+        } else if (plan != null && plan.getProjects() != null) {
+            request.setProjects(plan.getProjects());
+        }
+
+        if (shards != null && !focused) {
+            shards.prepare(request);
+        }
+
+        boolean success = false;
 
         try {
-            final InvocationResult result = invoker.execute(request);
+            final long started = System.currentTimeMillis();
+
+            final int exitCode = execute(properties, request, output);
+
+            if (threadTuner != null) {
+                threadTuner.buildFinished();
+            }
+
+            if (offline && exitCode != 0 && output.isResolutionFailure())
+                return null;
+
+            // builds of part of the reactor are not comparable
+            if (threadTuner != null && exitCode == 0 && !focused &&
+                (plan == null || plan.getRestored().isEmpty())) {
+                threadTuner.record(threads, System.currentTimeMillis() - started);
+            }
+
+            if (startupProfile != null) {
+                startupProfile.afterBuild();
+            }
+
+            if (prewarmer != null && exitCode == 0 && !request.isOffline()) {
+                prewarmer.markResolved();
+            }
+
+            // failing tests mean the code compiled
+            if (hotSwap != null && (exitCode == 0 || output.isUnitTestFailed())) {
+                hotSwap.swapChanged();
+            }
+
+            boolean unitTestFailed = output.isUnitTestFailed();
+
+            if (shards != null && exitCode == 0 && !focused) {
+                unitTestFailed = !shards.run(ruleSet, transcript, events);
+            }
+
+            success = exitCode == 0 && !unitTestFailed;
+
+            if (focus != null) {
+                focus.afterBuild(focused, success, started);
+            }
+
+            if (output.isUnitTestFailed()) {
+                printFailedUnitTestStackTraces(job, transcript);
+            } else if (plan != null && success) {
+                moduleCache.store(plan, job);
+            }
 
-            if (unitTestFailed[0]) {
-                printFailedUnitTestStackTraces(job);
+            // a failure from outside the tree (the network, a killed
+            // JVM) would otherwise be replayed until a forced build
+            if (memoKey != null && (success || output.isSourceFailure() || unitTestFailed) &&
+                memoKey.equals(memoKey(job, offline))) {
+                buildMemo.save(memoKey,
+                               new BuildMemo.Record(success, transcript.getLines()));
             }
         } catch (MavenInvocationException e) {
             e.printStackTrace();
+        } catch (IOException ex) {
+            System.err.println("Could not record build outputs: " + ex.getMessage());
+        } finally {
+            closeLogSegment(segment);
         }
+
+        return success;
     }
 
     /**
-     * @return true iff the pom.xml file is among the changed files.
-     * This way we can build the project in offline mode if the
-     * pom.xml file has not changed and save some time.
+     * runs maven with the launcher selected by the launcher property:
+     * "invoker" (the default) uses the maven-invoker, "process" uses
+     * ProcessLauncher
      *
-     * Downside: user may have to run 'mvn compile' from time to time
-     * to update dependencies introduced while this program is not
-     * running.
+     * @return maven's exit code
      */
-    private static boolean pomFileChanged(final String[] changedFiles) {
-        for (final String changedFile : changedFiles)
-            if (changedFile.equals("pom.xml"))
-                return true;
-        return false;
+    static int execute(final Properties properties,
+                       final InvocationRequest request,
+                       final BuildOutputHandler output) throws MavenInvocationException {
+
+        final File mavenHome = new File(properties.getProperty("maven.home"));
+
+        if ("process".equals(properties.getProperty("launcher"))) {
+            return new ProcessLauncher(mavenHome).execute(request, output);
+        }
+
+        final Invoker invoker = new DefaultInvoker()
+                .setMavenHome(mavenHome);
+
+        return invoker.execute(request).getExitCode();
     }
 
-    private static BlockRule findMatchingRule(
-            final Collection<BlockRule> rules,
-            final String line) {
+    /**
+     * @return a new segment for the build's raw output, or null if
+     * output is not being spooled
+     */
+    private static LogSegment openLogSegment(final Job job) {
+        if (logSpool == null)
+            return null;
 
-        for (final BlockRule rule : rules) {
-            if (rule.isStartOfBlock(line)) {
-                rule.onRuleMatched(line);
-                return rule;
-            }
+        try {
+            return logSpool.open(job);
+        } catch (IOException ex) {
+            System.err.println("Could not create build log: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    private static void closeLogSegment(final LogSegment segment) {
+        if (segment == null)
+            return;
+
+        try {
+            logSpool.close(segment);
+            logSpool.prune();
+        } catch (IOException ex) {
+            System.err.println("Could not save build log: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * @return the build memo key of the current tree, or null if
+     * builds are not being memoized
+     */
+    private static String memoKey(final Job job, final boolean offline) {
+        if (buildMemo == null)
+            return null;
+
+        try {
+            return buildMemo.computeKey(job, offline);
+        } catch (IOException ex) {
+            System.err.println("Could not hash working tree: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * replays the recorded outcome of an earlier build of an
+     * identical tree
+     *
+     * @return the replayed build, or null if there was no such build
+     */
+    private static BuildMemo.Record replay(final String memoKey) {
+        final BuildMemo.Record record;
+        try {
+            record = buildMemo.find(memoKey);
+        } catch (IOException ex) {
+            System.err.println("Could not read recorded build: " + ex.getMessage());
+            return null;
         }
 
-        return NullRule.getInstance();
+        if (record == null)
+            return null;
+
+        AnsiConsole.out.println(ansi()
+                                .fg(BLUE).a("=> ")
+                                .fg(WHITE).a("Replaying recorded build (press Enter to force a real build)")
+                                .reset());
+
+        for (final String line : record.getLines()) {
+            AnsiConsole.out.println(line);
+        }
+
+        AnsiConsole.out.println(ansi()
+                                .fg(record.isSuccess() ? GREEN : RED)
+                                .a(record.isSuccess() ? "RECORDED SUCCESS" : "RECORDED FAILURE")
+                                .reset());
+        return record;
     }
 
-    private static String makePathsRelative(final Job job, final String s) {
+    /**
+     * restores unchanged modules from the module cache
+     *
+     * @return the cache plan for this build, or null if the cache is
+     * turned off or could not be used
+     */
+    private static ModuleCache.Plan planModules(final Job job) {
+        if (moduleCache == null)
+            return null;
 
-        final String projectPath = Paths.get(System.getProperty("user.dir"), 
-                                             job.getProjectDirectory().toString())
-            .getParent().toString();
+        try {
+            final ModuleCache.Plan plan = moduleCache.plan(job);
 
-        return s.replace(projectPath, ".");
+            for (final Module module : plan.getRestored()) {
+                AnsiConsole.out.println(ansi()
+                                        .fg(BLUE).a("===> ")
+                                        .fg(WHITE).a("Cached: " + module)
+                                        .reset());
+            }
+
+            return plan;
+        } catch (IOException ex) {
+            System.err.println("Could not use module cache: " + ex.getMessage());
+            return null;
+        }
     }
 
-    private static Properties loadProperties() {
+    static Properties loadProperties() {
         final Properties defaults = new Properties();
 
         defaults.setProperty("maven.home", "/usr/");
@@ -238,66 +662,38 @@ public class Main {
         }
     }
 
+    /**
+     * copies leading --name=value arguments into properties, taking
+     * precedence over ~/.mvn8r.properties.  A bare --name sets the
+     * property to true.
+     *
+     * @return the remaining arguments
+     */
+    private static String[] applyOptions(final String[] args,
+                                         final Properties properties) {
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("--"); ++i) {
+            final String option = args[i].substring(2);
+            final int equals = option.indexOf('=');
+            if (equals < 0) {
+                properties.setProperty(option, "true");
+            } else {
+                properties.setProperty(option.substring(0, equals),
+                                       option.substring(equals + 1));
+            }
+        }
+        return Arrays.copyOfRange(args, i, args.length);
+    }
+
     private static void usage() {
-        System.err.println("usage: mvn8r POM_FILE TASK...");
+        System.err.println("usage: mvn8r [--PROPERTY=VALUE]... POM_FILE TASK...");
     }
 
     /**
-     * returns an ordered list of BlockRules
-     *
-     * @todo load them from a file perhaps?
+     * returns the rules the next build should use
      */
-    private static List<BlockRule> getBlockRules(final BlockRuleListener onUnitTestFailed) {
-
-        final List<BlockRule> rules = new ArrayList<>();
-
-        rules.add(new SingleLineRegexRule(WHITE  , "(Running .*)"));
-
-        rules.add(new IgnoreLineMatchingRegexRule("\\[[A-Z]+\\] *$"));
-
-        rules.add(new IgnoreLineContainingRule("---"));
-        rules.add(new IgnoreLineContainingRule("Total time:"));
-        rules.add(new IgnoreLineContainingRule("Finished at:"));
-        rules.add(new IgnoreLineContainingRule("Compiling "));
-        rules.add(new IgnoreLineContainingRule("Building "));
-        rules.add(new IgnoreLineContainingRule("Final Memory"));
-        rules.add(new IgnoreLineContainingRule("Copying"));
-        rules.add(new IgnoreLineContainingRule("Deleting "));
-        rules.add(new IgnoreLineContainingRule("Error stacktraces are turned on."));
-        rules.add(new IgnoreLineContainingRule("For more information"));
-        rules.add(new IgnoreLineContainingRule("Nothing to compile"));
-        rules.add(new IgnoreLineContainingRule("Changes detected"));
-        rules.add(new IgnoreLineContainingRule("[compiler:"));
-        rules.add(new IgnoreLineContainingRule("skip non existing"));
-        rules.add(new IgnoreLineContainingRule("File encoding has not been set"));
-        rules.add(new IgnoreLineContainingRule("[resources:"));
-        rules.add(new IgnoreLineContainingRule("[surefire:"));
-        rules.add(new IgnoreLineContainingRule("Surefire"));
-        rules.add(new IgnoreLineContainingRule("Using platform encoding"));
-        rules.add(new IgnoreLineContainingRule("Scanning for projects"));
-        rules.add(new IgnoreLineContainingRule("Surefire"));
-        rules.add(new IgnoreLineContainingRule("COMPILATION ERROR"));
-        rules.add(new IgnoreLineContainingRule("Compilation failure"));
-        rules.add(new IgnoreLineContainingRule("task-segment:"));
-        rules.add(new IgnoreLineContainingRule("selectAuthScheme"));
-
-        rules.add(new SingleLineRegexRule(GREEN, "(Tests run: [0-9]+, Failures: 0, Errors: 0, Skipped: 0, Time elapsed: [0-9\\.]+ sec)"));
-        rules.add(new SingleLineRegexRule(YELLOW, "(Tests run: [0-9]+, Failures: 0, Errors: 0, Skipped: [0-9]+, Time elapsed: [0-9\\.]+ sec)"));
-
-        final BlockRule failedUnitTest = 
-            new SingleLineRegexRule(RED, "(Tests run: [0-9]+, Failures: [0-9]+, Errors: [0-9]+, Skipped: [0-9]+, Time elapsed: [0-9\\.]+ sec)");
-        rules.add(failedUnitTest);
-        failedUnitTest.addListener(onUnitTestFailed);
-
-        rules.add(new SingleLineRegexRule(GREEN, "(BUILD SUCCESSFUL)"));
-        rules.add(new SingleLineRegexRule(GREEN, "(BUILD SUCCESS)"));
-        rules.add(new SingleLineRegexRule(YELLOW, "(No tests to run\\.)"));
-        rules.add(new SingleLineRegexRule(WHITE, "( *symbol: .*)"));
-        rules.add(new SingleLineRegexRule(RED, "\\[ERROR\\] (.*)"));
-
-        rules.add(new MultiLineRule(BLUE , "(Results :.*)", "(Tests run:.*)"));
-
-        return rules;
+    private static RuleSet currentRuleSet() {
+        return ruleSets != null ? ruleSets.get() : RuleSet.defaults();
     }
 
     private static Job createJob(final String[] args,
@@ -308,9 +704,10 @@ public class Main {
                        properties.getProperty("threads.spec"));
     }
 
-    private static void printFailedUnitTestStackTraces(final Job job) {
+    private static void printFailedUnitTestStackTraces(final Job job,
+                                                       final Transcript transcript) {
 
-        System.out.println();
+        transcript.println();
 
         final Path reportDirectory = 
             Paths.get(job.getProjectDirectory().toString(),
@@ -354,19 +751,19 @@ public class Main {
                         lines = 0;
 
                     if (testSet != null) {
-                        AnsiConsole.out.println(ansi()
-                                                .fg(RED).a("=> ") 
-                                                .fg(WHITE).a(testSet)
-                                                .reset());
+                        transcript.println(ansi()
+                                           .fg(RED).a("=> ") 
+                                           .fg(WHITE).a(testSet)
+                                           .reset());
 
                         testSet = null;
                     }
 
-                    System.out.println(line);
+                    transcript.println(line);
 
                     if (line.trim().startsWith("at ")) {
                         if (lines == MAX_LINES)
-                            System.out.println("        ... other stack frames omitted ...");
+                            transcript.println("        ... other stack frames omitted ...");
                     }
                 }
             } catch (FileNotFoundException  ex) {
@@ -0,0 +1,504 @@
+package com.timjstewart;
+
+import org.apache.maven.shared.invoker.DefaultInvocationRequest;
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.MavenInvocationException;
+import org.fusesource.jansi.Ansi;
+import org.fusesource.jansi.AnsiConsole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.timjstewart.rules.RuleSet;
+
+import static org.fusesource.jansi.Ansi.Color.*;
+import static org.fusesource.jansi.Ansi.ansi;
+
+/**
+ * builds the project with several JDKs at once.
+ *
+ * Each JDK builds a mirror of the project under
+ * ~/.mvn8r/matrix/PROJECT/N-VERSION, so every JDK has its own target
+ * directories and none of them touches the project's.  A mirror
+ * holds the project directory, any module outside of it and any
+ * parent pom found at a relativePath outside of both, laid out as
+ * they are relative to each other, so "../" paths resolve the same.
+ *
+ * Before each build the paths WatchDir saw change are synced into
+ * the mirrors.  The whole project is synced for the first build,
+ * after a pom changed, when the watcher lost events and for a forced
+ * build.  The builds run concurrently, each with its share of the
+ * cores as its -T value unless threads.spec says otherwise, and each
+ * build's output is printed as a whole when it completes, followed
+ * by a summary of all of them.  If one of them cannot be run the
+ * others are cancelled.
+ */
+class MatrixBuild {
+
+    private static final Pattern JAVA_VERSION = Pattern.compile("JAVA_VERSION=\"([^\"]+)\"");
+
+    /**
+     * what is mirrored: everything but build output and the git
+     * repository
+     */
+    private static final TreeHasher.Filter MIRRORED = new TreeHasher.Filter() {
+            @Override
+            public boolean acceptDirectory(final Path directory) {
+                final String name = directory.getFileName().toString();
+                return !name.equals("target") && !name.equals(".git");
+            }
+
+            @Override
+            public boolean acceptFile(final Path file) {
+                return true;
+            }
+        };
+
+    /**
+     * one JDK's part of the matrix
+     */
+    private static final class Leg {
+
+        final String javaHome;
+
+        final String label;
+
+        final Path mirror;
+
+        Leg(final String javaHome, final String label, final Path mirror) {
+            this.javaHome = javaHome;
+            this.label = label;
+            this.mirror = mirror;
+        }
+    }
+
+    /**
+     * what is mirrored, and where it goes
+     */
+    private static final class Layout {
+
+        /**
+         * the directory trees that are mirrored: the project directory
+         * and modules outside of it
+         */
+        final List<Path> trees;
+
+        /**
+         * parent poms outside of the trees
+         */
+        final List<Path> poms;
+
+        /**
+         * the directory the trees and poms are laid out relative to
+         */
+        final Path base;
+
+        Layout(final List<Path> trees, final List<Path> poms) {
+            this.trees = trees;
+            this.poms = poms;
+
+            Path common = trees.get(0);
+            for (final Path tree : trees)
+                common = commonAncestor(common, tree);
+            for (final Path pom : poms)
+                common = commonAncestor(common, pom.getParent());
+            this.base = common;
+        }
+
+        /**
+         * reads the reactor of the job's pom
+         */
+        static Layout of(final Job job) throws IOException {
+            final Reactor reactor = Reactor.load(new File(job.getPomFile()).toPath());
+
+            final List<Path> trees = new ArrayList<>();
+            trees.add(reactor.getRootDirectory());
+            for (final Module module : reactor.getModules()) {
+                if (!isInside(trees, module.getDirectory()))
+                    trees.add(module.getDirectory());
+            }
+
+            final List<Path> poms = new ArrayList<>();
+            final Set<Path> visited = new HashSet<>();
+            for (final Module module : reactor.getModules()) {
+                for (Path pom = module.getParentPom(); pom != null && visited.add(pom); pom = Reactor.parentPom(pom)) {
+                    if (!isInside(trees, pom))
+                        poms.add(pom);
+                }
+            }
+
+            return new Layout(trees, poms);
+        }
+
+        /**
+         * returns where path goes in the leg's mirror
+         */
+        Path mirrorOf(final Leg leg, final Path path) {
+            return leg.mirror.resolve(base.relativize(path).toString());
+        }
+
+        /**
+         * returns true iff path is one of the parent poms or in one of
+         * the trees but not in build output or a git repository
+         */
+        boolean isMirrored(final Path path) {
+            if (poms.contains(path))
+                return true;
+
+            for (final Path tree : trees) {
+                if (path.startsWith(tree)) {
+                    for (Path dir = path; !dir.equals(tree); dir = dir.getParent()) {
+                        if (!MIRRORED.acceptDirectory(dir))
+                            return false;
+                    }
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean isInside(final List<Path> trees, final Path path) {
+            for (final Path tree : trees) {
+                if (path.startsWith(tree))
+                    return true;
+            }
+            return false;
+        }
+
+        private static Path commonAncestor(Path a, final Path b) {
+            while (!b.startsWith(a))
+                a = a.getParent();
+            return a;
+        }
+    }
+
+    /**
+     * how one leg's build went
+     */
+    private static final class Result {
+
+        final Leg leg;
+
+        final boolean success;
+
+        final long millis;
+
+        final List<String> lines;
+
+        Result(final Leg leg, final boolean success, final long millis, final List<String> lines) {
+            this.leg = leg;
+            this.success = success;
+            this.millis = millis;
+            this.lines = lines;
+        }
+    }
+
+    private final Job job;
+
+    private final Properties properties;
+
+    private final List<Leg> legs = new ArrayList<>();
+
+    private final ExecutorService executor;
+
+    /**
+     * paths changed since the mirrors were last synced
+     */
+    private final Set<Path> changed = new ConcurrentSkipListSet<>();
+
+    /**
+     * true when the changed paths are not enough to go by
+     */
+    private volatile boolean fullSyncDue = true;
+
+    private Layout layout;
+
+    MatrixBuild(final Job job, final Properties properties, final Path mirrors) {
+        this.job = job;
+        this.properties = properties;
+
+        int index = 0;
+        for (final String javaHome : job.getJavaHomes()) {
+            final String label = readJavaVersion(javaHome);
+            legs.add(new Leg(javaHome,
+                             label,
+                             mirrors.resolve(index++ + "-" + label.replaceAll("[^A-Za-z0-9._-]", "_"))));
+        }
+
+        this.executor = Executors.newFixedThreadPool(legs.size(), new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "MatrixBuild");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    }
+
+    /**
+     * returns a MatrixBuild if the job names more than one Java home,
+     * otherwise null
+     */
+    static MatrixBuild create(final Job job, final Properties properties) {
+        if (job.getJavaHomes().size() < 2)
+            return null;
+
+        final Path project = job.getProjectDirectory().toAbsolutePath().normalize();
+        final Path mirrors = Paths.get(System.getProperty("user.home"), ".mvn8r", "matrix",
+                                       TreeHasher.hashStrings(Arrays.asList(project.toString())));
+
+        return new MatrixBuild(job, properties, mirrors);
+    }
+
+    /**
+     * records a change to a file or directory, to be mirrored before
+     * the next build
+     */
+    void changed(final Path path) {
+        changed.add(path.toAbsolutePath().normalize());
+    }
+
+    /**
+     * records that changes went unrecorded, so the next build syncs
+     * the whole project
+     */
+    void changedAll() {
+        fullSyncDue = true;
+    }
+
+    /**
+     * syncs the mirrors and builds them all
+     *
+     * @param force true to sync the whole project rather than the
+     * recorded changes
+     * @return true iff every build succeeded
+     */
+    boolean run(final RuleSet ruleSet, final boolean force) {
+        final String threads = threadsPerLeg();
+
+        final List<Path> paths = new ArrayList<>();
+        for (final Iterator<Path> iterator = changed.iterator(); iterator.hasNext(); ) {
+            paths.add(iterator.next());
+            iterator.remove();
+        }
+
+        boolean full = fullSyncDue || force || layout == null;
+        for (final Path path : paths) {
+            // modules or parents may have come or gone
+            full |= path.getFileName().toString().equals("pom.xml");
+        }
+        fullSyncDue = false;
+
+        if (full) {
+            final Layout previous = layout;
+            try {
+                layout = Layout.of(job);
+                if (previous != null && !previous.base.equals(layout.base)) {
+                    for (final Leg leg : legs)
+                        FileTrees.delete(leg.mirror);
+                }
+            } catch (IOException ex) {
+                System.err.println("Could not read the poms: " + ex.getMessage());
+                fullSyncDue = true;
+                return false;
+            }
+        }
+
+        final Layout current = layout;
+        final boolean fullSync = full;
+
+        final CompletionService<Result> completion = new ExecutorCompletionService<>(executor);
+        final List<Future<Result>> futures = new ArrayList<>();
+
+        for (final Leg leg : legs) {
+            futures.add(completion.submit(new Callable<Result>() {
+                    @Override
+                    public Result call() {
+                        return build(leg, ruleSet, threads, current, fullSync ? null : paths);
+                    }
+                }));
+        }
+
+        final List<Result> results = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < legs.size(); ++i) {
+                final Result result = completion.take().get();
+                results.add(result);
+                print(result);
+            }
+        } catch (InterruptedException ex) {
+            cancel(futures);
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException ex) {
+            cancel(futures);
+            ex.getCause().printStackTrace();
+            return false;
+        }
+
+        boolean success = true;
+
+        final Ansi summary = ansi().fg(BLUE).a("=> ").fg(WHITE).a("Matrix:");
+        for (final Leg leg : legs) {
+            for (final Result result : results) {
+                if (result.leg == leg) {
+                    success &= result.success;
+                    summary.a("  ").fg(WHITE).a(leg.label + " ")
+                        .fg(result.success ? GREEN : RED).a(result.success ? "SUCCESS" : "FAILURE");
+                }
+            }
+        }
+        AnsiConsole.out.println(summary.reset());
+        return success;
+    }
+
+    /**
+     * stops the builds still running; interrupting a leg's thread
+     * kills its maven
+     */
+    private static void cancel(final List<Future<Result>> futures) {
+        for (final Future<Result> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * builds the leg offline, and online only if that could not
+     * resolve something the poms ask for
+     *
+     * @param paths the changed paths to sync, or null to sync the
+     * whole project
+     */
+    private Result build(final Leg leg,
+                         final RuleSet ruleSet,
+                         final String threads,
+                         final Layout layout,
+                         final List<Path> paths) {
+        final long started = System.currentTimeMillis();
+        Transcript transcript = new Transcript(false);
+
+        try {
+            sync(leg, layout, paths);
+        } catch (IOException ex) {
+            fullSyncDue = true;
+            transcript.println("Could not mirror the project: " + ex.getMessage());
+            return new Result(leg, false, System.currentTimeMillis() - started, transcript.getLines());
+        }
+
+        final Path pomFile = layout.mirrorOf(leg, Paths.get(job.getPomFile()).toAbsolutePath().normalize());
+
+        final Job legJob = new Job(pomFile.toString(), job.getTasks(), leg.javaHome, threads);
+
+        boolean success = false;
+
+        for (final boolean offline : new boolean[] { true, false }) {
+            transcript = new Transcript(false);
+
+            final BuildOutputHandler output = new BuildOutputHandler(legJob, ruleSet, transcript, null);
+
+            final InvocationRequest request = new DefaultInvocationRequest()
+                .setPomFile(pomFile.toFile())
+                .setGoals(Arrays.asList(job.getTasks()))
+                .setDebug(false)
+                .setOffline(offline)
+                .setOutputHandler(output)
+                .setJavaHome(new File(leg.javaHome))
+                .setThreads(threads);
+
+            try {
+                final int exitCode = Main.execute(properties, request, output);
+                if (offline && exitCode != 0 && output.isResolutionFailure())
+                    continue;
+                success = exitCode == 0 && !output.isUnitTestFailed();
+            } catch (MavenInvocationException ex) {
+                transcript.println("Could not run maven: " + ex.getMessage());
+            }
+            break;
+        }
+
+        return new Result(leg, success, System.currentTimeMillis() - started, transcript.getLines());
+    }
+
+    /**
+     * brings the leg's mirror up to date with the given changed paths,
+     * or with the whole project if paths is null
+     */
+    private static void sync(final Leg leg, final Layout layout, final List<Path> paths) throws IOException {
+        if (paths == null) {
+            for (final Path tree : layout.trees)
+                FileTrees.sync(tree, layout.mirrorOf(leg, tree), MIRRORED);
+            for (final Path pom : layout.poms)
+                FileTrees.syncPath(pom, layout.mirrorOf(leg, pom), MIRRORED);
+            return;
+        }
+
+        for (final Path path : paths) {
+            if (layout.isMirrored(path))
+                FileTrees.syncPath(path, layout.mirrorOf(leg, path), MIRRORED);
+        }
+    }
+
+    private void print(final Result result) {
+        AnsiConsole.out.println(ansi()
+                                .fg(BLUE).a("=> ")
+                                .fg(WHITE).a(String.format("JDK %s (%.1f s): ",
+                                                           result.leg.label, result.millis / 1000.0))
+                                .fg(result.success ? GREEN : RED).a(result.success ? "SUCCESS" : "FAILURE")
+                                .reset());
+        for (final String line : result.lines) {
+            AnsiConsole.out.println(line);
+        }
+    }
+
+    /**
+     * @return the -T value for each build: threads.spec if it is
+     * given, otherwise an equal share of the cores
+     */
+    private String threadsPerLeg() {
+        final String spec = job.getThreadsSpec();
+        if (spec != null && !spec.equals("auto"))
+            return spec;
+
+        final int cores = Runtime.getRuntime().availableProcessors();
+        return String.valueOf(Math.max(1, cores / legs.size()));
+    }
+
+    /**
+     * @return the version from the JDK's release file, or the name of
+     * its directory
+     */
+    private static String readJavaVersion(final String javaHome) {
+        try {
+            final Matcher matcher = JAVA_VERSION.matcher(
+                new String(Files.readAllBytes(Paths.get(javaHome, "release")), Charset.forName("UTF-8")));
+            if (matcher.find())
+                return matcher.group(1);
+        } catch (IOException ex) {
+            // fall through
+        }
+        return Paths.get(javaHome).getFileName().toString();
+    }
+}
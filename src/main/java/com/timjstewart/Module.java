@@ -0,0 +1,198 @@
+package com.timjstewart;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * a single project (pom.xml) that takes part in a reactor build
+ */
+class Module {
+
+    /**
+     * a resource directory and where maven copies it to
+     */
+    static final class Resource {
+
+        private final Path directory;
+
+        private final Path outputDirectory;
+
+        private final boolean test;
+
+        private final boolean verbatim;
+
+        Resource(final Path directory,
+                 final Path outputDirectory,
+                 final boolean test,
+                 final boolean verbatim) {
+            this.directory       = Objects.requireNonNull(directory);
+            this.outputDirectory = Objects.requireNonNull(outputDirectory);
+            this.test            = test;
+            this.verbatim        = verbatim;
+        }
+
+        /**
+         * returns the directory the resources are read from
+         */
+        Path getDirectory() {
+            return directory;
+        }
+
+        /**
+         * returns the directory (target/classes, target/test-classes,
+         * or below them for a targetPath) the resources are copied to
+         */
+        Path getOutputDirectory() {
+            return outputDirectory;
+        }
+
+        /**
+         * returns true iff every file is copied as it is, i.e. the
+         * resource is neither filtered nor limited by includes or
+         * excludes
+         */
+        boolean isVerbatim() {
+            return verbatim;
+        }
+
+        /**
+         * returns true iff this is a test resource
+         */
+        boolean isTest() {
+            return test;
+        }
+    }
+
+    /**
+     * the path of the module relative to the reactor root ("." for
+     * the root itself).  This is the form maven's --projects option
+     * accepts.
+     */
+    private final String name;
+
+    /**
+     * the directory that contains the module's pom.xml file
+     */
+    private final Path directory;
+
+    /**
+     * the module's artifactId
+     */
+    private final String artifactId;
+
+    /**
+     * the artifactIds of the module's declared dependencies
+     */
+    private final List<String> dependencies;
+
+    /**
+     * true iff the module lists <modules> of its own
+     */
+    private final boolean aggregator;
+
+    /**
+     * the source, resource and test directories the pom declares (or
+     * maven's defaults for them)
+     */
+    private final List<Path> sourceRoots;
+
+    /**
+     * the resource and test resource directories the pom declares (or
+     * maven's defaults for them)
+     */
+    private final List<Resource> resources;
+
+    /**
+     * the pom.xml file of the module's parent, if it is on disk, or
+     * null
+     */
+    private final Path parentPom;
+
+    Module(final String name,
+           final Path directory,
+           final String artifactId,
+           final List<String> dependencies,
+           final boolean aggregator,
+           final List<Path> sourceRoots,
+           final List<Resource> resources,
+           final Path parentPom) {
+        this.name         = Objects.requireNonNull(name);
+        this.directory    = Objects.requireNonNull(directory);
+        this.artifactId   = Objects.requireNonNull(artifactId);
+        this.dependencies = Collections.unmodifiableList(dependencies);
+        this.aggregator   = aggregator;
+        this.sourceRoots  = Collections.unmodifiableList(sourceRoots);
+        this.resources    = Collections.unmodifiableList(resources);
+        this.parentPom    = parentPom;
+    }
+
+    /**
+     * returns the module's path relative to the reactor root
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * returns the directory containing the module's pom.xml file
+     */
+    Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * returns the module's pom.xml file
+     */
+    Path getPomFile() {
+        return directory.resolve("pom.xml");
+    }
+
+    /**
+     * returns the module's source, resource and test directories,
+     * whether or not they exist
+     */
+    List<Path> getSourceRoots() {
+        return sourceRoots;
+    }
+
+    /**
+     * returns the module's resources and test resources
+     */
+    List<Resource> getResources() {
+        return resources;
+    }
+
+    /**
+     * returns the pom.xml file of the module's parent, or null if it
+     * has none or the parent is not found at its relativePath
+     */
+    Path getParentPom() {
+        return parentPom;
+    }
+
+    /**
+     * returns the module's build output directory
+     */
+    Path getTargetDirectory() {
+        return directory.resolve("target");
+    }
+
+    String getArtifactId() {
+        return artifactId;
+    }
+
+    List<String> getDependencies() {
+        return dependencies;
+    }
+
+    boolean isAggregator() {
+        return aggregator;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,337 @@
+package com.timjstewart;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * a local, content addressed store of module build outputs.
+ *
+ * Each leaf module of the reactor is keyed on a hash of its source
+ * tree and pom.xml, the reactor's parent poms and any it inherits
+ * from outside the reactor, the tasks being run, the JDK, and the
+ * keys of the reactor modules it depends on.  After a successful
+ * build the module's target/classes and target/surefire-reports
+ * directories are stored under that key.  Before the next build,
+ * modules whose key is already in the store, and that no module
+ * maven has to build depends on, are restored from it and left out
+ * of the maven invocation.
+ *
+ * Restoring an entry marks it as recently used; once the store
+ * outgrows cache.max.mb the least recently used entries are deleted.
+ */
+class ModuleCache {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * written into a module's target directory to record which cache
+     * entry its outputs currently correspond to
+     */
+    private static final String MARKER_FILE = ".mvn8r-cache-key";
+
+    private static final String[] CACHED_DIRECTORIES = new String[] {
+        "classes", "surefire-reports"
+    };
+
+    /**
+     * what to do with each module of the reactor for one build
+     */
+    static final class Plan {
+
+        private final Reactor reactor;
+        private final Map<Module, String> keys;
+        private final List<Module> restored;
+        private final List<Module> toBuild;
+
+        private Plan(final Reactor reactor,
+                     final Map<Module, String> keys,
+                     final List<Module> restored,
+                     final List<Module> toBuild) {
+            this.reactor = reactor;
+            this.keys = keys;
+            this.restored = Collections.unmodifiableList(restored);
+            this.toBuild = Collections.unmodifiableList(toBuild);
+        }
+
+        /**
+         * returns the modules whose outputs came from the cache
+         */
+        List<Module> getRestored() {
+            return restored;
+        }
+
+        /**
+         * returns the modules maven still has to build
+         */
+        List<Module> getToBuild() {
+            return toBuild;
+        }
+
+        /**
+         * returns true iff maven does not need to run at all
+         */
+        boolean isComplete() {
+            return toBuild.isEmpty();
+        }
+
+        /**
+         * returns the --projects list that builds only the modules
+         * that missed the cache, or null if every module has to be
+         * built anyway
+         */
+        List<String> getProjects() {
+            if (restored.isEmpty())
+                return null;
+
+            final List<String> projects = new ArrayList<>();
+            for (final Module module : toBuild) {
+                projects.add(module.getName());
+            }
+            return projects;
+        }
+    }
+
+    private final Path directory;
+
+    private final TreeHasher hasher;
+
+    private final long maxBytes;
+
+    ModuleCache(final Path directory, final TreeHasher hasher, final long maxBytes) {
+        this.directory = directory;
+        this.hasher = hasher;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * returns a ModuleCache configured by the cache.* properties, or
+     * null if caching is turned off
+     */
+    static ModuleCache create(final Properties properties, final TreeHasher hasher) {
+        if (!Boolean.parseBoolean(properties.getProperty("cache.enabled", "false")))
+            return null;
+
+        final String configured = properties.getProperty("cache.directory");
+
+        final Path directory = configured != null
+            ? Paths.get(configured)
+            : Paths.get(System.getProperty("user.home"), ".mvn8r", "cache");
+
+        return new ModuleCache(directory,
+                               hasher,
+                               Long.parseLong(properties.getProperty("cache.max.mb", "1024")) * 1024 * 1024);
+    }
+
+    /**
+     * works out which modules can be restored from the cache and
+     * restores them
+     */
+    Plan plan(final Job job) throws IOException {
+        final Reactor reactor = Reactor.load(new File(job.getPomFile()).toPath());
+
+        final Map<Module, String> keys = new HashMap<>();
+        final Set<Module> hits = new HashSet<>();
+        final Deque<Module> misses = new ArrayDeque<>();
+
+        for (final Module module : reactor.getLeafModules()) {
+            final String key = computeKey(reactor, module, job, keys, new HashSet<Module>());
+
+            if (Files.isDirectory(directory.resolve(key))) {
+                hits.add(module);
+            } else {
+                misses.add(module);
+            }
+        }
+
+        // maven resolves a module left out of --projects from the
+        // local repository, not from the target/classes restored
+        // here, so whatever a module being built depends on has to be
+        // built along with it
+        while (!misses.isEmpty()) {
+            for (final Module upstream : reactor.getUpstream(misses.pop())) {
+                if (hits.remove(upstream)) {
+                    misses.push(upstream);
+                }
+            }
+        }
+
+        final List<Module> restored = new ArrayList<>();
+        final List<Module> toBuild = new ArrayList<>();
+
+        for (final Module module : reactor.getLeafModules()) {
+            if (hits.contains(module)) {
+                restore(module, keys.get(module));
+                restored.add(module);
+            } else {
+                toBuild.add(module);
+            }
+        }
+
+        return new Plan(reactor, keys, restored, toBuild);
+    }
+
+    /**
+     * stores the outputs of every module built under the given plan.
+     * Modules whose sources changed while maven was running are
+     * skipped because their outputs may not match their key.
+     */
+    void store(final Plan plan, final Job job) throws IOException {
+        final Map<Module, String> keys = new HashMap<>();
+        boolean stored = false;
+
+        for (final Module module : plan.getToBuild()) {
+            final String key = computeKey(plan.reactor, module, job, keys, new HashSet<Module>());
+
+            if (!key.equals(plan.keys.get(module)))
+                continue;
+
+            final Path target = module.getTargetDirectory();
+
+            if (!Files.isDirectory(target.resolve("classes")))
+                continue;
+
+            final Path entry = directory.resolve(key);
+
+            if (!Files.isDirectory(entry)) {
+                final Path temporary = directory.resolve(key + ".tmp");
+                FileTrees.delete(temporary);
+                for (final String name : CACHED_DIRECTORIES) {
+                    FileTrees.copy(target.resolve(name), temporary.resolve(name));
+                }
+                Files.createDirectories(temporary);
+                try {
+                    Files.move(temporary, entry, StandardCopyOption.ATOMIC_MOVE);
+                    stored = true;
+                } catch (IOException ex) {
+                    // another mvn8r instance may have stored the same entry
+                    FileTrees.delete(temporary);
+                }
+            }
+
+            Files.write(target.resolve(MARKER_FILE), key.getBytes(UTF8));
+        }
+
+        if (stored)
+            prune();
+    }
+
+    /**
+     * deletes the least recently used entries until the rest fit in
+     * maxBytes; the most recently used entry is always kept
+     */
+    private void prune() throws IOException {
+        final List<Path> entries = new ArrayList<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (final Path entry : stream) {
+                if (Files.isDirectory(entry) && !entry.getFileName().toString().endsWith(".tmp"))
+                    entries.add(entry);
+            }
+        }
+
+        final Map<Path, Long> sizes = new HashMap<>();
+        long total = 0;
+        for (final Path entry : entries) {
+            final long size = FileTrees.size(entry);
+            sizes.put(entry, size);
+            total += size;
+        }
+
+        Collections.sort(entries, new Comparator<Path>() {
+                @Override
+                public int compare(final Path a, final Path b) {
+                    return Long.compare(a.toFile().lastModified(), b.toFile().lastModified());
+                }
+            });
+
+        for (int i = 0; i < entries.size() - 1 && total > maxBytes; ++i) {
+            FileTrees.delete(entries.get(i));
+            total -= sizes.get(entries.get(i));
+        }
+    }
+
+    private void restore(final Module module, final String key) throws IOException {
+        final Path target = module.getTargetDirectory();
+        final Path marker = target.resolve(MARKER_FILE);
+        final Path entry = directory.resolve(key);
+
+        // mark the entry as recently used so pruning keeps it
+        Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+
+        if (Files.isRegularFile(marker) &&
+            new String(Files.readAllBytes(marker), UTF8).equals(key)) {
+            // outputs already match
+            return;
+        }
+
+        for (final String name : CACHED_DIRECTORIES) {
+            FileTrees.delete(target.resolve(name));
+            FileTrees.copy(entry.resolve(name), target.resolve(name));
+        }
+
+        Files.createDirectories(target);
+        Files.write(marker, key.getBytes(UTF8));
+    }
+
+    private String computeKey(final Reactor reactor,
+                              final Module module,
+                              final Job job,
+                              final Map<Module, String> keys,
+                              final Set<Module> visiting) throws IOException {
+        final String existing = keys.get(module);
+        if (existing != null)
+            return existing;
+
+        if (!visiting.add(module))
+            throw new IOException("dependency cycle through module " + module);
+
+        final List<String> parts = new ArrayList<>();
+        parts.add(Arrays.toString(job.getTasks()));
+        parts.add(String.valueOf(job.getJavaHome()));
+        parts.add(hasher.hashTree(module.getDirectory(), TreeHasher.SOURCES));
+
+        // parent poms usually live in the aggregators
+        final Set<Path> reactorPoms = new HashSet<>();
+        for (final Module aggregator : reactor.getModules()) {
+            reactorPoms.add(aggregator.getPomFile());
+            if (aggregator.isAggregator()) {
+                parts.add(hasher.hashFile(aggregator.getPomFile()));
+            }
+        }
+
+        // and the rest outside the reactor, e.g. a shared build parent
+        final Set<Path> visited = new HashSet<>();
+        for (Path pom = module.getParentPom(); pom != null && visited.add(pom); pom = Reactor.parentPom(pom)) {
+            if (!reactorPoms.contains(pom))
+                parts.add(hasher.hashFile(pom));
+        }
+
+        for (final Module upstream : reactor.getUpstream(module)) {
+            parts.add(upstream.getArtifactId());
+            parts.add(computeKey(reactor, upstream, job, keys, visiting));
+        }
+
+        final String key = TreeHasher.hashStrings(parts);
+        keys.put(module, key);
+        return key;
+    }
+}
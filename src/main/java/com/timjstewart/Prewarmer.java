@@ -0,0 +1,401 @@
+package com.timjstewart;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * warms things up while no build is running.
+ *
+ * Whenever the project's poms differ from the ones dependencies were
+ * last resolved for, maven is run in the background to download the
+ * dependencies and plugins they ask for (dependency:go-offline) and
+ * to write each module's classpath to target/mvn8r.classpath.  Builds
+ * run offline first anyway and go online only if that fails to
+ * resolve something; the prewarmer makes that rare.  After every
+ * prewarm.interval.minutes of idleness the jars on those classpaths
+ * and maven's own jars are read so they are back in the page cache
+ * before the next build needs them.
+ *
+ * The background maven runs no lifecycle phase, so no plugin of the
+ * project's own build runs and killing it leaves nothing behind but
+ * downloads.  Maven resolves modules of the reactor only once the
+ * reactor has reached the compile phase, so for reactors whose
+ * modules depend on each other the classpath files are not written
+ * and only the jars named by earlier ones are warmed.
+ *
+ * A build pauses the prewarmer, killing the background maven if one
+ * is running, and the prewarmer waits prewarm.idle.millis after the
+ * build before it does anything again.  While idle the poms are only
+ * looked at again once their modification times change.
+ */
+class Prewarmer {
+
+    static final String CLASSPATH_FILE = "target/mvn8r.classpath";
+
+    /**
+     * pinned because its go-offline skips the reactor's own modules,
+     * which older versions try to download
+     */
+    private static final String DEPENDENCY_PLUGIN = "org.apache.maven.plugins:maven-dependency-plugin:3.7.0";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final Job job;
+
+    private final File mavenHome;
+
+    private final TreeHasher hasher;
+
+    private final long idleMillis;
+
+    private final long intervalMillis;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+
+    /**
+     * guarded by this
+     */
+    private boolean paused = false;
+
+    private long lastActivity = System.currentTimeMillis();
+
+    private long lastWarmed = 0;
+
+    private String attemptedPoms;
+
+    private Process process;
+
+    /**
+     * the reactor's poms with their modification times, and their
+     * hash, as of the last hashPoms()
+     */
+    private Map<Path, Long> pomTimes = new HashMap<>();
+
+    private String pomHash;
+
+    /**
+     * true iff a module depends on another module of the reactor
+     */
+    private boolean interModule;
+
+    Prewarmer(final Job job,
+              final File mavenHome,
+              final TreeHasher hasher,
+              final long idleMillis,
+              final long intervalMillis) {
+        this.job = job;
+        this.mavenHome = mavenHome;
+        this.hasher = hasher;
+        this.idleMillis = idleMillis;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * returns a Prewarmer configured by the prewarm.* properties, or
+     * null if prewarming is turned off
+     */
+    static Prewarmer create(final Job job,
+                            final Properties properties,
+                            final TreeHasher hasher) {
+        if (!Boolean.parseBoolean(properties.getProperty("prewarm.enabled", "false")))
+            return null;
+
+        return new Prewarmer(job,
+                             new File(properties.getProperty("maven.home")),
+                             hasher,
+                             Long.parseLong(properties.getProperty("prewarm.idle.millis", "2000")),
+                             Long.parseLong(properties.getProperty("prewarm.interval.minutes", "5")) * 60 * 1000);
+    }
+
+    /**
+     * starts the background thread
+     */
+    void start() {
+        final Thread thread = new Thread("Prewarmer") {
+                @Override
+                public void run() {
+                    try {
+                        for (;;) {
+                            awaitIdle();
+                            warmUp();
+                        }
+                    } catch (InterruptedException ex) {
+                        // stopped
+                    }
+                }
+            };
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * stops all background work until resume() is called
+     */
+    synchronized void pause() {
+        paused = true;
+        if (process != null) {
+            process.destroy();
+        }
+    }
+
+    synchronized void resume() {
+        paused = false;
+        lastActivity = System.currentTimeMillis();
+        lastWarmed = lastActivity;
+        notifyAll();
+    }
+
+    /**
+     * records that a build just resolved the dependencies of the
+     * current poms
+     */
+    void markResolved() {
+        final String poms = hashPoms();
+        synchronized (this) {
+            attemptedPoms = poms;
+        }
+    }
+
+    private synchronized boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * waits until no build has run for idleMillis and there is
+     * something to do
+     */
+    private void awaitIdle() throws InterruptedException {
+        for (;;) {
+            synchronized (this) {
+                final long now = System.currentTimeMillis();
+                if (paused) {
+                    wait();
+                    continue;
+                }
+                if (now < lastActivity + idleMillis) {
+                    wait(lastActivity + idleMillis - now);
+                    continue;
+                }
+                if (now >= lastWarmed + intervalMillis)
+                    return;
+            }
+
+            // the poms may have changed without a build being run
+            final String poms = hashPoms();
+
+            synchronized (this) {
+                if (!paused && poms != null && !poms.equals(attemptedPoms))
+                    return;
+                wait(idleMillis);
+            }
+        }
+    }
+
+    private void warmUp() throws InterruptedException {
+        final String poms = hashPoms();
+        boolean attempt;
+
+        synchronized (this) {
+            attempt = poms != null && !poms.equals(attemptedPoms);
+            if (attempt)
+                attemptedPoms = poms;
+        }
+
+        if (attempt) {
+            final boolean resolved = resolve();
+            synchronized (this) {
+                if (!resolved && paused) {
+                    // cut short by a build; try again afterwards
+                    attemptedPoms = null;
+                }
+            }
+        }
+
+        if (isPaused())
+            return;
+
+        for (final Path jar : jars()) {
+            if (isPaused())
+                return;
+            touch(jar);
+        }
+
+        synchronized (this) {
+            lastWarmed = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * runs maven to resolve the project's dependencies
+     *
+     * @return true iff maven succeeded without being paused
+     */
+    private boolean resolve() throws InterruptedException {
+        final boolean windows = System.getProperty("os.name").startsWith("Windows");
+        final List<String> command = new ArrayList<>(Arrays.asList(
+            new File(new File(mavenHome, "bin"), windows ? "mvn.cmd" : "mvn").getAbsolutePath(),
+            "-B", "-q",
+            "-f", new File(job.getPomFile()).getAbsolutePath(),
+            DEPENDENCY_PLUGIN + ":go-offline"));
+
+        synchronized (this) {
+            if (!interModule) {
+                command.addAll(Arrays.asList(DEPENDENCY_PLUGIN + ":build-classpath",
+                                             "-Dmdep.outputFile=" + CLASSPATH_FILE));
+            }
+        }
+
+        final ProcessBuilder builder = new ProcessBuilder(command).redirectErrorStream(true);
+
+        if (job.getJavaHome() != null) {
+            builder.environment().put("JAVA_HOME", job.getJavaHome());
+        }
+
+        final Process started;
+        synchronized (this) {
+            if (paused)
+                return false;
+            try {
+                started = process = builder.start();
+            } catch (IOException ex) {
+                System.err.println("Could not resolve dependencies: " + ex.getMessage());
+                return false;
+            }
+        }
+
+        try {
+            started.getOutputStream().close();
+            drain(started.getInputStream());
+            final int exitCode = started.waitFor();
+            return exitCode == 0 && !isPaused();
+        } catch (IOException ex) {
+            return false;
+        } finally {
+            synchronized (this) {
+                process = null;
+            }
+        }
+    }
+
+    /**
+     * @return the jars on the modules' classpaths and maven's own
+     * jars
+     */
+    private List<Path> jars() {
+        final Set<Path> jars = new LinkedHashSet<>();
+
+        final File[] mavenJars = new File(mavenHome, "lib").listFiles();
+        if (mavenJars != null) {
+            for (final File jar : mavenJars) {
+                if (jar.getName().endsWith(".jar"))
+                    jars.add(jar.toPath());
+            }
+        }
+
+        try {
+            final Reactor reactor = Reactor.load(new File(job.getPomFile()).toPath());
+            for (final Module module : reactor.getModules()) {
+                final Path classpath = module.getDirectory().resolve(CLASSPATH_FILE);
+                if (!Files.isRegularFile(classpath))
+                    continue;
+                final String entries = new String(Files.readAllBytes(classpath), UTF8).trim();
+                for (final String entry : entries.split(File.pathSeparator)) {
+                    if (entry.endsWith(".jar"))
+                        jars.add(Paths.get(entry));
+                }
+            }
+        } catch (IOException ex) {
+            // nothing more to warm
+        }
+
+        return new ArrayList<>(jars);
+    }
+
+    /**
+     * reads the file so it is in the page cache
+     */
+    private void touch(final Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) > 0) {
+                buffer.clear();
+            }
+        } catch (IOException ex) {
+            // gone or unreadable; nothing to warm
+        }
+    }
+
+    /**
+     * @return a hash of all of the reactor's poms, or null if they
+     * cannot be read.  The poms are read again only if one of them
+     * has changed since the last call.
+     */
+    private String hashPoms() {
+        synchronized (this) {
+            if (pomHash != null && !pomsChanged())
+                return pomHash;
+        }
+
+        try {
+            final Reactor reactor = Reactor.load(new File(job.getPomFile()).toPath());
+            final Map<Path, Long> times = new HashMap<>();
+            final List<String> parts = new ArrayList<>();
+            boolean dependent = false;
+            for (final Module module : reactor.getModules()) {
+                times.put(module.getPomFile(), Files.getLastModifiedTime(module.getPomFile()).toMillis());
+                parts.add(hasher.hashFile(module.getPomFile()));
+                dependent |= !reactor.getUpstream(module).isEmpty();
+            }
+
+            final String hash = TreeHasher.hashStrings(parts);
+            synchronized (this) {
+                pomTimes = times;
+                pomHash = hash;
+                interModule = dependent;
+            }
+            return hash;
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true iff a pom has been changed or deleted since the
+     * last hashPoms()
+     */
+    private boolean pomsChanged() {
+        for (final Map.Entry<Path, Long> pom : pomTimes.entrySet()) {
+            try {
+                if (Files.getLastModifiedTime(pom.getKey()).toMillis() != pom.getValue())
+                    return true;
+            } catch (IOException ex) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void drain(final InputStream in) throws IOException {
+        final byte[] bytes = new byte[8192];
+        while (in.read(bytes) >= 0) {
+            // discard
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.timjstewart;
+
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.MavenInvocationException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * runs maven as a child process without the maven-invoker.
+ *
+ * The invoker's StreamPumper decodes every line into a String before
+ * handing it over.  Here the process's output is read in large
+ * chunks, split into lines on the raw bytes and passed to the
+ * BuildOutputHandler undecoded, so lines the prefilter drops are
+ * never turned into Strings.
+ */
+class ProcessLauncher {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final File mavenHome;
+
+    private volatile Process process;
+
+    ProcessLauncher(final File mavenHome) {
+        this.mavenHome = mavenHome;
+    }
+
+    /**
+     * runs the build described by request
+     *
+     * @return maven's exit code
+     */
+    int execute(final InvocationRequest request, final BuildOutputHandler handler)
+        throws MavenInvocationException {
+
+        final ProcessBuilder builder = new ProcessBuilder(commandLine(request))
+            .redirectErrorStream(true);
+
+        final File pomFile = request.getPomFile().getAbsoluteFile();
+        builder.directory(pomFile.getParentFile());
+
+        final Map<String, String> environment = builder.environment();
+        if (request.getJavaHome() != null) {
+            environment.put("JAVA_HOME", request.getJavaHome().getAbsolutePath());
+        }
+        if (request.getMavenOpts() != null) {
+            environment.put("MAVEN_OPTS", request.getMavenOpts());
+        }
+
+        try {
+            process = builder.start();
+            process.getOutputStream().close();
+
+            pump(process.getInputStream(), handler);
+
+            return process.waitFor();
+        } catch (IOException ex) {
+            // an interrupt closes the output channel (ClosedByInterruptException)
+            if (Thread.currentThread().isInterrupted())
+                destroy();
+            throw new MavenInvocationException("could not run maven: " + ex.getMessage(), ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            destroy();
+            throw new MavenInvocationException("interrupted while running maven", ex);
+        } finally {
+            process = null;
+        }
+    }
+
+    /**
+     * kills the running build, if there is one
+     */
+    void destroy() {
+        final Process running = process;
+        if (running != null) {
+            running.destroy();
+        }
+    }
+
+    /**
+     * translates the parts of an InvocationRequest that mvn8r uses
+     * into a maven command line
+     */
+    List<String> commandLine(final InvocationRequest request) {
+        final List<String> command = new ArrayList<>();
+
+        final boolean windows = System.getProperty("os.name").startsWith("Windows");
+        command.add(new File(new File(mavenHome, "bin"), windows ? "mvn.cmd" : "mvn").getAbsolutePath());
+
+        command.add("-B");
+        command.add("-f");
+        command.add(request.getPomFile().getAbsolutePath());
+
+        if (request.isOffline())
+            command.add("-o");
+
+        if (request.getThreads() != null) {
+            command.add("-T");
+            command.add(request.getThreads());
+        }
+
+        if (request.getProjects() != null && !request.getProjects().isEmpty()) {
+            final StringBuilder projects = new StringBuilder();
+            for (final String project : request.getProjects()) {
+                if (projects.length() > 0)
+                    projects.append(',');
+                projects.append(project);
+            }
+            command.add("-pl");
+            command.add(projects.toString());
+
+            if (request.isAlsoMake())
+                command.add("-am");
+        }
+
+        if (request.getProperties() != null) {
+            for (final String name : request.getProperties().stringPropertyNames()) {
+                command.add("-D" + name + "=" + request.getProperties().getProperty(name));
+            }
+        }
+
+        command.addAll(request.getGoals());
+        return command;
+    }
+
+    /**
+     * reads the stream to its end, handing each line's bytes to the
+     * handler without its terminator
+     */
+    private static void pump(final InputStream in, final BuildOutputHandler handler)
+        throws IOException {
+
+        final ReadableByteChannel channel = Channels.newChannel(in);
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        final byte[] bytes = buffer.array();
+
+        // bytes before 'scanned' are known not to contain a newline
+        int scanned = 0;
+
+        while (channel.read(buffer) >= 0) {
+            final int end = buffer.position();
+            int lineStart = 0;
+
+            for (int i = scanned; i < end; ++i) {
+                if (bytes[i] == '\n') {
+                    emit(handler, bytes, lineStart, i);
+                    lineStart = i + 1;
+                }
+            }
+
+            if (lineStart == 0 && end == bytes.length) {
+                // a line longer than the buffer; hand it over in pieces
+                emit(handler, bytes, 0, end);
+                buffer.clear();
+                scanned = 0;
+            } else {
+                System.arraycopy(bytes, lineStart, bytes, 0, end - lineStart);
+                buffer.position(end - lineStart);
+                scanned = end - lineStart;
+            }
+        }
+
+        if (buffer.position() > 0) {
+            emit(handler, bytes, 0, buffer.position());
+        }
+    }
+
+    private static void emit(final BuildOutputHandler handler,
+                             final byte[] bytes,
+                             final int start,
+                             int end) {
+        if (end > start && bytes[end - 1] == '\r')
+            end--;
+        handler.consumeLine(bytes, start, end - start);
+    }
+}
@@ -0,0 +1,401 @@
+package com.timjstewart;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * the set of modules reachable from a root pom.xml file through its
+ * <modules> sections.  Only as much of each pom is read as mvn8r
+ * needs; it is not a substitute for maven's own model building.
+ */
+class Reactor {
+
+    private final Path rootDirectory;
+
+    private final List<Module> modules;
+
+    private final Map<String, Module> modulesByArtifactId = new HashMap<>();
+
+    private Reactor(final Path rootDirectory, final List<Module> modules) {
+        this.rootDirectory = rootDirectory;
+        this.modules = Collections.unmodifiableList(modules);
+
+        for (final Module module : modules) {
+            modulesByArtifactId.put(module.getArtifactId(), module);
+        }
+    }
+
+    /**
+     * reads the given pom.xml file and every module it aggregates
+     */
+    static Reactor load(final Path pomFile) throws IOException {
+        final Path rootDirectory = pomFile.toAbsolutePath().normalize().getParent();
+        final List<Module> modules = new ArrayList<>();
+        loadModule(rootDirectory, rootDirectory, modules);
+        return new Reactor(rootDirectory, modules);
+    }
+
+    Path getRootDirectory() {
+        return rootDirectory;
+    }
+
+    /**
+     * returns every module in the reactor, aggregators included, in
+     * the order they are declared
+     */
+    List<Module> getModules() {
+        return modules;
+    }
+
+    /**
+     * returns the modules that actually produce output (i.e. the ones
+     * that do not aggregate other modules)
+     */
+    List<Module> getLeafModules() {
+        final List<Module> leaves = new ArrayList<>();
+        for (final Module module : modules) {
+            if (!module.isAggregator()) {
+                leaves.add(module);
+            }
+        }
+        return leaves;
+    }
+
+    /**
+     * returns the modules of this reactor that the given module
+     * depends on directly
+     */
+    List<Module> getUpstream(final Module module) {
+        final List<Module> upstream = new ArrayList<>();
+        for (final String artifactId : module.getDependencies()) {
+            final Module dependency = modulesByArtifactId.get(artifactId);
+            if (dependency != null && dependency != module) {
+                upstream.add(dependency);
+            }
+        }
+        return upstream;
+    }
+
+    /**
+     * returns the module whose directory contains the given path, or
+     * null if the path lies outside of the reactor.  The most deeply
+     * nested module wins.
+     */
+    Module findModule(final Path path) {
+        final Path absolute = path.toAbsolutePath().normalize();
+        Module best = null;
+        for (final Module module : modules) {
+            if (absolute.startsWith(module.getDirectory())) {
+                if (best == null ||
+                    module.getDirectory().getNameCount() > best.getDirectory().getNameCount()) {
+                    best = module;
+                }
+            }
+        }
+        return best;
+    }
+
+    private static void loadModule(final Path rootDirectory,
+                                   final Path directory,
+                                   final List<Module> modules) throws IOException {
+
+        final Path pomFile = directory.resolve("pom.xml");
+        final Element project = parse(pomFile);
+
+        final List<String> dependencies = new ArrayList<>();
+        for (final Element dependency : children(child(project, "dependencies"), "dependency")) {
+            dependencies.add(text(child(dependency, "artifactId")));
+        }
+
+        final List<Element> children = children(child(project, "modules"), "module");
+
+        final String name = rootDirectory.equals(directory)
+            ? "."
+            : rootDirectory.relativize(directory).toString();
+
+        final Path parentPom = parentPom(pomFile, project, modules);
+        final List<Element> builds = builds(project, parentPom);
+
+        modules.add(new Module(name,
+                               directory,
+                               text(child(project, "artifactId")),
+                               dependencies,
+                               !children.isEmpty(),
+                               sourceRoots(directory, builds),
+                               resources(directory, builds),
+                               parentPom));
+
+        for (final Element child : children) {
+            final Path childDirectory = directory.resolve(text(child)).normalize();
+            if (Files.isRegularFile(childDirectory.resolve("pom.xml"))) {
+                loadModule(rootDirectory, childDirectory, modules);
+            }
+        }
+    }
+
+    /**
+     * returns the pom.xml file of the parent the given pom names, or
+     * null if it names none or the parent is not at its relativePath
+     * (by default ../pom.xml)
+     */
+    static Path parentPom(final Path pomFile) throws IOException {
+        return parentPom(pomFile.toAbsolutePath().normalize(), parse(pomFile), Collections.<Module>emptyList());
+    }
+
+    /**
+     * @param loaded modules read already, so their poms need not be
+     * parsed again
+     */
+    private static Path parentPom(final Path pomFile,
+                                  final Element project,
+                                  final List<Module> loaded) throws IOException {
+        final Element parent = child(project, "parent");
+        if (parent == null)
+            return null;
+
+        final Element relativePath = child(parent, "relativePath");
+        // an empty relativePath means the parent is only in a repository
+        final String path = relativePath != null ? text(relativePath) : "../pom.xml";
+        if (path.isEmpty())
+            return null;
+
+        Path candidate = pomFile.getParent().resolve(path).normalize();
+        if (Files.isDirectory(candidate))
+            candidate = candidate.resolve("pom.xml");
+        if (!Files.isRegularFile(candidate))
+            return null;
+
+        String artifactId = null;
+        for (final Module module : loaded) {
+            if (module.getPomFile().equals(candidate))
+                artifactId = module.getArtifactId();
+        }
+        if (artifactId == null)
+            artifactId = text(child(parse(candidate), "artifactId"));
+
+        // maven checks that it is the right project; so do we
+        return artifactId.equals(text(child(parent, "artifactId"))) ? candidate : null;
+    }
+
+    /**
+     * returns the build sections of a pom and of its parents on disk,
+     * nearest first.  What a pom's build section leaves out, maven
+     * takes from its parent's, with paths relative to the pom itself.
+     */
+    private static List<Element> builds(final Element project, Path parentPom) throws IOException {
+        final List<Element> builds = new ArrayList<>();
+        builds.add(child(project, "build"));
+
+        final Set<Path> visited = new HashSet<>();
+        while (parentPom != null && visited.add(parentPom)) {
+            final Element parent = parse(parentPom);
+            builds.add(child(parent, "build"));
+            parentPom = parentPom(parentPom, parent, Collections.<Module>emptyList());
+        }
+        return builds;
+    }
+
+    /**
+     * returns the element of the nearest build section that has one,
+     * or null
+     */
+    private static Element inherited(final List<Element> builds, final String name) {
+        for (final Element build : builds) {
+            final Element element = child(build, name);
+            if (element != null)
+                return element;
+        }
+        return null;
+    }
+
+    /**
+     * returns the source, resource and test directories a pom's
+     * build section declares or inherits, falling back to maven's
+     * defaults, plus
+     * any other src/main/* and src/test/* directories (scala, groovy,
+     * ...).  A directory given by a property other than basedir
+     * cannot be resolved here, so the whole module directory stands
+     * in for it.
+     */
+    private static List<Path> sourceRoots(final Path directory, final List<Element> builds) {
+        final Set<Path> roots = new LinkedHashSet<>();
+
+        final List<String> declared = new ArrayList<>();
+        declared.add(textOr(inherited(builds, "sourceDirectory"), "src/main/java"));
+        declared.add(textOr(inherited(builds, "testSourceDirectory"), "src/test/java"));
+        declared.addAll(resourceDirectories(inherited(builds, "resources"), "resource", "src/main/resources"));
+        declared.addAll(resourceDirectories(inherited(builds, "testResources"), "testResource", "src/test/resources"));
+
+        for (final String root : declared) {
+            final Path resolved = resolve(directory, root);
+            roots.add(resolved != null ? resolved : directory);
+        }
+
+        for (final String scope : new String[] { "main", "test" }) {
+            final File[] languages = directory.resolve("src").resolve(scope).toFile().listFiles();
+            if (languages != null) {
+                for (final File language : languages) {
+                    if (language.isDirectory())
+                        roots.add(language.toPath());
+                }
+            }
+        }
+
+        return new ArrayList<>(roots);
+    }
+
+    /**
+     * returns the resources and test resources a pom's build section
+     * declares or inherits, or maven's defaults.  Resources whose
+     * directory is given by a property other than basedir are left
+     * out.
+     */
+    private static List<Module.Resource> resources(final Path directory, final List<Element> builds) {
+        final List<Module.Resource> resources = new ArrayList<>();
+        addResources(resources, directory, inherited(builds, "resources"), "resource", false,
+                     "src/main/resources",
+                     resolve(directory, textOr(inherited(builds, "outputDirectory"), "target/classes")));
+        addResources(resources, directory, inherited(builds, "testResources"), "testResource", true,
+                     "src/test/resources",
+                     resolve(directory, textOr(inherited(builds, "testOutputDirectory"), "target/test-classes")));
+        return resources;
+    }
+
+    private static void addResources(final List<Module.Resource> resources,
+                                     final Path directory,
+                                     final Element declared,
+                                     final String name,
+                                     final boolean test,
+                                     final String defaultDirectory,
+                                     Path outputDirectory) {
+        if (outputDirectory == null)
+            outputDirectory = directory.resolve(test ? "target/test-classes" : "target/classes");
+
+        if (declared == null) {
+            resources.add(new Module.Resource(directory.resolve(defaultDirectory), outputDirectory, test, true));
+            return;
+        }
+
+        for (final Element resource : children(declared, name)) {
+            final Path source = resolve(directory, textOr(child(resource, "directory"), defaultDirectory));
+            if (source == null)
+                continue;
+
+            final String targetPath = text(child(resource, "targetPath"));
+            if (targetPath.contains("${"))
+                continue;
+            final Path output = outputDirectory.resolve(targetPath).normalize();
+
+            final boolean verbatim = !Boolean.parseBoolean(text(child(resource, "filtering"))) &&
+                child(resource, "includes") == null &&
+                child(resource, "excludes") == null;
+
+            resources.add(new Module.Resource(source, output, test, verbatim));
+        }
+    }
+
+    /**
+     * @return the path relative to directory, or null if it refers to
+     * a property that cannot be resolved here
+     */
+    private static Path resolve(final Path directory, final String path) {
+        final String resolved = path
+            .replace("${project.basedir}", directory.toString())
+            .replace("${basedir}", directory.toString());
+        return resolved.contains("${") ? null : directory.resolve(resolved).normalize();
+    }
+
+    private static List<String> resourceDirectories(final Element resources,
+                                                    final String name,
+                                                    final String defaultDirectory) {
+        final List<String> directories = new ArrayList<>();
+        for (final Element resource : children(resources, name)) {
+            final Element directory = child(resource, "directory");
+            if (directory != null)
+                directories.add(text(directory));
+        }
+        if (resources == null)
+            directories.add(defaultDirectory);
+        return directories;
+    }
+
+    private static String textOr(final Element element, final String defaultText) {
+        return element != null ? text(element) : defaultText;
+    }
+
+    /**
+     * returns the root element of a pom
+     */
+    static Element parse(final Path pomFile) throws IOException {
+        try {
+            final Document document = DocumentBuilderFactory.newInstance()
+                .newDocumentBuilder()
+                .parse(pomFile.toFile());
+            return document.getDocumentElement();
+        } catch (ParserConfigurationException | SAXException ex) {
+            throw new IOException("could not parse " + pomFile, ex);
+        }
+    }
+
+    /**
+     * returns the first child element of parent with the given name,
+     * or null
+     */
+    static Element child(final Element parent, final String name) {
+        if (parent == null)
+            return null;
+
+        final NodeList nodes = parent.getChildNodes();
+        for (int i = 0; i < nodes.getLength(); ++i) {
+            final Node node = nodes.item(i);
+            if (node instanceof Element && node.getNodeName().equals(name)) {
+                return (Element) node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * returns all child elements of parent with the given name
+     */
+    static List<Element> children(final Element parent, final String name) {
+        final List<Element> result = new ArrayList<>();
+        if (parent == null)
+            return result;
+
+        final NodeList nodes = parent.getChildNodes();
+        for (int i = 0; i < nodes.getLength(); ++i) {
+            final Node node = nodes.item(i);
+            if (node instanceof Element && node.getNodeName().equals(name)) {
+                result.add((Element) node);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * returns the trimmed text of the element, or the empty string
+     */
+    static String text(final Element element) {
+        return element == null ? "" : element.getTextContent().trim();
+    }
+}
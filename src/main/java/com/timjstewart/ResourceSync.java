@@ -0,0 +1,310 @@
+package com.timjstewart;
+
+import org.apache.maven.shared.invoker.DefaultInvocationRequest;
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.MavenInvocationException;
+import org.fusesource.jansi.AnsiConsole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import com.timjstewart.rules.RuleSet;
+
+import static org.fusesource.jansi.Ansi.Color.*;
+import static org.fusesource.jansi.Ansi.ansi;
+
+/**
+ * copies changed resources straight into target/classes instead of
+ * running maven.
+ *
+ * WatchDir hands over every change below a module's resource
+ * directories.  Each changed file is copied to the matching path in
+ * the output directory with FileChannel.transferTo, which lets the
+ * kernel copy the data without it passing through the JVM, and a
+ * deleted file or directory is deleted there as well.  Resources that
+ * are filtered, or limited by includes or excludes, cannot be copied
+ * as they are; their modules run process-resources (or
+ * resources:testResources) instead.  Nothing is copied into a module
+ * that has not been built yet.
+ *
+ * The resources, including those a module inherits from its parents,
+ * are read from the poms again whenever one of them changes.
+ */
+class ResourceSync {
+
+    /**
+     * what maven's default excludes keep out of target/classes (the
+     * usual editor and VCS droppings)
+     */
+    private static final String[] IGNORED_PREFIXES = { ".#", "._", "#", "%" };
+
+    private static final String[] IGNORED_SUFFIXES = { "~", "#", "%", ".swp" };
+
+    private static final String[] IGNORED_NAMES = { ".DS_Store", ".gitignore", ".gitattributes", ".cvsignore" };
+
+    private final Job job;
+
+    private final Properties properties;
+
+    private final Set<Path> pending = new ConcurrentSkipListSet<>();
+
+    private volatile List<Module> modules;
+
+    /**
+     * the poms the modules were read from, with their modification
+     * times
+     */
+    private Map<Path, Long> poms = new HashMap<>();
+
+    ResourceSync(final Job job, final Properties properties) throws IOException {
+        this.job = job;
+        this.properties = properties;
+        load();
+    }
+
+    /**
+     * returns a ResourceSync if resources.sync is true and the poms
+     * can be read, otherwise null
+     */
+    static ResourceSync create(final Job job, final Properties properties) {
+        if (!Boolean.parseBoolean(properties.getProperty("resources.sync", "false")))
+            return null;
+
+        try {
+            return new ResourceSync(job, properties);
+        } catch (IOException ex) {
+            System.err.println("Could not read resources from the poms: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * records a change to file if it is a resource
+     */
+    void changed(final Path file) {
+        if (isIgnored(file.getFileName().toString()))
+            return;
+
+        for (final Module module : modules) {
+            for (final Module.Resource resource : module.getResources()) {
+                if (file.startsWith(resource.getDirectory()) && !file.equals(resource.getDirectory())) {
+                    pending.add(file);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * brings the output directories up to date with the changes
+     * recorded so far
+     */
+    void flush() {
+        if (pending.isEmpty())
+            return;
+
+        final long started = System.currentTimeMillis();
+        reloadIfChanged();
+
+        int copied = 0;
+        int deleted = 0;
+        final Set<String> mainModules = new TreeSet<>();
+        final Set<String> testModules = new TreeSet<>();
+
+        for (final Iterator<Path> files = pending.iterator(); files.hasNext(); ) {
+            final Path file = files.next();
+            files.remove();
+
+            for (final Module module : modules) {
+                final Module.Resource resource = find(module, file);
+                if (resource == null)
+                    continue;
+
+                // maven copies it on the module's first build
+                if (!Files.isDirectory(resource.isTest()
+                                       ? module.getTargetDirectory().resolve("test-classes")
+                                       : module.getTargetDirectory().resolve("classes")))
+                    break;
+
+                if (!resource.isVerbatim()) {
+                    (resource.isTest() ? testModules : mainModules).add(module.getName());
+                    break;
+                }
+
+                final Path target = resource.getOutputDirectory()
+                    .resolve(resource.getDirectory().relativize(file).toString());
+                try {
+                    if (Files.isRegularFile(file)) {
+                        copy(file, target);
+                        copied++;
+                    } else if (Files.isDirectory(file)) {
+                        Files.createDirectories(target);
+                    } else if (Files.exists(target)) {
+                        FileTrees.delete(target);
+                        deleted++;
+                    }
+                } catch (IOException ex) {
+                    System.err.println("Could not sync " + file + ": " + ex.getMessage());
+                }
+                break;
+            }
+        }
+
+        if (copied + deleted > 0) {
+            AnsiConsole.out.println(ansi()
+                                    .fg(BLUE).a("=> ")
+                                    .fg(WHITE).a(String.format("Resources: %d copied, %d deleted (%d ms)",
+                                                               copied, deleted,
+                                                               System.currentTimeMillis() - started))
+                                    .reset());
+        }
+
+        // process-test-resources would compile first; the plugin goal does not
+        if (!mainModules.isEmpty())
+            processResources("process-resources", mainModules);
+        if (!testModules.isEmpty())
+            processResources("resources:testResources", testModules);
+    }
+
+    /**
+     * @return the module's resource containing file (the innermost,
+     * if they nest), or null
+     */
+    private static Module.Resource find(final Module module, final Path file) {
+        Module.Resource best = null;
+        for (final Module.Resource resource : module.getResources()) {
+            if (file.startsWith(resource.getDirectory()) &&
+                (best == null || resource.getDirectory().startsWith(best.getDirectory()))) {
+                best = resource;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * copies source over target in one step, so readers never see
+     * half a file
+     */
+    private static void copy(final Path source, final Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        final Path temporary = target.resolveSibling(target.getFileName() + ".mvn8r");
+
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(temporary,
+                                                StandardOpenOption.WRITE,
+                                                StandardOpenOption.CREATE,
+                                                StandardOpenOption.TRUNCATE_EXISTING)) {
+            final long size = in.size();
+            for (long position = 0; position < size; ) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+
+        Files.setLastModifiedTime(temporary, Files.getLastModifiedTime(source));
+        Files.move(temporary, target,
+                   StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * runs a resources goal on the given modules
+     */
+    void processResources(final String goal, final Set<String> moduleNames) {
+        final long started = System.currentTimeMillis();
+        final Transcript transcript = new Transcript(false);
+        final BuildOutputHandler output = new BuildOutputHandler(job, RuleSet.defaults(), transcript, null);
+
+        final InvocationRequest request = new DefaultInvocationRequest()
+            .setPomFile(new File(job.getPomFile()))
+            .setGoals(Arrays.asList(goal))
+            .setProjects(new ArrayList<>(moduleNames))
+            .setOffline(true)
+            .setOutputHandler(output);
+
+        if (job.getJavaHome() != null) {
+            request.setJavaHome(new File(job.getJavaHome()));
+        }
+
+        boolean success = false;
+
+        // Main.perform holds the same lock, so this never overlaps a build
+        synchronized (Main.class) {
+            try {
+                success = Main.execute(properties, request, output) == 0;
+            } catch (MavenInvocationException ex) {
+                transcript.println("Could not run maven: " + ex.getMessage());
+            }
+        }
+
+        AnsiConsole.out.println(ansi()
+                                .fg(BLUE).a("=> ")
+                                .fg(WHITE).a(String.format("Resources: %s %s (%d ms): ",
+                                                           goal, moduleNames,
+                                                           System.currentTimeMillis() - started))
+                                .fg(success ? GREEN : RED).a(success ? "SUCCESS" : "FAILURE")
+                                .reset());
+
+        if (!success) {
+            for (final String line : transcript.getLines()) {
+                AnsiConsole.out.println(line);
+            }
+        }
+    }
+
+    private void reloadIfChanged() {
+        try {
+            for (final Map.Entry<Path, Long> pom : poms.entrySet()) {
+                if (!Files.isRegularFile(pom.getKey()) ||
+                    Files.getLastModifiedTime(pom.getKey()).toMillis() != pom.getValue()) {
+                    load();
+                    return;
+                }
+            }
+        } catch (IOException ex) {
+            System.err.println("Could not read resources from the poms: " + ex.getMessage());
+        }
+    }
+
+    private void load() throws IOException {
+        final Reactor reactor = Reactor.load(new File(job.getPomFile()).toPath());
+
+        // resources are inherited from parents outside the reactor too
+        final Map<Path, Long> times = new HashMap<>();
+        for (final Module module : reactor.getModules()) {
+            for (Path pom = module.getPomFile(); pom != null && !times.containsKey(pom); pom = Reactor.parentPom(pom)) {
+                times.put(pom, Files.getLastModifiedTime(pom).toMillis());
+            }
+        }
+
+        this.modules = reactor.getModules();
+        this.poms = times;
+    }
+
+    private static boolean isIgnored(final String name) {
+        for (final String prefix : IGNORED_PREFIXES)
+            if (name.startsWith(prefix))
+                return true;
+        for (final String suffix : IGNORED_SUFFIXES)
+            if (name.endsWith(suffix))
+                return true;
+        for (final String ignored : IGNORED_NAMES)
+            if (name.equals(ignored))
+                return true;
+        return false;
+    }
+}
@@ -0,0 +1,167 @@
+package com.timjstewart;
+
+import org.fusesource.jansi.AnsiConsole;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.timjstewart.rules.RuleParseException;
+import com.timjstewart.rules.RuleSet;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+import static org.fusesource.jansi.Ansi.Color.*;
+import static org.fusesource.jansi.Ansi.ansi;
+
+/**
+ * holds the current RuleSet and recompiles it in the background
+ * whenever the rules file changes.  The new set replaces the old one
+ * in a single atomic swap, so a build that already fetched its
+ * RuleSet keeps using that one until it finishes.  A rules file that
+ * does not compile is reported and the previous rules stay in effect.
+ */
+class RuleSetWatcher {
+
+    /**
+     * the rules files to look for, most specific first
+     */
+    private final List<Path> candidates;
+
+    private final RuleSet defaults = RuleSet.defaults();
+
+    private final AtomicReference<RuleSet> current = new AtomicReference<>();
+
+    RuleSetWatcher(final List<Path> candidates) {
+        this.candidates = candidates;
+        current.set(loadOrDefaults(defaults));
+    }
+
+    /**
+     * returns a RuleSetWatcher for the rules.file property, or for
+     * .mvn8r.rules in the project directory and then the home
+     * directory
+     */
+    static RuleSetWatcher create(final Job job, final Properties properties) {
+        final List<Path> candidates = new ArrayList<>();
+
+        final String configured = properties.getProperty("rules.file");
+        if (configured != null) {
+            candidates.add(Paths.get(configured).toAbsolutePath().normalize());
+        } else {
+            candidates.add(job.getProjectDirectory().resolve(".mvn8r.rules").toAbsolutePath().normalize());
+            candidates.add(Paths.get(System.getProperty("user.home"), ".mvn8r.rules"));
+        }
+
+        return new RuleSetWatcher(candidates);
+    }
+
+    /**
+     * returns the current rules
+     */
+    RuleSet get() {
+        return current.get();
+    }
+
+    /**
+     * starts watching the rules files
+     */
+    void start() {
+        final WatchService watcher;
+        final Set<Path> directories = new HashSet<>();
+
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            for (final Path candidate : candidates) {
+                final Path directory = candidate.getParent();
+                if (Files.isDirectory(directory) && directories.add(directory)) {
+                    directory.register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+                }
+            }
+        } catch (IOException ex) {
+            System.err.println("Could not watch rules files: " + ex.getMessage());
+            return;
+        }
+
+        final Thread thread = new Thread("RuleSetWatcher") {
+                @Override
+                public void run() {
+                    try {
+                        for (;;) {
+                            final WatchKey key = watcher.take();
+                            boolean changed = false;
+
+                            for (final WatchEvent<?> event : key.pollEvents()) {
+                                if (event.kind() == OVERFLOW || isCandidate(key, event)) {
+                                    changed = true;
+                                }
+                            }
+                            key.reset();
+
+                            if (changed) {
+                                // editors save in several steps; let them finish
+                                Thread.sleep(100);
+                                for (WatchKey more; (more = watcher.poll()) != null; ) {
+                                    more.pollEvents();
+                                    more.reset();
+                                }
+                                reload();
+                            }
+                        }
+                    } catch (InterruptedException | ClosedWatchServiceException ex) {
+                        // stopped
+                    }
+                }
+            };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private boolean isCandidate(final WatchKey key, final WatchEvent<?> event) {
+        final Path changed = ((Path) key.watchable()).resolve((Path) event.context());
+        return candidates.contains(changed);
+    }
+
+    private void reload() {
+        final RuleSet previous = current.get();
+        final RuleSet next = loadOrDefaults(previous);
+
+        if (next != previous) {
+            current.set(next);
+            AnsiConsole.out.println(ansi()
+                                    .fg(BLUE).a("=> ")
+                                    .fg(WHITE).a("Loaded rules: " + next.getSource())
+                                    .reset());
+        }
+    }
+
+    /**
+     * compiles the first rules file that exists.  If none exists the
+     * built-in rules are used; if it does not compile, fallback is.
+     */
+    private RuleSet loadOrDefaults(final RuleSet fallback) {
+        for (final Path candidate : candidates) {
+            if (Files.isRegularFile(candidate)) {
+                try {
+                    return RuleSet.load(candidate);
+                } catch (IOException | RuleParseException ex) {
+                    System.err.println("Could not load rules: " + ex.getMessage());
+                    return fallback;
+                }
+            }
+        }
+
+        return defaults;
+    }
+}
@@ -0,0 +1,887 @@
+package com.timjstewart;
+
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.fusesource.jansi.AnsiConsole;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.timjstewart.rules.RuleSet;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import static org.fusesource.jansi.Ansi.Color.*;
+import static org.fusesource.jansi.Ansi.ansi;
+
+/**
+ * runs a build's unit tests on a pool of worker JVMs instead of in
+ * surefire.
+ *
+ * maven builds the project with -DskipTests and writes each module's
+ * test class path to target/mvn8r.classpath.  The test classes are
+ * then split into shards of a single module each, about shards.jvms
+ * of them, longest first, so every shard gets about the same amount
+ * of work.  The durations come from earlier sharded runs, or else
+ * from the surefire reports.  Up to shards.jvms shards run at once,
+ * each on a worker JVM started in its module's directory with the
+ * argLine and systemPropertyVariables surefire is configured with.
+ * The worker connects back to a socket on shards.bind (loopback by
+ * default); see ShardWorker for the protocol.
+ *
+ * Each test class's result is reported in surefire's format, so the
+ * rules colour it as usual, and written to the module's
+ * surefire-reports as TEST-*.xml and *.txt files, as surefire would.
+ * A summary follows once all shards are done.
+ */
+class ShardCoordinator {
+
+    private static final Pattern SUITE_TIME =
+        Pattern.compile("<testsuite[^>]*\\stime=\"([0-9.,]+)\"");
+
+    private static final long DEFAULT_MILLIS = 1000;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 30000;
+
+    private static final int MAX_TRACE_LINES = 5;
+
+    private static final Pattern PROPERTY = Pattern.compile("[$@]\\{([^}]+)\\}");
+
+    private static final String SUREFIRE = "maven-surefire-plugin";
+
+    /**
+     * a test class and the module it belongs to
+     */
+    static final class Unit {
+
+        final String module;
+
+        final String className;
+
+        final long millis;
+
+        Unit(final String module, final String className, final long millis) {
+            this.module = module;
+            this.className = className;
+            this.millis = millis;
+        }
+    }
+
+    /**
+     * test classes of one module that run on the same worker
+     */
+    static final class Shard {
+
+        final String module;
+
+        final List<Unit> units = new ArrayList<>();
+
+        long millis;
+
+        Shard(final String module) {
+            this.module = module;
+        }
+    }
+
+    /**
+     * how a module's tests are run
+     */
+    private static final class TestModule {
+
+        final Path directory;
+
+        final Path reports;
+
+        final String classPath;
+
+        /**
+         * the surefire argLine and systemPropertyVariables
+         */
+        final List<String> jvmArguments;
+
+        TestModule(final Path directory,
+                   final Path reports,
+                   final String classPath,
+                   final List<String> jvmArguments) {
+            this.directory = directory;
+            this.reports = reports;
+            this.classPath = classPath;
+            this.jvmArguments = jvmArguments;
+        }
+    }
+
+    private final Job job;
+
+    private final int jvms;
+
+    private final String bind;
+
+    private final Path timesFile;
+
+    private final Properties times = new Properties();
+
+    /**
+     * module name to how its tests are run, for the current run
+     */
+    private final Map<String, TestModule> testModules = new HashMap<>();
+
+    /**
+     * guarded by this
+     */
+    private int testsRun;
+
+    private int testsFailed;
+
+    private int testsIgnored;
+
+    private final List<String> failedTests = new ArrayList<>();
+
+    private final Set<String> finished = new HashSet<>();
+
+    ShardCoordinator(final Job job, final int jvms, final String bind, final Path timesFile) {
+        this.job = job;
+        this.jvms = jvms;
+        this.bind = bind;
+        this.timesFile = timesFile;
+    }
+
+    /**
+     * returns a ShardCoordinator configured by the shards.*
+     * properties, or null if tests are left to surefire
+     */
+    static ShardCoordinator create(final Job job, final Properties properties) {
+        final int jvms = Integer.parseInt(properties.getProperty("shards.jvms", "0"));
+        if (jvms <= 0)
+            return null;
+
+        final String project = job.getProjectDirectory().toAbsolutePath().normalize().toString();
+
+        return new ShardCoordinator(job,
+                                    jvms,
+                                    properties.getProperty("shards.bind", "127.0.0.1"),
+                                    Paths.get(System.getProperty("user.home"), ".mvn8r", "shards",
+                                              TreeHasher.hashStrings(Arrays.asList(project)) + ".properties"));
+    }
+
+    /**
+     * makes maven compile the tests and write their class paths
+     * instead of running them
+     */
+    void prepare(final InvocationRequest request) {
+        final Properties properties =
+            request.getProperties() != null ? request.getProperties() : new Properties();
+        properties.setProperty("skipTests", "true");
+        properties.setProperty("mdep.outputFile", Prewarmer.CLASSPATH_FILE);
+        request.setProperties(properties);
+
+        final List<String> goals = new ArrayList<>(request.getGoals());
+        goals.add("dependency:build-classpath");
+        request.setGoals(goals);
+    }
+
+    /**
+     * runs the tests of the build maven just finished
+     *
+     * @param events the (optional) server test results are published to
+     * @return true iff every test ran and passed
+     */
+    boolean run(final RuleSet ruleSet, final Transcript transcript, final EventServer events) {
+        synchronized (this) {
+            testsRun = testsFailed = testsIgnored = 0;
+            failedTests.clear();
+            finished.clear();
+        }
+
+        final List<Unit> units;
+        try {
+            loadTimes();
+            units = findTests();
+        } catch (IOException ex) {
+            System.err.println("Could not find tests: " + ex.getMessage());
+            return false;
+        }
+
+        if (units.isEmpty()) {
+            transcript.println(ansi().fg(YELLOW).a("No tests to run.").reset());
+            return true;
+        }
+
+        final List<Shard> shards = shard(units, jvms);
+
+        long longest = 0;
+        for (final Shard shard : shards)
+            longest = Math.max(longest, shard.millis);
+
+        AnsiConsole.out.println(ansi()
+                                .fg(BLUE).a("===> ")
+                                .fg(WHITE).a(String.format("Tests: %d classes in %d shards (~%.1f s each)",
+                                                           units.size(), shards.size(), longest / 1000.0))
+                                .reset());
+
+        final BuildOutputHandler output =
+            new BuildOutputHandler(job, ruleSet, transcript, null).publishTo(events);
+        final long started = System.currentTimeMillis();
+
+        runShards(shards, output, transcript);
+
+        final boolean complete;
+        synchronized (this) {
+            complete = finished.size() == units.size();
+            if (!complete) {
+                testsFailed += units.size() - finished.size();
+                failedTests.add((units.size() - finished.size()) + " test classes did not run");
+            }
+
+            output.consumeLine("");
+            output.consumeLine("Results :");
+            output.consumeLine("");
+            if (!failedTests.isEmpty()) {
+                output.consumeLine("Failed tests: ");
+                for (final String test : failedTests)
+                    output.consumeLine("  " + test);
+                output.consumeLine("");
+            }
+            output.consumeLine(String.format(Locale.US,
+                                             "Tests run: %d, Failures: %d, Errors: 0, Skipped: %d, Time elapsed: %.3f sec",
+                                             testsRun, testsFailed, testsIgnored,
+                                             (System.currentTimeMillis() - started) / 1000.0));
+        }
+
+        try {
+            saveTimes();
+        } catch (IOException ex) {
+            System.err.println("Could not record test times: " + ex.getMessage());
+        }
+
+        synchronized (this) {
+            return complete && testsFailed == 0;
+        }
+    }
+
+    /**
+     * runs the shards, longest first, on up to jvms workers at a time
+     */
+    private void runShards(final List<Shard> shards,
+                           final BuildOutputHandler output,
+                           final Transcript transcript) {
+
+        final Queue<Shard> pending = new ConcurrentLinkedQueue<>(shards);
+        final List<Thread> slots = new ArrayList<>();
+
+        for (int i = 0; i < Math.min(jvms, shards.size()); ++i) {
+            final int index = i;
+            final Thread slot = new Thread("ShardSlot") {
+                    @Override
+                    public void run() {
+                        Shard shard;
+                        while (!isInterrupted() && (shard = pending.poll()) != null) {
+                            runShard(shard, index, output, transcript);
+                        }
+                    }
+                };
+            slot.setDaemon(true);
+            slot.start();
+            slots.add(slot);
+        }
+
+        try {
+            for (final Thread slot : slots) {
+                slot.join();
+            }
+        } catch (InterruptedException ex) {
+            for (final Thread slot : slots) {
+                slot.interrupt();
+            }
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * starts a worker for the shard and serves it until the shard is
+     * done or the worker goes away
+     */
+    private void runShard(final Shard shard,
+                          final int index,
+                          final BuildOutputHandler output,
+                          final Transcript transcript) {
+        final TestModule module = testModules.get(shard.module);
+        Process worker = null;
+
+        try (ServerSocket server = new ServerSocket()) {
+            server.bind(new InetSocketAddress(InetAddress.getByName(bind), 0));
+            server.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+
+            worker = startWorker(module, server.getLocalPort(), index);
+            serve(server.accept(), shard, module, output, transcript);
+        } catch (IOException ex) {
+            if (worker == null)
+                System.err.println("Could not run tests: " + ex.getMessage());
+            // else the worker did not connect or died; its classes are
+            // reported as not run
+        } finally {
+            if (worker != null)
+                worker.destroy();
+        }
+    }
+
+    /**
+     * hands the shard's classes to a worker one at a time
+     */
+    private void serve(final Socket socket,
+                       final Shard shard,
+                       final TestModule module,
+                       final BuildOutputHandler output,
+                       final Transcript transcript) throws IOException {
+        try {
+            final BufferedReader in =
+                new BufferedReader(new InputStreamReader(socket.getInputStream(), ShardWorker.UTF8));
+            final Writer out =
+                new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), ShardWorker.UTF8));
+
+            ShardWorker.send(out, "CLASSPATH", shard.module, module.classPath);
+
+            for (final Unit unit : shard.units) {
+                ShardWorker.send(out, "RUN", shard.module, unit.className);
+                out.flush();
+
+                if (!receive(in, unit, module, output, transcript))
+                    return;
+            }
+
+            ShardWorker.send(out, "QUIT");
+            out.flush();
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * reads a worker's reply to a RUN command and reports it
+     *
+     * @return false if the worker went away
+     */
+    private boolean receive(final BufferedReader in,
+                            final Unit unit,
+                            final TestModule module,
+                            final BuildOutputHandler output,
+                            final Transcript transcript) throws IOException {
+        final List<String[]> failures = new ArrayList<>();
+
+        String line;
+        while ((line = in.readLine()) != null) {
+            final String[] fields = line.split("\t", -1);
+            for (int i = 0; i < fields.length; ++i)
+                fields[i] = ShardWorker.unescape(fields[i]);
+
+            if (fields[0].equals("FAILURE")) {
+                failures.add(fields);
+            } else if (fields[0].equals("RESULT")) {
+                report(unit, module, fields, failures, output, transcript);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized void report(final Unit unit,
+                                     final TestModule module,
+                                     final String[] result,
+                                     final List<String[]> failures,
+                                     final BuildOutputHandler output,
+                                     final Transcript transcript) {
+        final int run = Integer.parseInt(result[2]);
+        final int failed = Integer.parseInt(result[3]);
+        final int ignored = Integer.parseInt(result[4]);
+        final long millis = Long.parseLong(result[5]);
+
+        testsRun += run;
+        testsFailed += failed;
+        testsIgnored += ignored;
+        finished.add(unit.module + "/" + unit.className);
+        times.setProperty(unit.className, String.valueOf(millis));
+
+        output.consumeLine("Running " + unit.className);
+        output.consumeLine(String.format(Locale.US,
+                                         "Tests run: %d, Failures: %d, Errors: 0, Skipped: %d, Time elapsed: %.3f sec%s",
+                                         run, failed, ignored, millis / 1000.0,
+                                         failed > 0 ? " <<< FAILURE!" : ""));
+
+        for (final String[] failure : failures) {
+            failedTests.add(failure[2]);
+            transcript.println(ansi().fg(RED).a(failure[2]).reset());
+
+            int lines = 0;
+            for (final String trace : failure[3].split("\n")) {
+                if (trace.trim().startsWith("at ") && ++lines > MAX_TRACE_LINES)
+                    continue;
+                transcript.println(trace);
+            }
+        }
+
+        try {
+            writeReports(module.reports, unit.className, run, failed, ignored, millis, failures);
+        } catch (IOException ex) {
+            System.err.println("Could not write the test report of " + unit.className + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * writes the TEST-*.xml and *.txt reports surefire would have
+     * written for the class
+     *
+     * @param failures the FAILURE lines of the class: FAILURE class
+     * header trace
+     */
+    static void writeReports(final Path reports,
+                             final String className,
+                             final int run,
+                             final int failed,
+                             final int ignored,
+                             final long millis,
+                             final List<String[]> failures) throws IOException {
+        Files.createDirectories(reports);
+
+        final String seconds = String.format(Locale.US, "%.3f", millis / 1000.0);
+
+        final StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xml.append("<testsuite name=\"").append(xml(className))
+            .append("\" time=\"").append(seconds)
+            .append("\" tests=\"").append(run)
+            .append("\" errors=\"0\" skipped=\"").append(ignored)
+            .append("\" failures=\"").append(failed).append("\">\n");
+
+        final StringBuilder txt = new StringBuilder();
+        txt.append("-------------------------------------------------------------------------------\n");
+        txt.append("Test set: ").append(className).append('\n');
+        txt.append("-------------------------------------------------------------------------------\n");
+        txt.append(String.format(Locale.US, "Tests run: %d, Failures: %d, Errors: 0, Skipped: %d, Time elapsed: %s sec%s%n",
+                                 run, failed, ignored, seconds, failed > 0 ? " <<< FAILURE!" : ""));
+
+        for (final String[] failure : failures) {
+            final String header = failure[2];
+            final String trace = failure[3];
+
+            // JUnit names a test method(class); a failure of the class itself is named after it
+            final int paren = header.indexOf('(');
+            final String name = paren > 0 && header.endsWith(")") ? header.substring(0, paren) : header;
+            final String classname = paren > 0 && header.endsWith(")")
+                ? header.substring(paren + 1, header.length() - 1) : className;
+
+            final String message = trace.split("\n", 2)[0];
+            final int colon = message.indexOf(':');
+
+            xml.append("  <testcase name=\"").append(xml(name))
+                .append("\" classname=\"").append(xml(classname)).append("\" time=\"0\">\n");
+            xml.append("    <failure message=\"").append(xml(colon > 0 ? message.substring(colon + 1).trim() : ""))
+                .append("\" type=\"").append(xml(colon > 0 ? message.substring(0, colon) : message))
+                .append("\">").append(xml(trace)).append("</failure>\n");
+            xml.append("  </testcase>\n");
+
+            txt.append(header).append("  Time elapsed: 0 sec  <<< FAILURE!\n");
+            txt.append(trace);
+            if (!trace.endsWith("\n"))
+                txt.append('\n');
+            txt.append('\n');
+        }
+
+        xml.append("</testsuite>\n");
+
+        Files.write(reports.resolve("TEST-" + className + ".xml"), xml.toString().getBytes(ShardWorker.UTF8));
+        Files.write(reports.resolve(className + ".txt"), txt.toString().getBytes(ShardWorker.UTF8));
+    }
+
+    /**
+     * escapes text for an XML attribute or element, dropping the
+     * control characters XML cannot hold
+     */
+    private static String xml(final String text) {
+        final StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); ++i) {
+            final char c = text.charAt(i);
+            switch (c) {
+            case '&':  escaped.append("&amp;");  break;
+            case '<':  escaped.append("&lt;");   break;
+            case '>':  escaped.append("&gt;");   break;
+            case '"':  escaped.append("&quot;"); break;
+            default:
+                if (c >= ' ' || c == '\n' || c == '\t' || c == '\r')
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * splits the units into about jvms shards of a single module each,
+     * longest first.  Every module gets a shard; the rest go to the
+     * modules with the most work per shard.
+     */
+    static List<Shard> shard(final List<Unit> units, final int jvms) {
+        final Map<String, List<Unit>> modules = new LinkedHashMap<>();
+        final Map<String, Long> totals = new HashMap<>();
+        for (final Unit unit : units) {
+            List<Unit> moduleUnits = modules.get(unit.module);
+            if (moduleUnits == null) {
+                moduleUnits = new ArrayList<>();
+                modules.put(unit.module, moduleUnits);
+                totals.put(unit.module, 0L);
+            }
+            moduleUnits.add(unit);
+            totals.put(unit.module, totals.get(unit.module) + unit.millis);
+        }
+
+        final Map<String, Integer> counts = new HashMap<>();
+        for (final String module : modules.keySet())
+            counts.put(module, 1);
+
+        for (int spare = jvms - modules.size(); spare > 0; --spare) {
+            String busiest = null;
+            for (final String module : modules.keySet()) {
+                if (counts.get(module) < modules.get(module).size() &&
+                    (busiest == null ||
+                     totals.get(module) * counts.get(busiest) > totals.get(busiest) * counts.get(module)))
+                    busiest = module;
+            }
+            if (busiest == null)
+                break;
+            counts.put(busiest, counts.get(busiest) + 1);
+        }
+
+        final List<Shard> shards = new ArrayList<>();
+        for (final Map.Entry<String, List<Unit>> module : modules.entrySet()) {
+            shards.addAll(balance(module.getKey(), module.getValue(), counts.get(module.getKey())));
+        }
+
+        Collections.sort(shards, new Comparator<Shard>() {
+                @Override
+                public int compare(final Shard a, final Shard b) {
+                    return Long.compare(b.millis, a.millis);
+                }
+            });
+        return shards;
+    }
+
+    /**
+     * splits a module's units into count shards of about the same
+     * duration, giving each unit, longest first, to the shortest shard
+     * so far
+     */
+    private static List<Shard> balance(final String module, final List<Unit> units, final int count) {
+        final List<Unit> sorted = new ArrayList<>(units);
+        Collections.sort(sorted, new Comparator<Unit>() {
+                @Override
+                public int compare(final Unit a, final Unit b) {
+                    return Long.compare(b.millis, a.millis);
+                }
+            });
+
+        final List<Shard> shards = new ArrayList<>();
+        for (int i = 0; i < count; ++i)
+            shards.add(new Shard(module));
+
+        for (final Unit unit : sorted) {
+            Shard shortest = shards.get(0);
+            for (final Shard shard : shards) {
+                if (shard.millis < shortest.millis)
+                    shortest = shard;
+            }
+            shortest.units.add(unit);
+            shortest.millis += unit.millis;
+        }
+
+        return shards;
+    }
+
+    /**
+     * finds the test classes of every module, the way surefire's
+     * default includes do
+     */
+    private List<Unit> findTests() throws IOException {
+        final List<Unit> units = new ArrayList<>();
+        final Reactor reactor = Reactor.load(new File(job.getPomFile()).toPath());
+
+        testModules.clear();
+
+        for (final Module module : reactor.getModules()) {
+            final Path testClasses = module.getTargetDirectory().resolve("test-classes");
+            final Path classPathFile = module.getDirectory().resolve(Prewarmer.CLASSPATH_FILE);
+
+            if (!Files.isDirectory(testClasses) || !Files.isRegularFile(classPathFile))
+                continue;
+
+            final String dependencies =
+                new String(Files.readAllBytes(classPathFile), ShardWorker.UTF8).trim();
+            testModules.put(module.getName(),
+                            new TestModule(module.getDirectory(),
+                                           module.getTargetDirectory().resolve("surefire-reports"),
+                                           testClasses + File.pathSeparator +
+                                           module.getTargetDirectory().resolve("classes") +
+                                           (dependencies.isEmpty() ? "" : File.pathSeparator + dependencies),
+                                           jvmArguments(module)));
+
+            for (final String className : findTestClasses(testClasses)) {
+                units.add(new Unit(module.getName(), className, estimate(module, className)));
+            }
+        }
+
+        return units;
+    }
+
+    private static List<String> findTestClasses(final Path root) throws IOException {
+        final List<String> classNames = new ArrayList<>();
+
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                    final String name = file.getFileName().toString();
+                    if (name.endsWith(".class") && name.indexOf('$') < 0) {
+                        final String simple = name.substring(0, name.length() - ".class".length());
+                        if (simple.startsWith("Test") || simple.endsWith("Test") ||
+                            simple.endsWith("Tests") || simple.endsWith("TestCase")) {
+                            final String relative = root.relativize(file).toString();
+                            classNames.add(relative
+                                           .substring(0, relative.length() - ".class".length())
+                                           .replace(File.separatorChar, '.'));
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+
+        return classNames;
+    }
+
+    /**
+     * @return how long the test class is expected to take
+     */
+    private long estimate(final Module module, final String className) {
+        final String recorded = times.getProperty(className);
+        if (recorded != null)
+            return Long.parseLong(recorded);
+
+        final Path report = module.getTargetDirectory()
+            .resolve("surefire-reports").resolve("TEST-" + className + ".xml");
+
+        if (Files.isRegularFile(report)) {
+            try (InputStream in = Files.newInputStream(report)) {
+                final byte[] head = new byte[4096];
+                int length = 0;
+                for (int n; length < head.length && (n = in.read(head, length, head.length - length)) > 0; )
+                    length += n;
+
+                final Matcher matcher = SUITE_TIME.matcher(new String(head, 0, length, ShardWorker.UTF8));
+                if (matcher.find()) {
+                    return (long) (Double.parseDouble(matcher.group(1).replace(",", "")) * 1000);
+                }
+            } catch (IOException | NumberFormatException ex) {
+                // no estimate
+            }
+        }
+
+        return DEFAULT_MILLIS;
+    }
+
+    /**
+     * returns the JVM arguments surefire would fork the module's tests
+     * with: its argLine and systemPropertyVariables, as the module or
+     * the nearest parent on disk configures them, with pom properties
+     * resolved
+     */
+    static List<String> jvmArguments(final Module module) throws IOException {
+        final Map<String, String> properties = new HashMap<>();
+        final Map<String, String> systemProperties = new LinkedHashMap<>();
+        String argLine = null;
+
+        for (Path pom = module.getPomFile(); pom != null; pom = Reactor.parentPom(pom)) {
+            final Element project = Reactor.parse(pom);
+
+            for (final Element property : elements(Reactor.child(project, "properties"))) {
+                if (!properties.containsKey(property.getNodeName()))
+                    properties.put(property.getNodeName(), Reactor.text(property));
+            }
+
+            final Element build = Reactor.child(project, "build");
+            for (final Element plugins : Arrays.asList(Reactor.child(build, "plugins"),
+                                                       Reactor.child(Reactor.child(build, "pluginManagement"), "plugins"))) {
+                for (final Element plugin : Reactor.children(plugins, "plugin")) {
+                    if (!Reactor.text(Reactor.child(plugin, "artifactId")).equals(SUREFIRE))
+                        continue;
+
+                    final Element configuration = Reactor.child(plugin, "configuration");
+                    final Element line = Reactor.child(configuration, "argLine");
+                    if (argLine == null && line != null)
+                        argLine = Reactor.text(line);
+
+                    for (final Element variable : elements(Reactor.child(configuration, "systemPropertyVariables"))) {
+                        if (!systemProperties.containsKey(variable.getNodeName()))
+                            systemProperties.put(variable.getNodeName(), Reactor.text(variable));
+                    }
+                }
+            }
+        }
+
+        properties.put("basedir", module.getDirectory().toString());
+        properties.put("project.basedir", module.getDirectory().toString());
+        properties.put("project.build.directory", module.getTargetDirectory().toString());
+
+        final List<String> arguments = new ArrayList<>();
+        if (argLine != null)
+            arguments.addAll(splitArguments(interpolate(argLine, properties)));
+
+        arguments.add("-Dbasedir=" + module.getDirectory());
+        for (final Map.Entry<String, String> variable : systemProperties.entrySet()) {
+            arguments.add("-D" + variable.getKey() + "=" + interpolate(variable.getValue(), properties));
+        }
+        return arguments;
+    }
+
+    /**
+     * replaces ${name} and @{name} with the property's value; unknown
+     * properties, such as those set by other plugins during the build,
+     * become empty
+     */
+    static String interpolate(final String text, final Map<String, String> properties) {
+        final StringBuffer result = new StringBuffer();
+        final Matcher matcher = PROPERTY.matcher(text);
+        while (matcher.find()) {
+            final String value = properties.get(matcher.group(1));
+            matcher.appendReplacement(result, Matcher.quoteReplacement(value != null ? value : ""));
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
+
+    /**
+     * splits a command line at whitespace outside double quotes
+     */
+    static List<String> splitArguments(final String line) {
+        final List<String> arguments = new ArrayList<>();
+        final StringBuilder argument = new StringBuilder();
+        boolean quoted = false;
+        boolean any = false;
+
+        for (int i = 0; i < line.length(); ++i) {
+            final char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                any = true;
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (any)
+                    arguments.add(argument.toString());
+                argument.setLength(0);
+                any = false;
+            } else {
+                argument.append(c);
+                any = true;
+            }
+        }
+        if (any)
+            arguments.add(argument.toString());
+        return arguments;
+    }
+
+    private static List<Element> elements(final Element parent) {
+        final List<Element> elements = new ArrayList<>();
+        if (parent == null)
+            return elements;
+
+        final NodeList nodes = parent.getChildNodes();
+        for (int i = 0; i < nodes.getLength(); ++i) {
+            if (nodes.item(i) instanceof Element)
+                elements.add((Element) nodes.item(i));
+        }
+        return elements;
+    }
+
+    private Process startWorker(final TestModule module, final int port, final int index) throws IOException {
+        String javaHome = job.getJavaHome();
+        if (javaHome == null)
+            javaHome = System.getProperty("java.home");
+
+        final List<String> command = new ArrayList<>();
+        command.add(Paths.get(javaHome, "bin", "java").toString());
+        command.addAll(module.jvmArguments);
+        command.add("-cp");
+        command.add(ownClassPath());
+        command.add(ShardWorker.class.getName());
+        command.add(bind);
+        command.add(String.valueOf(port));
+
+        // tests find their files relative to the module, as under surefire
+        final ProcessBuilder builder = new ProcessBuilder(command).directory(module.directory.toFile());
+
+        // the tests' own output is kept out of the build output
+        final File log = timesFile.resolveSibling("worker-" + index + ".log").toFile();
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(log);
+
+        final Process process = builder.start();
+        final OutputStream stdin = process.getOutputStream();
+        stdin.close();
+        return process;
+    }
+
+    private static String ownClassPath() throws IOException {
+        try {
+            return Paths.get(ShardWorker.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+                .toString();
+        } catch (URISyntaxException ex) {
+            throw new IOException("cannot locate mvn8r's classes", ex);
+        }
+    }
+
+    private void loadTimes() throws IOException {
+        times.clear();
+        Files.createDirectories(timesFile.getParent());
+        if (Files.isRegularFile(timesFile)) {
+            try (InputStream in = Files.newInputStream(timesFile)) {
+                times.load(in);
+            }
+        }
+    }
+
+    private synchronized void saveTimes() throws IOException {
+        final Path temporary = timesFile.resolveSibling(timesFile.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temporary)) {
+            times.store(out, "test class durations in milliseconds");
+        }
+        Files.move(temporary, timesFile,
+                   StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,189 @@
+package com.timjstewart;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * runs test classes for a ShardCoordinator.
+ *
+ * A worker connects to the coordinator and then answers commands,
+ * one per line, fields separated by tabs:
+ *
+ *   CLASSPATH id path   defines the class path of a module
+ *   RUN id class        runs a test class with JUnit 4 and replies with
+ *                       a FAILURE line per failed test, then
+ *                       RESULT class run failed ignored millis
+ *   QUIT                ends the session
+ *
+ * Each module's classes are loaded by their own class loader, so one
+ * worker can run tests from every module.  Fields are escaped with
+ * ShardWorker.escape().
+ */
+public class ShardWorker {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final Map<String, ClassLoader> loaders = new HashMap<>();
+
+    /**
+     * usage: ShardWorker HOST PORT
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: ShardWorker HOST PORT");
+            System.exit(1);
+        }
+
+        try (Socket socket = new Socket(args[0], Integer.parseInt(args[1]))) {
+            final BufferedReader in =
+                new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF8));
+            final Writer out =
+                new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), UTF8));
+
+            new ShardWorker().serve(in, out);
+        }
+
+        // tests may have left non-daemon threads behind
+        System.exit(0);
+    }
+
+    private void serve(final BufferedReader in, final Writer out) throws IOException {
+        String line;
+
+        while ((line = in.readLine()) != null) {
+            final String[] fields = line.split("\t");
+
+            switch (fields[0]) {
+            case "CLASSPATH":
+                loaders.put(fields[1], createLoader(unescape(fields[2])));
+                break;
+            case "RUN":
+                run(loaders.get(fields[1]), fields[2], out);
+                out.flush();
+                break;
+            case "QUIT":
+                return;
+            default:
+                throw new IOException("unknown command: " + fields[0]);
+            }
+        }
+    }
+
+    private void run(final ClassLoader loader, final String className, final Writer out)
+        throws IOException {
+
+        final long started = System.currentTimeMillis();
+        final Thread thread = Thread.currentThread();
+        final ClassLoader previous = thread.getContextClassLoader();
+
+        int run = 0;
+        int failed = 0;
+        int ignored = 0;
+
+        try {
+            thread.setContextClassLoader(loader);
+
+            final Class<?> testClass = Class.forName(className, false, loader);
+
+            if (!Modifier.isAbstract(testClass.getModifiers())) {
+                final Class<?> core = Class.forName("org.junit.runner.JUnitCore", true, loader);
+                final Object result = core.getMethod("runClasses", Class[].class)
+                    .invoke(null, (Object) new Class<?>[] { testClass });
+
+                run = (Integer) invoke(result, "getRunCount");
+                failed = (Integer) invoke(result, "getFailureCount");
+                ignored = (Integer) invoke(result, "getIgnoreCount");
+
+                for (final Object failure : (List<?>) invoke(result, "getFailures")) {
+                    send(out, "FAILURE", className,
+                         (String) invoke(failure, "getTestHeader"),
+                         (String) invoke(failure, "getTrace"));
+                }
+            }
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException ex) {
+            final Throwable cause = ex instanceof InvocationTargetException ? ex.getCause() : ex;
+            final StringWriter trace = new StringWriter();
+            cause.printStackTrace(new PrintWriter(trace));
+
+            run += 1;
+            failed += 1;
+            send(out, "FAILURE", className, className, trace.toString());
+        } finally {
+            thread.setContextClassLoader(previous);
+        }
+
+        send(out, "RESULT", className,
+             String.valueOf(run),
+             String.valueOf(failed),
+             String.valueOf(ignored),
+             String.valueOf(System.currentTimeMillis() - started));
+    }
+
+    private static Object invoke(final Object target, final String name)
+        throws ReflectiveOperationException {
+        final Method method = target.getClass().getMethod(name);
+        method.setAccessible(true);
+        return method.invoke(target);
+    }
+
+    private static ClassLoader createLoader(final String classPath) throws IOException {
+        final String[] entries = classPath.split(File.pathSeparator);
+        final URL[] urls = new URL[entries.length];
+        for (int i = 0; i < entries.length; ++i) {
+            urls[i] = new File(entries[i]).toURI().toURL();
+        }
+        // the worker's own classes stay out of the tests' way
+        return new URLClassLoader(urls, ClassLoader.getSystemClassLoader().getParent());
+    }
+
+    /**
+     * writes one protocol line
+     */
+    static void send(final Writer out, final String... fields) throws IOException {
+        for (int i = 0; i < fields.length; ++i) {
+            if (i > 0)
+                out.write('\t');
+            out.write(escape(fields[i]));
+        }
+        out.write('\n');
+    }
+
+    /**
+     * escapes backslashes, tabs and line breaks so a field fits on a
+     * line
+     */
+    static String escape(final String field) {
+        return field.replace("\\", "\\\\").replace("\t", "\\t").replace("\r", "").replace("\n", "\\n");
+    }
+
+    static String unescape(final String field) {
+        final StringBuilder text = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); ++i) {
+            final char c = field.charAt(i);
+            if (c == '\\' && i + 1 < field.length()) {
+                final char next = field.charAt(++i);
+                text.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+            } else {
+                text.append(c);
+            }
+        }
+        return text.toString();
+    }
+}
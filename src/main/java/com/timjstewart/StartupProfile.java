@@ -0,0 +1,281 @@
+package com.timjstewart;
+
+import org.fusesource.jansi.AnsiConsole;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.fusesource.jansi.Ansi.Color.*;
+import static org.fusesource.jansi.Ansi.ansi;
+
+/**
+ * JVM options that make the forked maven start faster.
+ *
+ * On top of the configured startup.opts (tiered compilation and
+ * heap sizing) a class data sharing archive is kept for every maven
+ * and JDK version pair.  The first build with a new pair records the
+ * archive at exit (-XX:ArchiveClassesAtExit, JDK 13 and later); later
+ * builds map it (-XX:SharedArchiveFile).  Archives for other versions
+ * are deleted when a new one is recorded.  Once an archive exists the
+ * cold and tuned launch times of "mvn -v" are measured, on a
+ * background thread so the next build need not wait, and reported.
+ *
+ * The versions are read from the JDK's release file and maven's lib
+ * directory only when either of them has changed.
+ */
+class StartupProfile {
+
+    private static final String DEFAULT_OPTS =
+        "-XX:+TieredCompilation -XX:TieredStopAtLevel=1 -Xms256m";
+
+    private static final Pattern JAVA_VERSION = Pattern.compile("JAVA_VERSION=\"([0-9]+)([^\"]*)\"");
+
+    private static final Pattern MAVEN_CORE = Pattern.compile("maven-core-(.+)\\.jar");
+
+    private final File mavenHome;
+
+    private final String javaHome;
+
+    private final String opts;
+
+    private final Path directory;
+
+    /**
+     * the archive whose launch times were reported last
+     */
+    private Path reported;
+
+    /**
+     * what the archive was last worked out from (see stamp()), and the
+     * archive
+     */
+    private String stamp;
+
+    private Path archive;
+
+    StartupProfile(final File mavenHome,
+                   final String javaHome,
+                   final String opts,
+                   final Path directory) {
+        this.mavenHome = mavenHome;
+        this.javaHome = javaHome;
+        this.opts = opts;
+        this.directory = directory;
+    }
+
+    /**
+     * returns a StartupProfile configured by the startup.* properties,
+     * or null if startup tuning is turned off
+     */
+    static StartupProfile create(final Job job, final Properties properties) {
+        if (!Boolean.parseBoolean(properties.getProperty("startup.profile", "false")))
+            return null;
+
+        String javaHome = job.getJavaHome();
+        if (javaHome == null)
+            javaHome = System.getenv("JAVA_HOME");
+        if (javaHome == null)
+            javaHome = System.getProperty("java.home");
+
+        return new StartupProfile(new File(properties.getProperty("maven.home")),
+                                  javaHome,
+                                  properties.getProperty("startup.opts", DEFAULT_OPTS),
+                                  Paths.get(System.getProperty("user.home"), ".mvn8r", "cds"));
+    }
+
+    /**
+     * returns the MAVEN_OPTS the next build should run with
+     */
+    String getMavenOpts() {
+        final StringBuilder mavenOpts = new StringBuilder();
+
+        final String inherited = System.getenv("MAVEN_OPTS");
+        if (inherited != null && !inherited.trim().isEmpty())
+            mavenOpts.append(inherited.trim()).append(' ');
+
+        mavenOpts.append(opts);
+
+        final Path archive = getArchive();
+        if (archive != null) {
+            if (Files.isRegularFile(archive)) {
+                mavenOpts.append(" -XX:SharedArchiveFile=").append(archive).append(" -Xshare:auto");
+            } else {
+                mavenOpts.append(" -XX:ArchiveClassesAtExit=").append(archive);
+            }
+        }
+
+        return mavenOpts.toString();
+    }
+
+    /**
+     * called after every build; the first time an archive is found
+     * for the current versions, removes archives of other versions and
+     * reports launch times in the background
+     */
+    void afterBuild() {
+        final Path current = getArchive();
+
+        if (current == null || current.equals(reported) || !Files.isRegularFile(current))
+            return;
+
+        reported = current;
+
+        final Thread profiler = new Thread("StartupProfile") {
+                @Override
+                public void run() {
+                    profile(current);
+                }
+            };
+        profiler.setDaemon(true);
+        profiler.start();
+    }
+
+    private void profile(final Path current) {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "maven-*.jsa")) {
+            for (final Path stale : stream) {
+                if (!stale.equals(current))
+                    Files.deleteIfExists(stale);
+            }
+        } catch (IOException ex) {
+            System.err.println("Could not remove old class data archives: " + ex.getMessage());
+        }
+
+        final long cold = timeLaunch(null);
+        final long tuned = timeLaunch(getMavenOpts());
+
+        if (cold >= 0 && tuned >= 0) {
+            AnsiConsole.out.println(ansi()
+                                    .fg(BLUE).a("=> ")
+                                    .fg(WHITE).a(String.format("Maven launch: cold %d ms, tuned %d ms",
+                                                               cold, tuned))
+                                    .reset());
+        }
+    }
+
+    /**
+     * returns the archive for the current maven and JDK versions, or
+     * null if the JDK cannot record one
+     */
+    private synchronized Path getArchive() {
+        final String now = stamp();
+        if (now.equals(stamp))
+            return archive;
+
+        final String[] jdk = readJavaVersion();
+
+        archive = jdk == null || Integer.parseInt(jdk[0]) < 13
+            ? null
+            : directory.resolve(String.format("maven-%s-jdk-%s%s.jsa",
+                                              readMavenVersion(), jdk[0], jdk[1]));
+        stamp = now;
+        return archive;
+    }
+
+    /**
+     * returns where the JDK's release file and maven's lib directory
+     * really are and when they last changed; an upgrade changes at
+     * least one of them
+     */
+    private String stamp() {
+        final StringBuilder stamp = new StringBuilder();
+        for (final Path path : new Path[] { Paths.get(javaHome, "release"),
+                                            new File(mavenHome, "lib").toPath() }) {
+            try {
+                stamp.append(path.toRealPath()).append('@')
+                    .append(Files.getLastModifiedTime(path).toMillis()).append(';');
+            } catch (IOException ex) {
+                stamp.append(path).append("@-;");
+            }
+        }
+        return stamp.toString();
+    }
+
+    /**
+     * returns the major version and the rest of the version of the
+     * JDK maven runs on, or null if it cannot be determined
+     */
+    private String[] readJavaVersion() {
+        final Path release = Paths.get(javaHome, "release");
+
+        try {
+            final Matcher matcher =
+                JAVA_VERSION.matcher(new String(Files.readAllBytes(release), Charset.forName("UTF-8")));
+            if (matcher.find()) {
+                return new String[] { matcher.group(1), matcher.group(2) };
+            }
+        } catch (IOException ex) {
+            // not a JDK layout we know
+        }
+        return null;
+    }
+
+    private String readMavenVersion() {
+        final File[] jars = new File(mavenHome, "lib").listFiles();
+
+        if (jars != null) {
+            for (final File jar : jars) {
+                final Matcher matcher = MAVEN_CORE.matcher(jar.getName());
+                if (matcher.matches())
+                    return matcher.group(1);
+            }
+        }
+        return "unknown";
+    }
+
+    /**
+     * returns the best of three wall times of "mvn -v" with the given
+     * MAVEN_OPTS, or -1 if maven could not be run
+     */
+    private long timeLaunch(final String mavenOpts) {
+        final boolean windows = System.getProperty("os.name").startsWith("Windows");
+        final List<String> command = new ArrayList<>(Arrays.asList(
+            new File(new File(mavenHome, "bin"), windows ? "mvn.cmd" : "mvn").getAbsolutePath(),
+            "-v"));
+
+        long best = Long.MAX_VALUE;
+
+        for (int i = 0; i < 3; ++i) {
+            final ProcessBuilder builder = new ProcessBuilder(command).redirectErrorStream(true);
+            builder.environment().put("JAVA_HOME", javaHome);
+            if (mavenOpts == null) {
+                builder.environment().remove("MAVEN_OPTS");
+            } else {
+                builder.environment().put("MAVEN_OPTS", mavenOpts);
+            }
+
+            try {
+                final long started = System.nanoTime();
+                final Process process = builder.start();
+                drain(process.getInputStream());
+                if (process.waitFor() != 0)
+                    return -1;
+                best = Math.min(best, (System.nanoTime() - started) / 1000000);
+            } catch (IOException ex) {
+                return -1;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return -1;
+            }
+        }
+        return best;
+    }
+
+    private static void drain(final InputStream in) throws IOException {
+        final byte[] buffer = new byte[8192];
+        while (in.read(buffer) >= 0) {
+            // discard
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.timjstewart;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * picks maven's -T value for each build when threads.spec is "auto".
+ *
+ * The upper bound comes from the machine before each build: cores
+ * that are not already busy (according to the load average) and how
+ * many threads the available memory can support.  The one minute
+ * load average goes on counting a build for a while after it ended,
+ * so within a minute of mvn8r's own last build the load sampled
+ * before it is used instead.  Below that bound the wall time of earlier full builds run with
+ * each thread count is remembered per job, and the tuner hill-climbs
+ * towards the fastest one, trying untested neighbours of the current
+ * best before settling on it.
+ */
+class ThreadTuner {
+
+    static final String AUTO = "auto";
+
+    /**
+     * builds a thread count needs before its mean is trusted
+     */
+    private static final int MIN_SAMPLES = 2;
+
+    /**
+     * weight of the newest wall time in the running mean; lets the
+     * tuner follow a project that gets faster or slower over time
+     */
+    private static final double ALPHA = 0.3;
+
+    /**
+     * how long a build goes on raising the load average
+     */
+    private static final long LOAD_WINDOW_MILLIS = 60 * 1000;
+
+    private final Path historyFile;
+
+    private final int cores;
+
+    private final long memoryPerThread;
+
+    private final Properties history = new Properties();
+
+    /**
+     * the last load average sampled while mvn8r's builds did not
+     * count towards it, or -1
+     */
+    private double load = -1;
+
+    private long lastBuildFinished = 0;
+
+    ThreadTuner(final Path historyFile, final int cores, final long memoryPerThread) {
+        this.historyFile = historyFile;
+        this.cores = cores;
+        this.memoryPerThread = memoryPerThread;
+
+        if (Files.isRegularFile(historyFile)) {
+            try (InputStream in = Files.newInputStream(historyFile)) {
+                history.load(in);
+            } catch (IOException ex) {
+                System.err.println("Could not read thread history: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * returns a ThreadTuner for the job if its threads.spec is "auto",
+     * or null
+     */
+    static ThreadTuner create(final Job job, final Properties properties) {
+        if (!AUTO.equals(job.getThreadsSpec()))
+            return null;
+
+        final String key = TreeHasher.hashStrings(Arrays.asList(
+            new File(job.getPomFile()).getAbsolutePath(),
+            Arrays.toString(job.getTasks())));
+
+        final Path historyFile =
+            Paths.get(System.getProperty("user.home"), ".mvn8r", "threads", key + ".properties");
+
+        final long memoryPerThread =
+            Long.parseLong(properties.getProperty("threads.memory.mb", "512")) * 1024 * 1024;
+
+        return new ThreadTuner(historyFile, Runtime.getRuntime().availableProcessors(), memoryPerThread);
+    }
+
+    /**
+     * returns the number of threads the next build should use
+     */
+    synchronized int choose() {
+        final int ceiling = ceiling();
+
+        // make sure the extremes and the middle have been measured
+        for (final int threads : new int[] { ceiling, Math.max(1, ceiling / 2), 1 }) {
+            if (samples(threads) < MIN_SAMPLES)
+                return threads;
+        }
+
+        int best = 1;
+        for (int threads = 1; threads <= ceiling; ++threads) {
+            if (samples(threads) >= MIN_SAMPLES && mean(threads) < mean(best))
+                best = threads;
+        }
+
+        // explore next to the best before trusting it
+        for (final int threads : new int[] { best - 1, best + 1 }) {
+            if (threads >= 1 && threads <= ceiling && samples(threads) < MIN_SAMPLES)
+                return threads;
+        }
+
+        return best;
+    }
+
+    /**
+     * notes that a build, whatever its outcome, has just finished
+     */
+    synchronized void buildFinished() {
+        lastBuildFinished = System.currentTimeMillis();
+    }
+
+    /**
+     * records how long a build with the given number of threads took.
+     * Only builds of the whole reactor are comparable with each other.
+     */
+    synchronized void record(final int threads, final long millis) {
+        final int samples = samples(threads);
+        final double mean = samples == 0
+            ? millis
+            : (1 - ALPHA) * mean(threads) + ALPHA * millis;
+
+        history.setProperty(threads + ".samples", String.valueOf(samples + 1));
+        history.setProperty(threads + ".mean", String.valueOf(mean));
+
+        try {
+            Files.createDirectories(historyFile.getParent());
+            try (OutputStream out = Files.newOutputStream(historyFile)) {
+                history.store(out, "mvn8r build wall times by thread count");
+            }
+        } catch (IOException ex) {
+            System.err.println("Could not save thread history: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * returns the most threads the machine can currently spare
+     */
+    private int ceiling() {
+        int ceiling = cores;
+
+        if (System.currentTimeMillis() >= lastBuildFinished + LOAD_WINDOW_MILLIS) {
+            load = loadAverage();
+        }
+
+        if (load >= 0) {
+            ceiling = Math.min(ceiling, (int) Math.round(cores - load));
+        }
+
+        final long available = availableMemory();
+        if (available >= 0) {
+            ceiling = (int) Math.min(ceiling, available / memoryPerThread);
+        }
+
+        return Math.max(1, ceiling);
+    }
+
+    /**
+     * returns the one minute system load average, or -1 where it is
+     * not available
+     */
+    double loadAverage() {
+        return ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage();
+    }
+
+    /**
+     * returns the memory that can be used without swapping, page cache
+     * included (MemAvailable), or -1 where /proc/meminfo does not tell
+     */
+    long availableMemory() {
+        final Path meminfo = Paths.get("/proc/meminfo");
+        if (!Files.isReadable(meminfo))
+            return -1;
+
+        try {
+            for (final String line : Files.readAllLines(meminfo, Charset.forName("US-ASCII"))) {
+                if (line.startsWith("MemAvailable:")) {
+                    final String[] fields = line.substring("MemAvailable:".length()).trim().split(" +");
+                    return Long.parseLong(fields[0]) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException ex) {
+            // no memory bound then
+        }
+        return -1;
+    }
+
+    private int samples(final int threads) {
+        return Integer.parseInt(history.getProperty(threads + ".samples", "0"));
+    }
+
+    private double mean(final int threads) {
+        return Double.parseDouble(history.getProperty(threads + ".mean", "Infinity"));
+    }
+}
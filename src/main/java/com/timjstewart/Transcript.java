@@ -0,0 +1,54 @@
+package com.timjstewart;
+
+import org.fusesource.jansi.AnsiConsole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * prints a build's filtered output to the console and keeps a copy of
+ * every line so that the build can be replayed later
+ */
+class Transcript {
+
+    private final List<String> lines = new ArrayList<>();
+
+    /**
+     * false to only record lines, e.g. while several builds run at
+     * once
+     */
+    private final boolean echo;
+
+    Transcript() {
+        this(true);
+    }
+
+    Transcript(final boolean echo) {
+        this.echo = echo;
+    }
+
+    /**
+     * prints the line and records it
+     */
+    synchronized void println(final Object line) {
+        final String text = String.valueOf(line);
+        if (echo)
+            AnsiConsole.out.println(text);
+        lines.add(text);
+    }
+
+    /**
+     * prints an empty line and records it
+     */
+    void println() {
+        println("");
+    }
+
+    /**
+     * returns the lines printed so far
+     */
+    synchronized List<String> getLines() {
+        return Collections.unmodifiableList(new ArrayList<>(lines));
+    }
+}
@@ -0,0 +1,161 @@
+package com.timjstewart;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * computes content hashes of files and directory trees.  The digest
+ * of every file is remembered along with its size and modification
+ * time so that re-hashing a large tree after a small edit only reads
+ * the files that actually changed.
+ */
+class TreeHasher {
+
+    /**
+     * decides which directories and files take part in a tree hash
+     */
+    interface Filter {
+        boolean acceptDirectory(Path directory);
+        boolean acceptFile(Path file);
+    }
+
+    /**
+     * skips build output and hidden directories (.git, .idea, ...)
+     */
+    static final Filter SOURCES = new Filter() {
+            @Override
+            public boolean acceptDirectory(final Path directory) {
+                final String name = directory.getFileName().toString();
+                return !name.equals("target") && !name.startsWith(".");
+            }
+
+            @Override
+            public boolean acceptFile(final Path file) {
+                return !file.getFileName().toString().startsWith(".");
+            }
+        };
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final class Entry {
+        final long size;
+        final long modified;
+        final String digest;
+
+        Entry(final long size, final long modified, final String digest) {
+            this.size = size;
+            this.modified = modified;
+            this.digest = digest;
+        }
+    }
+
+    private final Map<Path, Entry> entries = new HashMap<>();
+
+    /**
+     * returns the digest of a single file's contents
+     */
+    synchronized String hashFile(final Path file) throws IOException {
+        final BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        final long modified = attrs.lastModifiedTime().toMillis();
+
+        final Entry entry = entries.get(file);
+        if (entry != null && entry.size == attrs.size() && entry.modified == modified) {
+            return entry.digest;
+        }
+
+        final MessageDigest digest = newDigest();
+        final byte[] buffer = new byte[64 * 1024];
+
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+
+        final String result = hex(digest.digest());
+        entries.put(file, new Entry(attrs.size(), modified, result));
+        return result;
+    }
+
+    /**
+     * returns a digest of the relative paths and contents of every
+     * file under root that the filter accepts
+     */
+    String hashTree(final Path root, final Filter filter) throws IOException {
+        final List<Path> files = new ArrayList<>();
+
+        if (Files.isDirectory(root)) {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(final Path dir,
+                                                             final BasicFileAttributes attrs) {
+                        if (!dir.equals(root) && !filter.acceptDirectory(dir))
+                            return FileVisitResult.SKIP_SUBTREE;
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(final Path file,
+                                                     final BasicFileAttributes attrs) {
+                        if (attrs.isRegularFile() && filter.acceptFile(file))
+                            files.add(file);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+        }
+
+        Collections.sort(files);
+
+        final MessageDigest digest = newDigest();
+        for (final Path file : files) {
+            digest.update(root.relativize(file).toString().getBytes(UTF8));
+            digest.update((byte) 0);
+            digest.update(hashFile(file).getBytes(UTF8));
+            digest.update((byte) '\n');
+        }
+        return hex(digest.digest());
+    }
+
+    /**
+     * returns the digest of the given strings
+     */
+    static String hashStrings(final Iterable<String> strings) {
+        final MessageDigest digest = newDigest();
+        for (final String s : strings) {
+            digest.update(s.getBytes(UTF8));
+            digest.update((byte) '\n');
+        }
+        return hex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-1 is not available", ex);
+        }
+    }
+
+    static String hex(final byte[] bytes) {
+        final StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (final byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -35,58 +35,182 @@ import com.sun.nio.file.SensitivityWatchEventModifier;
 
 import org.fusesource.jansi.AnsiConsole;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystems;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
 
 import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
 import static java.nio.file.StandardWatchEventKinds.*;
 import static org.fusesource.jansi.Ansi.Color.*;
 import static org.fusesource.jansi.Ansi.ansi;
 
+/**
+ * watches a project for changes that require a build.
+ *
+ * Only the given trees (the modules' source, resource and test roots)
+ * and the directories leading to them (where the poms live) are
+ * watched.  On Linux every watched directory costs an inotify watch;
+ * once the budget of watches is used up, the directories that have
+ * gone longest without a change are dropped from the WatchService and
+ * polled every few seconds instead.  A polled directory that changes
+ * is watched again.  When a pom changes the trees are looked up
+ * again, so new modules and source roots are watched and ones that
+ * went away are released.
+ */
 class WatchDir {
 
+    /**
+     * how often polled directories are scanned by default
+     */
+    static final long DEFAULT_POLL_MILLIS = 5000;
+
     public interface Handler {
         void onChange(final String[] changedFiles);
     }
 
+    /**
+     * finds the trees to watch
+     */
+    public interface Trees {
+        List<Path> find() throws IOException;
+    }
+
     private final WatchService watcher;
 
     private final Map<WatchKey, Path> keys;
 
+    /**
+     * the watched directories, least recently changed first
+     */
+    private final LinkedHashMap<Path, WatchKey> watched = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * the polled directories, with a fingerprint of each of their
+     * entries
+     */
+    private final Map<Path, Map<String, Long>> polled = new HashMap<>();
+
+    /**
+     * the directory the trees are watched from
+     */
+    private final Path root;
+
+    /**
+     * the directories whose whole subtree is watched
+     */
+    private final List<Path> trees;
+
+    /**
+     * looks up the trees again after a pom changed, or null
+     */
+    private volatile Trees treeFinder;
+
+    /**
+     * true when a pom changed since the trees were last looked up
+     */
+    private boolean pomChanged = false;
+
+    /**
+     * the most directories to watch at once
+     */
+    private final int budget;
+
+    private final long pollMillis;
+
+    private volatile int watchedCount;
+
+    /**
+     * how often the WatchService dropped events
+     */
+    private volatile int overflows;
+
+    private volatile int polledCount;
+
     private boolean trace = false;
 
     private final Set<String> changedFiles = new ConcurrentSkipListSet<>();
 
+    /**
+     * takes changes to resources, if they are synced without maven
+     */
+    private volatile ResourceSync resources;
+
+    /**
+     * takes every change, if builds run in mirrors of the project
+     */
+    private volatile MatrixBuild matrix;
+
+    /**
+     * reported in place of file names when the WatchService dropped
+     * events and the exact set of changes is unknown
+     */
+    static final String OVERFLOW_MARKER = "<watch events overflowed>";
+
+    /**
+     * the (optional) monitor of the enclosing git repository
+     */
+    private final GitMonitor git;
+
+    /**
+     * true while a batch is being held back for git
+     */
+    private boolean waitingForGit = false;
+
     @SuppressWarnings("unchecked")
     static <T> WatchEvent<T> cast(WatchEvent<?> event) {
         return (WatchEvent<T>) event;
     }
 
     /**
-     * Register the given directory with the WatchService
+     * Register the given directory with the WatchService, making room
+     * by polling the coldest watched directory if the budget is used
+     * up.  If the kernel runs out of watches first, the directory is
+     * polled itself.
      */
     private void register(Path dir) throws IOException {
-        WatchKey key = dir.register(
-            watcher,
-            new WatchEvent.Kind[] {
-                ENTRY_MODIFY, ENTRY_DELETE, ENTRY_MODIFY
-            },
-            SensitivityWatchEventModifier.HIGH);
+        while (watched.size() >= budget && demoteColdest()) {
+            // made room
+        }
+
+        WatchKey key;
+        try {
+            key = registerKey(dir);
+        } catch (IOException ex) {
+            if (!demoteColdest())
+                throw ex;
+            try {
+                key = registerKey(dir);
+            } catch (IOException again) {
+                polled.put(dir, snapshot(dir));
+                updateCounts();
+                return;
+            }
+        }
 
         if (trace) {
             Path prev = keys.get(key);
@@ -97,17 +221,308 @@ class WatchDir {
             }
         }
         keys.put(key, dir);
+        watched.put(dir, key);
+        updateCounts();
+    }
+
+    private WatchKey registerKey(final Path dir) throws IOException {
+        return dir.register(
+            watcher,
+            new WatchEvent.Kind[] {
+                ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY
+            },
+            SensitivityWatchEventModifier.HIGH);
+    }
+
+    /**
+     * moves the least recently changed directory from the
+     * WatchService to polling
+     *
+     * @return false if there is no directory that could be moved
+     */
+    private boolean demoteColdest() {
+        final Iterator<Map.Entry<Path, WatchKey>> entries = watched.entrySet().iterator();
+
+        while (entries.hasNext()) {
+            final Map.Entry<Path, WatchKey> entry = entries.next();
+            if (git != null && entry.getKey().equals(git.getGitDirectory()))
+                continue;
+
+            entries.remove();
+            entry.getValue().cancel();
+            keys.remove(entry.getValue());
+            polled.put(entry.getKey(), snapshot(entry.getKey()));
+            updateCounts();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * scans the polled directories; ones that changed are reported
+     * and watched again
+     */
+    private void pollAll() {
+        for (final Path dir : new ArrayList<>(polled.keySet())) {
+            if (!Files.isDirectory(dir, NOFOLLOW_LINKS)) {
+                polled.remove(dir);
+                continue;
+            }
+
+            final Map<String, Long> before = polled.get(dir);
+            final Map<String, Long> after = snapshot(dir);
+            boolean changed = false;
+
+            for (final Map.Entry<String, Long> entry : after.entrySet()) {
+                final Long previous = before.get(entry.getKey());
+                if (previous == null || !previous.equals(entry.getValue())) {
+                    changed = true;
+                    onEntryChanged(dir.resolve(entry.getKey()), previous == null);
+                }
+            }
+            for (final String name : before.keySet()) {
+                if (!after.containsKey(name)) {
+                    changed = true;
+                    onEntryChanged(dir.resolve(name), false);
+                }
+            }
+
+            if (changed) {
+                polled.remove(dir);
+                try {
+                    register(dir);
+                } catch (IOException ex) {
+                    polled.put(dir, after);
+                }
+            } else {
+                polled.put(dir, after);
+            }
+        }
+        updateCounts();
+    }
+
+    private void onEntryChanged(final Path child, final boolean created) {
+        collect(child);
+
+        if (created && Files.isDirectory(child, NOFOLLOW_LINKS)) {
+            try {
+                registerAll(child, true);
+            } catch (IOException x) {
+            }
+        }
+    }
+
+    /**
+     * notes a changed file: one that requires a build is reported to
+     * the handler, a resource goes to the ResourceSync (if any)
+     */
+    private void collect(final Path file) {
+        final MatrixBuild mirroring = matrix;
+        if (mirroring != null) {
+            mirroring.changed(file);
+        }
+
+        if (fileRequiresBuild(file)) {
+            if (file.getFileName().toString().equals("pom.xml"))
+                pomChanged = true;
+            changedFiles.add(file.getFileName().toString());
+        } else {
+            final ResourceSync syncing = resources;
+            if (syncing != null) {
+                syncing.changed(file);
+            }
+        }
+    }
+
+    /**
+     * @return a fingerprint of every entry of dir that changes when a
+     * file is written
+     */
+    private static Map<String, Long> snapshot(final Path dir) {
+        final Map<String, Long> entries = new HashMap<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (final Path entry : stream) {
+                final BasicFileAttributes attrs =
+                    Files.readAttributes(entry, BasicFileAttributes.class, NOFOLLOW_LINKS);
+                // a subdirectory's own watch or poll covers its contents
+                entries.put(entry.getFileName().toString(),
+                            attrs.isDirectory()
+                            ? -1L
+                            : attrs.lastModifiedTime().toMillis() * 31 + attrs.size());
+            }
+        } catch (IOException ex) {
+            // gone or unreadable; treat as empty
+        }
+
+        return entries;
+    }
+
+    private void updateCounts() {
+        watchedCount = watched.size();
+        polledCount = polled.size();
+    }
+
+    /**
+     * @return true iff dir is inside one of the trees or on the way
+     * to one
+     */
+    private boolean isWatchable(final Path dir) {
+        for (final Path tree : trees) {
+            if (dir.startsWith(tree) || tree.startsWith(dir))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return how often the WatchService dropped events so far
+     */
+    int getOverflowCount() {
+        return overflows;
+    }
+
+    /**
+     * hands changes to resources to sync instead of ignoring them
+     */
+    void syncResourcesWith(final ResourceSync sync) {
+        this.resources = sync;
+    }
+
+    /**
+     * hands every change to matrix, which mirrors them before its
+     * builds
+     */
+    void mirrorChangesTo(final MatrixBuild matrix) {
+        this.matrix = matrix;
+    }
+
+    /**
+     * looks the trees up with finder whenever a pom changes
+     */
+    void recomputeTreesWith(final Trees finder) {
+        this.treeFinder = finder;
+    }
+
+    /**
+     * looks up the trees after a pom changed, watches the directories
+     * that lead to new ones and releases those that no longer do
+     */
+    private void updateTrees() {
+        final Trees finder = treeFinder;
+        if (!pomChanged || finder == null)
+            return;
+        pomChanged = false;
+
+        final List<Path> found = new ArrayList<>();
+        try {
+            for (final Path tree : finder.find()) {
+                found.add(tree.toAbsolutePath().normalize());
+            }
+        } catch (IOException ex) {
+            System.err.println("Could not read the poms; watching the same directories: " + ex.getMessage());
+            return;
+        }
+
+        if (found.equals(trees))
+            return;
+
+        trees.clear();
+        trees.addAll(found);
+
+        for (final Iterator<Map.Entry<Path, WatchKey>> entries = watched.entrySet().iterator(); entries.hasNext(); ) {
+            final Map.Entry<Path, WatchKey> entry = entries.next();
+            if (isWatchable(entry.getKey()) || (git != null && entry.getKey().equals(git.getGitDirectory())))
+                continue;
+            entries.remove();
+            entry.getValue().cancel();
+            keys.remove(entry.getValue());
+        }
+        for (final Iterator<Path> dirs = polled.keySet().iterator(); dirs.hasNext(); ) {
+            if (!isWatchable(dirs.next()))
+                dirs.remove();
+        }
+
+        try {
+            registerTrees();
+        } catch (IOException ex) {
+            System.err.println("Could not watch the new directories: " + ex.getMessage());
+        }
+        updateCounts();
+    }
+
+    /**
+     * registers the root, the trees beneath it and trees outside of
+     * it, skipping directories already watched or polled
+     */
+    private void registerTrees() throws IOException {
+        registerAll(root, false);
+        for (final Path tree : new ArrayList<>(trees)) {
+            if (!tree.startsWith(root) && Files.isDirectory(tree))
+                registerAll(tree, false);
+        }
+    }
+
+    /**
+     * stops watching; processEvents() returns
+     */
+    void close() throws IOException {
+        watcher.close();
+    }
+
+    /**
+     * describes how many directories are watched and polled
+     */
+    String getUsage() {
+        final int limit = kernelWatchLimit();
+        return String.format("%d directories watched (budget %s%s), %d polled every %d ms",
+                             watchedCount,
+                             budget == Integer.MAX_VALUE ? "unlimited" : String.valueOf(budget),
+                             limit > 0 ? ", kernel limit " + limit : "",
+                             polledCount,
+                             pollMillis);
+    }
+
+    /**
+     * @return the kernel's per-user limit of inotify watches, or -1
+     * if there is none or it cannot be read
+     */
+    static int kernelWatchLimit() {
+        // procfs files report a size of 0, so read them as a stream
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get("/proc/sys/fs/inotify/max_user_watches"),
+                                                             Charset.forName("US-ASCII"))) {
+            final String line = reader.readLine();
+            return line != null ? Integer.parseInt(line.trim()) : -1;
+        } catch (IOException | NumberFormatException ex) {
+            return -1;
+        }
     }
 
     /**
      * Register the given directory, and all its sub-directories, with the WatchService.
+     *
+     * @param collect true to treat the files found as changed (used
+     * for directories that appear while watching, whose contents may
+     * have been written before they could be registered)
      */
-    private void registerAll(final Path start) throws IOException {
+    private void registerAll(final Path start, final boolean collect) throws IOException {
         Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
             @Override
             public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
                     throws IOException {
-                register(dir);
+                if (dir.getFileName() != null && dir.getFileName().toString().equals(".git"))
+                    return FileVisitResult.SKIP_SUBTREE;
+                if (!isWatchable(dir))
+                    return FileVisitResult.SKIP_SUBTREE;
+                if (!watched.containsKey(dir) && !polled.containsKey(dir))
+                    register(dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (collect)
+                    WatchDir.this.collect(file);
                 return FileVisitResult.CONTINUE;
             }
         });
@@ -117,10 +532,49 @@ class WatchDir {
      * Creates a WatchService and registers the given directory
      */
     WatchDir(Path dir) throws IOException {
+        this(dir, GitMonitor.find(dir, 500));
+    }
+
+    /**
+     * Creates a WatchService and registers the given directory.
+     * Change batches are held back while git is rewriting the tree.
+     *
+     * @param git the monitor of the enclosing repository, or null
+     */
+    WatchDir(Path dir, GitMonitor git) throws IOException {
+        this(dir, Collections.singletonList(dir), git, Integer.MAX_VALUE, DEFAULT_POLL_MILLIS);
+    }
+
+    /**
+     * Creates a WatchService and registers the given trees and the
+     * directories between dir and them.
+     *
+     * @param budget the most directories to watch; the rest are
+     * polled every pollMillis
+     */
+    WatchDir(Path dir,
+             final List<Path> trees,
+             GitMonitor git,
+             final int budget,
+             final long pollMillis) throws IOException {
         this.watcher = FileSystems.getDefault().newWatchService();
         this.keys = new HashMap<>();
+        this.git = git;
+        this.budget = Math.max(1, budget);
+        this.pollMillis = pollMillis;
+
+        this.trees = new ArrayList<>();
+        for (final Path tree : trees) {
+            this.trees.add(tree.toAbsolutePath().normalize());
+        }
 
-        registerAll(dir);
+        this.root = dir.toAbsolutePath().normalize();
+        registerTrees();
+
+        if (git != null && Files.isDirectory(git.getGitDirectory())) {
+            // only the top of .git; that is where the lock and state files live
+            register(git.getGitDirectory());
+        }
 
         this.trace = true;
 
@@ -141,7 +595,25 @@ class WatchDir {
 
         timer.scheduleAtFixedRate(new TimerTask() {
             @Override public void run () {
+                final ResourceSync syncing = resources;
+                if (syncing != null) {
+                    syncing.flush();
+                }
+
                 if (!changedFiles.isEmpty()) {
+                    if (git != null && !git.isSettled()) {
+                        // one build for the net result, not one per intermediate state
+                        if (!waitingForGit) {
+                            AnsiConsole.out.println(ansi()
+                                                    .fg(BLUE).a("=> ")
+                                                    .fg(WHITE).a("Waiting for git to finish...")
+                                                    .reset());
+                            waitingForGit = true;
+                        }
+                        return;
+                    }
+                    waitingForGit = false;
+
                     // if any changed files have accumulated...
                     final Set<String> files = new HashSet<>();
                     files.addAll(changedFiles);
@@ -151,12 +623,29 @@ class WatchDir {
             }
         }, 0, 200);
 
+        long nextPoll = System.currentTimeMillis() + pollMillis;
+
         for (;;) {
             WatchKey key;
             try {
-                key = watcher.take();
-            } catch (InterruptedException x) {
-                return;
+                if (polled.isEmpty()) {
+                    key = watcher.take();
+                } else {
+                    key = watcher.poll(Math.max(1, nextPoll - System.currentTimeMillis()),
+                                       TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException | ClosedWatchServiceException x) {
+                break;
+            }
+
+            if (!polled.isEmpty() && System.currentTimeMillis() >= nextPoll) {
+                pollAll();
+                nextPoll = System.currentTimeMillis() + pollMillis;
+            }
+
+            if (key == null) {
+                updateTrees();
+                continue;
             }
 
             final Path dir = keys.get(key);
@@ -166,10 +655,28 @@ class WatchDir {
                 continue;
             }
 
+            final boolean gitEvent = git != null && dir.equals(git.getGitDirectory());
+
+            // most recently changed last; the coldest are polled first
+            watched.get(dir);
+
             for (WatchEvent<?> event : key.pollEvents()) {
                 WatchEvent.Kind kind = event.kind();
 
+                if (gitEvent) {
+                    git.onActivity();
+                    continue;
+                }
+
                 if (kind == OVERFLOW) {
+                    overflows++;
+                    // the changes are unknown so make sure a build still happens
+                    if (git != null)
+                        git.onActivity();
+                    final MatrixBuild mirroring = matrix;
+                    if (mirroring != null)
+                        mirroring.changedAll();
+                    changedFiles.add(OVERFLOW_MARKER);
                     continue;
                 }
 
@@ -178,14 +685,12 @@ class WatchDir {
                 Path name = ev.context();
                 Path child = dir.resolve(name);
 
-                if (fileRequiresBuild(child)) {
-                    changedFiles.add(child.getFileName().toString());
-                }
+                collect(child);
 
                 if (kind == ENTRY_CREATE) {
                     try {
                         if (Files.isDirectory(child, NOFOLLOW_LINKS)) {
-                            registerAll(child);
+                            registerAll(child, true);
                         }
                     } catch (IOException x) {
                     }
@@ -196,10 +701,14 @@ class WatchDir {
             boolean valid = key.reset();
             if (!valid) {
                 keys.remove(key);
-                if (keys.isEmpty()) {
+                watched.remove(dir);
+                updateCounts();
+                if (keys.isEmpty() && polled.isEmpty()) {
                     break;
                 }
             }
+
+            updateTrees();
         }
 
         timer.cancel();
@@ -217,7 +726,7 @@ class WatchDir {
         }
     }
 
-    private static boolean fileRequiresBuild(final Path path) {
+    static boolean fileRequiresBuild(final Path path) {
 
         final String fileName = path.getFileName().toString();
 
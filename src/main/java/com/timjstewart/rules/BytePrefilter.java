@@ -0,0 +1,184 @@
+package com.timjstewart.rules;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * decides, from a line's raw UTF-8 bytes, whether the line would be
+ * ignored by the rules so that it never has to be decoded.
+ *
+ * A line is ignored when the first rule that matches it is an ignore
+ * rule.  For every IgnoreLineContainingRule the prefilter knows its
+ * literal and the literals that the non-ignoring rules ahead of it
+ * require; a line containing the ignore literal but none of those
+ * can only be ignored.  Compilation stops at the first non-ignoring
+ * rule whose required literal cannot be worked out, so the prefilter
+ * never drops a line the rules would have shown.  Since UTF-8 is self
+ * synchronizing, a byte-level substring match is exactly a String
+ * contains().
+ */
+public class BytePrefilter {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String METACHARACTERS = "\\[](){}.*+?^$|";
+
+    private static final class Entry {
+        final byte[] literal;
+
+        /**
+         * literals of the non-ignoring rules before this one
+         */
+        final byte[][] guards;
+
+        Entry(final byte[] literal, final byte[][] guards) {
+            this.literal = literal;
+            this.guards = guards;
+        }
+    }
+
+    private final Entry[] entries;
+
+    private BytePrefilter(final Entry[] entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * compiles a prefilter for the given ordered rules
+     */
+    public static BytePrefilter compile(final List<BlockRule> rules) {
+        final List<Entry> entries = new ArrayList<>();
+        final List<byte[]> guards = new ArrayList<>();
+
+        for (final BlockRule rule : rules) {
+            if (rule instanceof IgnoreLineContainingRule) {
+                entries.add(new Entry(((IgnoreLineContainingRule) rule).getText().getBytes(UTF8),
+                                      guards.toArray(new byte[guards.size()][])));
+            } else if (rule instanceof IgnoreLineMatchingRegexRule) {
+                // a line it matches is ignored either way
+                continue;
+            } else {
+                final String literal = requiredLiteral(rule);
+                if (literal == null)
+                    break;
+                guards.add(literal.getBytes(UTF8));
+            }
+        }
+
+        return new BytePrefilter(entries.toArray(new Entry[entries.size()]));
+    }
+
+    /**
+     * @return true iff the rules are certain to ignore the line.  A
+     * false result means the line has to be decoded and run through
+     * the rules.
+     */
+    public boolean isIgnored(final byte[] bytes, final int offset, final int length) {
+        for (final Entry entry : entries) {
+            if (indexOf(bytes, offset, length, entry.literal) >= 0) {
+                for (final byte[] guard : entry.guards) {
+                    if (indexOf(bytes, offset, length, guard) >= 0)
+                        return false;
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of ignore literals the prefilter checks
+     */
+    public int size() {
+        return entries.length;
+    }
+
+    /**
+     * @return the index of pattern within bytes[offset, offset +
+     * length), or -1
+     */
+    public static int indexOf(final byte[] bytes,
+                              final int offset,
+                              final int length,
+                              final byte[] pattern) {
+        if (pattern.length == 0)
+            return offset;
+
+        final byte first = pattern[0];
+        final int last = offset + length - pattern.length;
+
+        outer:
+        for (int i = offset; i <= last; ++i) {
+            if (bytes[i] != first)
+                continue;
+            for (int j = 1; j < pattern.length; ++j) {
+                if (bytes[i + j] != pattern[j])
+                    continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static String requiredLiteral(final BlockRule rule) {
+        if (rule instanceof SingleLineRegexRule)
+            return requiredLiteral(((SingleLineRegexRule) rule).getRegex());
+        if (rule instanceof MultiLineRule)
+            return requiredLiteral(((MultiLineRule) rule).getStartRegex());
+        return null;
+    }
+
+    /**
+     * returns a literal that every match of the regex must contain,
+     * taken from the regex's leading run of plain characters, or null
+     * if there isn't a usable one
+     */
+    static String requiredLiteral(final String regex) {
+        if (regex.indexOf('|') >= 0 || regex.startsWith("(?"))
+            return null;
+
+        final StringBuilder literal = new StringBuilder();
+
+        int i = 0;
+        while (i < regex.length() && regex.charAt(i) == '(')
+            i++;
+
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+
+            if (c == '\\') {
+                if (i + 1 < regex.length() && METACHARACTERS.indexOf(regex.charAt(i + 1)) >= 0) {
+                    literal.append(regex.charAt(i + 1));
+                    i += 2;
+                    continue;
+                }
+                // \d, \s, \Q ... are not literals
+                break;
+            }
+
+            if (METACHARACTERS.indexOf(c) >= 0) {
+                if ((c == '*' || c == '+' || c == '?' || c == '{') && literal.length() > 0) {
+                    // the character before a quantifier is optional or repeated
+                    literal.setLength(literal.length() - 1);
+                }
+                break;
+            }
+
+            literal.append(c);
+            i++;
+        }
+
+        return literal.length() == 0 ? null : literal.toString();
+    }
+
+    @Override
+    public String toString() {
+        final List<String> literals = new ArrayList<>();
+        for (final Entry entry : entries) {
+            literals.add(new String(entry.literal, UTF8));
+        }
+        return "BytePrefilter" + Arrays.toString(literals.toArray());
+    }
+}
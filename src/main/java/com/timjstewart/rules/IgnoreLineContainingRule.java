@@ -11,6 +11,13 @@ public class IgnoreLineContainingRule extends BaseBlockRule {
         this.text = Objects.requireNonNull(text, "text cannot be null");
     }
 
+    /**
+     * @return the text that causes a line to be ignored
+     */
+    public String getText() {
+        return text;
+    }
+
     @Override
     public boolean isStartOfBlock(final String line) {
         return line.contains(text);
@@ -38,6 +38,14 @@ public class MultiLineRule extends BaseBlockRule {
         return line.trim().isEmpty();
     }
 
+    /**
+     * @return the regular expression that matches the first line of
+     * the block
+     */
+    public String getStartRegex() {
+        return startPattern.pattern();
+    }
+
     @Override
     public boolean isStartOfBlock(final String line) {
         return startPattern.matcher(line).find();
@@ -59,14 +67,29 @@ public class MultiLineRule extends BaseBlockRule {
     }
 
     /**
-     * will allow color rules to be loaded from a config file
+     * parses a rule of the form COLOR:START_REGEX => END_REGEX
+     * (e.g. "BLUE:(Results :.*) => (Tests run:.*)").  START_REGEX
+     * must have a capturing group: group 1 is the part of the first
+     * line that is shown.
      */
-    public static SingleLineRegexRule parse(final String text) throws RuleParseException {
-        final String[] tokens = text.split(":");
-        if (tokens.length == 2) {
-            return new SingleLineRegexRule(Ansi.Color.valueOf(tokens[0]), tokens[1]);
+    public static MultiLineRule parse(final String text) throws RuleParseException {
+        final String[] tokens = text.split(":", 2);
+        final String[] regexes = tokens.length == 2 ? tokens[1].split(" => ", 2) : new String[0];
+        if (regexes.length == 2) {
+            final MultiLineRule rule;
+            try {
+                rule = new MultiLineRule(Ansi.Color.valueOf(tokens[0].trim()),
+                                         regexes[0].trim(),
+                                         regexes[1].trim());
+            } catch (IllegalArgumentException ex) {
+                throw new RuleParseException(String.format("%s could not be parsed into a MultiLineRule: %s",
+                                                           text, ex.getMessage()));
+            }
+            if (rule.startPattern.matcher("").groupCount() < 1)
+                throw new RuleParseException(String.format("%s has no group to show; put ( ) around the start", text));
+            return rule;
         } else {
-            throw new RuleParseException(String.format("%s could not be parsed into a ColorRule.", text));
+            throw new RuleParseException(String.format("%s could not be parsed into a MultiLineRule.", text));
         }
     }
 
@@ -0,0 +1,170 @@
+package com.timjstewart.rules;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * an immutable, ordered set of compiled BlockRules.  A RuleSet is
+ * built once and shared by every build, so none of its rules may
+ * carry per-build state; builds ask isTestFailure() instead of
+ * registering listeners.
+ *
+ * Rules files hold one rule per line, "KIND SPEC", in the order the
+ * rules should be tried:
+ *
+ *   show         COLOR:REGEX                    print group 1 of the line in COLOR
+ *   failure      COLOR:REGEX                    like show, but marks a failed unit test
+ *   ignore       TEXT                           hide lines containing TEXT
+ *                                               (quote TEXT to keep surrounding spaces)
+ *   ignore-regex REGEX                          hide lines matching REGEX
+ *   block        COLOR:START_REGEX => END_REGEX print the lines from START to END in COLOR
+ *
+ * Blank lines and lines starting with '#' are skipped.
+ */
+public class RuleSet {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String DEFAULT_RULES = "default.rules";
+
+    private final List<BlockRule> rules;
+
+    private final Set<BlockRule> testFailureRules;
+
+    private final BytePrefilter prefilter;
+
+    private final String source;
+
+    private RuleSet(final List<BlockRule> rules,
+                    final Set<BlockRule> testFailureRules,
+                    final String source) {
+        this.rules = Collections.unmodifiableList(rules);
+        this.testFailureRules = Collections.unmodifiableSet(testFailureRules);
+        this.prefilter = BytePrefilter.compile(this.rules);
+        this.source = source;
+    }
+
+    /**
+     * @return the rules in the order they should be tried
+     */
+    public List<BlockRule> getRules() {
+        return rules;
+    }
+
+    /**
+     * @return the prefilter compiled from the rules
+     */
+    public BytePrefilter getPrefilter() {
+        return prefilter;
+    }
+
+    /**
+     * @return true iff a match of the rule means a unit test failed
+     */
+    public boolean isTestFailure(final BlockRule rule) {
+        return testFailureRules.contains(rule);
+    }
+
+    /**
+     * @return where the rules were loaded from
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return the rules that ship with mvn8r
+     */
+    public static RuleSet defaults() {
+        try (InputStream in = RuleSet.class.getResourceAsStream(DEFAULT_RULES)) {
+            if (in == null)
+                throw new IllegalStateException("missing resource " + DEFAULT_RULES);
+            return parse(new InputStreamReader(in, UTF8), "built-in rules");
+        } catch (IOException | RuleParseException ex) {
+            throw new IllegalStateException("could not load built-in rules", ex);
+        }
+    }
+
+    /**
+     * loads and compiles a rules file
+     */
+    public static RuleSet load(final Path file) throws IOException, RuleParseException {
+        try (Reader reader = Files.newBufferedReader(file, UTF8)) {
+            return parse(reader, file.toString());
+        }
+    }
+
+    /**
+     * parses and compiles rules
+     */
+    public static RuleSet parse(final Reader reader, final String source)
+        throws IOException, RuleParseException {
+
+        final List<BlockRule> rules = new ArrayList<>();
+        final Set<BlockRule> testFailureRules = new HashSet<>();
+
+        final BufferedReader lines = new BufferedReader(reader);
+        String line;
+        int number = 0;
+
+        while ((line = lines.readLine()) != null) {
+            number++;
+
+            final String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#"))
+                continue;
+
+            final String[] tokens = trimmed.split("\\s+", 2);
+            if (tokens.length != 2)
+                throw new RuleParseException(String.format("%s:%d: expected KIND SPEC", source, number));
+
+            final String kind = tokens[0];
+            final String spec = tokens[1];
+
+            try {
+                switch (kind) {
+                case "show":
+                    rules.add(SingleLineRegexRule.parse(spec));
+                    break;
+                case "failure":
+                    final BlockRule failure = SingleLineRegexRule.parse(spec);
+                    rules.add(failure);
+                    testFailureRules.add(failure);
+                    break;
+                case "ignore":
+                    rules.add(new IgnoreLineContainingRule(unquote(spec)));
+                    break;
+                case "ignore-regex":
+                    rules.add(new IgnoreLineMatchingRegexRule(spec));
+                    break;
+                case "block":
+                    rules.add(MultiLineRule.parse(spec));
+                    break;
+                default:
+                    throw new RuleParseException("unknown rule kind: " + kind);
+                }
+            } catch (RuleParseException | IllegalArgumentException ex) {
+                throw new RuleParseException(String.format("%s:%d: %s", source, number, ex.getMessage()));
+            }
+        }
+
+        return new RuleSet(rules, testFailureRules, source);
+    }
+
+    private static String unquote(final String text) {
+        if (text.length() >= 2 && text.startsWith("\"") && text.endsWith("\""))
+            return text.substring(1, text.length() - 1);
+        return text;
+    }
+}
@@ -33,6 +33,13 @@ public class SingleLineRegexRule extends BaseBlockRule {
         return false;
     }
 
+    /**
+     * @return the regular expression that matches the line
+     */
+    public String getRegex() {
+        return pattern.pattern();
+    }
+
     @Override
     public boolean isStartOfBlock(final String line) {
         return pattern.matcher(line).find();
@@ -53,12 +60,24 @@ public class SingleLineRegexRule extends BaseBlockRule {
     }
 
     /**
-     * will allow color rules to be loaded from a config file
+     * parses a rule of the form COLOR:REGEX (e.g. "GREEN:(BUILD
+     * SUCCESS)").  Only the first colon separates the two, so the
+     * regex may contain colons.  The regex must have a capturing
+     * group: group 1 is the part of the line that is shown.
      */
     public static SingleLineRegexRule parse(final String text) throws RuleParseException {
-        final String[] tokens = text.split(":");
+        final String[] tokens = text.split(":", 2);
         if (tokens.length == 2) {
-            return new SingleLineRegexRule(Ansi.Color.valueOf(tokens[0]), tokens[1]);
+            final SingleLineRegexRule rule;
+            try {
+                rule = new SingleLineRegexRule(Ansi.Color.valueOf(tokens[0].trim()), tokens[1].trim());
+            } catch (IllegalArgumentException ex) {
+                throw new RuleParseException(String.format("%s could not be parsed into a ColorRule: %s",
+                                                           text, ex.getMessage()));
+            }
+            if (rule.pattern.matcher("").groupCount() < 1)
+                throw new RuleParseException(String.format("%s has no group to show; put ( ) around it", text));
+            return rule;
         } else {
             throw new RuleParseException(String.format("%s could not be parsed into a ColorRule.", text));
         }
@@ -0,0 +1,105 @@
+package com.timjstewart;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class BuildMemoTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path project;
+
+    private BuildMemo memo;
+
+    private Job job;
+
+    @Before
+    public void setUp() throws Exception {
+        project = folder.newFolder("project").toPath();
+        memo = new BuildMemo(folder.newFolder("memo").toPath(), new TreeHasher(), 2);
+        job = new Job(project.resolve("pom.xml").toString(), new String[] { "test" }, null, null);
+
+        Files.write(project.resolve("pom.xml"), "<project/>".getBytes(UTF8));
+        Files.createDirectories(project.resolve("src/main/java"));
+        Files.write(project.resolve("src/main/java/A.java"), "class A {}".getBytes(UTF8));
+    }
+
+    @Test
+    public void testKeyIsStableForAnUnchangedTree() throws Exception {
+        Assert.assertEquals(memo.computeKey(job, true), memo.computeKey(job, true));
+    }
+
+    @Test
+    public void testKeyDependsOnOfflineFlag() throws Exception {
+        Assert.assertFalse(memo.computeKey(job, true).equals(memo.computeKey(job, false)));
+    }
+
+    @Test
+    public void testKeyDependsOnTasks() throws Exception {
+        final Job other = new Job(job.getPomFile(), new String[] { "compile" }, null, null);
+
+        Assert.assertFalse(memo.computeKey(job, true).equals(memo.computeKey(other, true)));
+    }
+
+    @Test
+    public void testKeyDependsOnSources() throws Exception {
+        final String before = memo.computeKey(job, true);
+        Files.write(project.resolve("src/main/java/A.java"), "class A { int a; }".getBytes(UTF8));
+
+        Assert.assertFalse(before.equals(memo.computeKey(job, true)));
+    }
+
+    @Test
+    public void testKeyIgnoresBuildOutput() throws Exception {
+        final String before = memo.computeKey(job, true);
+        Files.createDirectories(project.resolve("target/classes"));
+        Files.write(project.resolve("target/classes/A.class"), new byte[] { 1, 2, 3 });
+
+        Assert.assertEquals(before, memo.computeKey(job, true));
+    }
+
+    @Test
+    public void testRecordRoundTrip() throws Exception {
+        memo.save("ok", new BuildMemo.Record(true, Arrays.asList("Tests run: 1", "BUILD SUCCESS")));
+        memo.save("broken", new BuildMemo.Record(false, Arrays.asList("[ERROR] A.java:[1,1]")));
+
+        final BuildMemo.Record ok = memo.find("ok");
+        Assert.assertTrue(ok.isSuccess());
+        Assert.assertEquals(Arrays.asList("Tests run: 1", "BUILD SUCCESS"), ok.getLines());
+
+        final BuildMemo.Record broken = memo.find("broken");
+        Assert.assertFalse(broken.isSuccess());
+        Assert.assertEquals(Arrays.asList("[ERROR] A.java:[1,1]"), broken.getLines());
+    }
+
+    @Test
+    public void testUnknownKeyFindsNothing() throws Exception {
+        Assert.assertNull(memo.find("missing"));
+    }
+
+    @Test
+    public void testPruneKeepsMaxEntries() throws Exception {
+        memo.save("a", new BuildMemo.Record(true, Collections.<String>emptyList()));
+        memo.save("b", new BuildMemo.Record(true, Collections.<String>emptyList()));
+        memo.save("c", new BuildMemo.Record(true, Collections.<String>emptyList()));
+
+        int found = 0;
+        for (final String key : new String[] { "a", "b", "c" }) {
+            if (memo.find(key) != null)
+                found++;
+        }
+        Assert.assertEquals(2, found);
+    }
+}
@@ -0,0 +1,69 @@
+package com.timjstewart;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import com.timjstewart.rules.RuleSet;
+
+public class BuildOutputHandlerTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testCompilerErrorIsASourceFailure() {
+        Assert.assertTrue(run("[ERROR] COMPILATION ERROR :",
+                              "[INFO] BUILD FAILURE",
+                              "[ERROR] Failed to execute goal ...: Compilation failure").isSourceFailure());
+    }
+
+    @Test
+    public void testFailingTestIsASourceFailure() {
+        Assert.assertTrue(run("[ERROR] testA(ATest)  Time elapsed: 0.01 s  <<< FAILURE!",
+                              "[INFO] BUILD FAILURE").isSourceFailure());
+    }
+
+    @Test
+    public void testResolutionFailureIsNotASourceFailure() {
+        Assert.assertFalse(run("[INFO] BUILD FAILURE",
+                               "[ERROR] Failed to execute goal on project a: Could not resolve dependencies").isSourceFailure());
+    }
+
+    @Test
+    public void testArtifactMissingOfflineIsAResolutionFailure() {
+        final BuildOutputHandler output = handler();
+        final byte[] line = ("[ERROR] Failed to execute goal on project b: Could not resolve dependencies for project g:b:jar:1: " +
+                             "Cannot access central (https://repo.maven.apache.org/maven2) in offline mode and " +
+                             "the artifact g:c:jar:2 has not been downloaded from it before.").getBytes(UTF8);
+        output.consumeLine(line, 0, line.length);
+
+        Assert.assertTrue(output.isResolutionFailure());
+        Assert.assertFalse(run("[INFO] BUILD FAILURE",
+                               "[ERROR] Failed to execute goal ...: Compilation failure").isResolutionFailure());
+    }
+
+    @Test
+    public void testRawLinesAreCheckedBeforeThePrefilter() {
+        final BuildOutputHandler output = handler();
+        final byte[] line = "[ERROR] COMPILATION ERROR :".getBytes(UTF8);
+        output.consumeLine(line, 0, line.length);
+
+        Assert.assertTrue(output.isSourceFailure());
+    }
+
+    private static BuildOutputHandler run(final String... lines) {
+        final BuildOutputHandler output = handler();
+        for (final String line : lines) {
+            output.consumeLine(line);
+        }
+        return output;
+    }
+
+    private static BuildOutputHandler handler() {
+        return new BuildOutputHandler(new Job("./pom.xml", new String[] { "test" }, null, null),
+                                      RuleSet.defaults(),
+                                      new Transcript(false),
+                                      null);
+    }
+}
@@ -0,0 +1,88 @@
+package com.timjstewart;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * stands in for maven by playing back a recording.
+ *
+ * A recording is maven's output with a few additions, one per line:
+ *
+ *   +MILLIS LINE     prints LINE after waiting MILLIS ms
+ *   LINE             prints LINE at once
+ *   !exit CODE       the exit code (0 unless given)
+ *   !file PATH       writes the lines up to !end to PATH, relative to
+ *                    the working directory (e.g. surefire reports)
+ *   !end
+ *
+ * When it is done, the process start and end times (epoch ms) are
+ * appended to the timings file, so a harness can tell how long the
+ * launch took.  Maven's own arguments are ignored.
+ *
+ * usage: FakeMaven RECORDING TIMINGS [MAVEN_ARGS...]
+ */
+public class FakeMaven {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final Pattern DELAYED = Pattern.compile("^\\+([0-9]+) ?(.*)$");
+
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.err.println("usage: FakeMaven RECORDING TIMINGS [MAVEN_ARGS...]");
+            System.exit(1);
+        }
+
+        final long started = ManagementFactory.getRuntimeMXBean().getStartTime();
+        int exitCode = 0;
+
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(args[0]), UTF8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("!exit ")) {
+                    exitCode = Integer.parseInt(line.substring("!exit ".length()).trim());
+                } else if (line.startsWith("!file ")) {
+                    writeFile(Paths.get(line.substring("!file ".length()).trim()), reader);
+                } else {
+                    final Matcher matcher = DELAYED.matcher(line);
+                    if (matcher.matches()) {
+                        System.out.flush();
+                        Thread.sleep(Long.parseLong(matcher.group(1)));
+                        line = matcher.group(2);
+                    }
+                    System.out.println(line);
+                }
+            }
+        }
+        System.out.flush();
+
+        Files.write(Paths.get(args[1]),
+                    (started + " " + System.currentTimeMillis() + "\n").getBytes(UTF8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+        System.exit(exitCode);
+    }
+
+    private static void writeFile(final Path file, final BufferedReader reader) throws IOException {
+        final Path parent = file.toAbsolutePath().getParent();
+        if (parent != null)
+            Files.createDirectories(parent);
+
+        try (Writer out = Files.newBufferedWriter(file, UTF8)) {
+            String line;
+            while ((line = reader.readLine()) != null && !line.equals("!end")) {
+                out.write(line);
+                out.write('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.timjstewart;
+
+import org.apache.maven.shared.invoker.DefaultInvocationRequest;
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class FocusModeTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path project;
+
+    private FocusMode focus;
+
+    @Before
+    public void setUp() throws Exception {
+        project = folder.getRoot().toPath().toRealPath();
+        Poms.write(project, "root", "<modules><module>core</module><module>app</module></modules>");
+        Poms.write(project.resolve("core"), "core", "");
+        Poms.write(project.resolve("app"), "app", "");
+
+        focus = new FocusMode(new Job(project.resolve("pom.xml").toString(), new String[] { "test" }, null, null));
+    }
+
+    @Test
+    public void testFocusesOnTheFailingTestsThenConfirms() throws Exception {
+        final long started = System.currentTimeMillis();
+        writeReport("core", "x.FooTest", "testBar");
+        writeReport("app", "x.AppTest", null);
+        focus.afterBuild(false, false, started);
+
+        Assert.assertTrue(focus.isFocused());
+        final InvocationRequest request = new DefaultInvocationRequest();
+        focus.prepare(request);
+        Assert.assertEquals("x.FooTest#testBar", request.getProperties().getProperty("test"));
+        Assert.assertEquals(Arrays.asList("core"), request.getProjects());
+        Assert.assertTrue(request.isAlsoMake());
+        Assert.assertFalse(focus.takeConfirmation());
+
+        focus.afterBuild(true, true, System.currentTimeMillis());
+
+        Assert.assertFalse(focus.isFocused());
+        Assert.assertTrue(focus.takeConfirmation());
+        Assert.assertFalse(focus.takeConfirmation());
+    }
+
+    @Test
+    public void testBuildWithoutNewReportsKeepsTheFocus() throws Exception {
+        writeReport("core", "x.FooTest", "testBar");
+        focus.afterBuild(false, false, System.currentTimeMillis());
+
+        // e.g. a compiler error; the report above predates this build
+        focus.afterBuild(true, false, System.currentTimeMillis() + 60 * 1000);
+
+        Assert.assertTrue(focus.isFocused());
+    }
+
+    /**
+     * writes a module's report for a test class, as surefire or a
+     * sharded build would
+     *
+     * @param failedMethod the method that failed, or null if all
+     * passed
+     */
+    private void writeReport(final String module, final String className, final String failedMethod) throws Exception {
+        final Path reports = project.resolve(module).resolve("target/surefire-reports");
+        ShardCoordinator.writeReports(
+            reports, className, 2, failedMethod == null ? 0 : 1, 0, 10,
+            failedMethod == null
+            ? Collections.<String[]>emptyList()
+            : Collections.singletonList(new String[] {
+                    "FAILURE", className, failedMethod + "(" + className + ")",
+                    "java.lang.AssertionError: expected <1>\n\tat " + className + "." + failedMethod + "(Test.java:9)\n" }));
+    }
+}
@@ -0,0 +1,65 @@
+package com.timjstewart;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+public class GitMonitorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path gitDirectory;
+
+    private GitMonitor git;
+
+    @Before
+    public void setUp() throws Exception {
+        gitDirectory = folder.newFolder(".git").toPath();
+        git = new GitMonitor(gitDirectory, 100);
+    }
+
+    @Test
+    public void testQuietRepositoryIsSettled() {
+        Assert.assertTrue(git.isSettled());
+    }
+
+    @Test
+    public void testActivityUnsettlesForTheSettlePeriod() throws Exception {
+        git.onActivity();
+        Assert.assertFalse(git.isSettled());
+
+        Thread.sleep(150);
+        Assert.assertTrue(git.isSettled());
+    }
+
+    @Test
+    public void testLockMeansOperationInProgress() throws Exception {
+        Files.createFile(gitDirectory.resolve("index.lock"));
+
+        Assert.assertTrue(git.isOperationInProgress());
+        Assert.assertFalse(git.isSettled());
+    }
+
+    @Test
+    public void testStaleLockIsIgnored() throws Exception {
+        final Path lock = Files.createFile(gitDirectory.resolve("index.lock"));
+        Files.setLastModifiedTime(lock, FileTime.fromMillis(System.currentTimeMillis() - 3600000));
+
+        Assert.assertTrue(git.isSettled());
+    }
+
+    @Test
+    public void testStoppedMergeOrRebaseIsSettled() throws Exception {
+        Files.createFile(gitDirectory.resolve("MERGE_HEAD"));
+        Files.createDirectory(gitDirectory.resolve("rebase-merge"));
+
+        Assert.assertTrue(git.isSettled());
+    }
+}
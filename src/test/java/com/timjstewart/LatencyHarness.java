@@ -0,0 +1,436 @@
+package com.timjstewart;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * measures the loop from saving a file to seeing the verdict.
+ *
+ * maven.home points at a stand-in whose bin/mvn runs FakeMaven, which
+ * plays back a recording of maven's output with its timing, exit code
+ * and surefire reports, so only mvn8r's own latency varies between
+ * runs.  A scratch project is watched by WatchDir, whose batches go
+ * to Main.perform as they do in mvn8r, and each scenario edits it
+ * a number of times.  Every edit is split into stages:
+ *
+ *   watch     the (first) save until WatchDir hands over the batch
+ *   launch    the batch until the maven process started
+ *   maven     the maven process, i.e. the recording
+ *   verdict   maven's exit until the build's outcome is known
+ *   total     the (first) save until the build's outcome is known
+ *
+ * The percentiles of each stage are printed to stdout as one JSON
+ * object; the builds' output goes to stderr.
+ *
+ * usage: LatencyHarness [--iterations=N] [--scenarios=NAME,...]
+ *                       [--launcher=invoker|process] [--recordings=DIR]
+ *
+ * A file NAME.txt in the recordings directory replaces the built-in
+ * recording of scenario NAME (see FakeMaven for the format).
+ *
+ * or: mvn -Pbenchmark test-compile exec:java -Dbenchmark.main=com.timjstewart.LatencyHarness
+ */
+public class LatencyHarness {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final long BUILD_TIMEOUT_MILLIS = 60000;
+
+    /**
+     * how long to wait after a build for builds of late batches
+     */
+    private static final long QUIET_MILLIS = 500;
+
+    private static final String PASSING =
+        "[INFO] Scanning for projects...\n" +
+        "+40 [INFO] \n" +
+        "[INFO] ------------------------------------------------------------------------\n" +
+        "[INFO] Building demo 1.0-SNAPSHOT\n" +
+        "[INFO] ------------------------------------------------------------------------\n" +
+        "+30 [INFO] --- maven-resources-plugin:2.6:resources (default-resources) @ demo ---\n" +
+        "+60 [INFO] --- maven-compiler-plugin:3.1:compile (default-compile) @ demo ---\n" +
+        "[INFO] Changes detected - recompiling the module!\n" +
+        "[INFO] Compiling 1 source file to PROJECT/target/classes\n" +
+        "+20 [INFO] --- maven-compiler-plugin:3.1:testCompile (default-testCompile) @ demo ---\n" +
+        "+50 [INFO] --- maven-surefire-plugin:2.12.4:test (default-test) @ demo ---\n" +
+        "\n" +
+        "-------------------------------------------------------\n" +
+        " T E S T S\n" +
+        "-------------------------------------------------------\n" +
+        "+80 Running demo.AppTest\n" +
+        "+25 Tests run: 3, Failures: 0, Errors: 0, Skipped: 0, Time elapsed: 0.025 sec\n" +
+        "\n" +
+        "Results :\n" +
+        "\n" +
+        "Tests run: 3, Failures: 0, Errors: 0, Skipped: 0\n" +
+        "\n" +
+        "[INFO] ------------------------------------------------------------------------\n" +
+        "[INFO] BUILD SUCCESS\n" +
+        "[INFO] ------------------------------------------------------------------------\n" +
+        "[INFO] Total time: 0.350 s\n";
+
+    private static final String FAILING =
+        "[INFO] Scanning for projects...\n" +
+        "+40 [INFO] \n" +
+        "[INFO] ------------------------------------------------------------------------\n" +
+        "[INFO] Building demo 1.0-SNAPSHOT\n" +
+        "[INFO] ------------------------------------------------------------------------\n" +
+        "+30 [INFO] --- maven-resources-plugin:2.6:resources (default-resources) @ demo ---\n" +
+        "+20 [INFO] --- maven-compiler-plugin:3.1:compile (default-compile) @ demo ---\n" +
+        "[INFO] Nothing to compile - all classes are up to date\n" +
+        "+60 [INFO] --- maven-compiler-plugin:3.1:testCompile (default-testCompile) @ demo ---\n" +
+        "+50 [INFO] --- maven-surefire-plugin:2.12.4:test (default-test) @ demo ---\n" +
+        "\n" +
+        "-------------------------------------------------------\n" +
+        " T E S T S\n" +
+        "-------------------------------------------------------\n" +
+        "+80 Running demo.AppTest\n" +
+        "+25 Tests run: 3, Failures: 1, Errors: 0, Skipped: 0, Time elapsed: 0.031 sec <<< FAILURE!\n" +
+        "adds(demo.AppTest)  Time elapsed: 0.004 sec  <<< FAILURE!\n" +
+        "java.lang.AssertionError: expected:<4> but was:<5>\n" +
+        "\tat org.junit.Assert.fail(Assert.java:91)\n" +
+        "\tat demo.AppTest.adds(AppTest.java:12)\n" +
+        "\n" +
+        "!file target/surefire-reports/demo.AppTest.txt\n" +
+        "-------------------------------------------------------------------------------\n" +
+        "Test set: demo.AppTest\n" +
+        "-------------------------------------------------------------------------------\n" +
+        "Tests run: 3, Failures: 1, Errors: 0, Skipped: 0, Time elapsed: 0.031 sec <<< FAILURE!\n" +
+        "adds(demo.AppTest)  Time elapsed: 0.004 sec  <<< FAILURE!\n" +
+        "java.lang.AssertionError: expected:<4> but was:<5>\n" +
+        "\tat org.junit.Assert.fail(Assert.java:91)\n" +
+        "\tat demo.AppTest.adds(AppTest.java:12)\n" +
+        "!end\n" +
+        "\n" +
+        "Results :\n" +
+        "\n" +
+        "Failed tests:   adds(demo.AppTest): expected:<4> but was:<5>\n" +
+        "\n" +
+        "Tests run: 3, Failures: 1, Errors: 0, Skipped: 0\n" +
+        "\n" +
+        "[INFO] ------------------------------------------------------------------------\n" +
+        "[INFO] BUILD FAILURE\n" +
+        "[INFO] ------------------------------------------------------------------------\n" +
+        "[INFO] Total time: 0.330 s\n" +
+        "[ERROR] Failed to execute goal org.apache.maven.plugins:maven-surefire-plugin:2.12.4:test " +
+        "(default-test) on project demo: There are test failures.\n" +
+        "!exit 1\n";
+
+    /**
+     * a way of editing the project, and what maven says about it
+     */
+    private static final class Scenario {
+
+        final String name;
+
+        final String recording;
+
+        final String[] files;
+
+        final long pauseMillis;
+
+        Scenario(final String name, final String recording, final long pauseMillis, final String... files) {
+            this.name = name;
+            this.recording = recording;
+            this.pauseMillis = pauseMillis;
+            this.files = files;
+        }
+    }
+
+    private static final List<Scenario> SCENARIOS = Arrays.asList(
+        new Scenario("edit-pass", PASSING, 0, "src/main/java/demo/App.java"),
+        new Scenario("edit-fail", FAILING, 0, "src/test/java/demo/AppTest.java"),
+        new Scenario("save-burst", PASSING, 20,
+                     "src/main/java/demo/App.java",
+                     "src/main/java/demo/Parser.java",
+                     "src/main/java/demo/Printer.java",
+                     "src/test/java/demo/AppTest.java",
+                     "src/test/java/demo/ParserTest.java"));
+
+    /**
+     * one build handed over by the watcher
+     */
+    private static final class Build {
+
+        final long batchMillis;
+
+        final long doneMillis;
+
+        Build(final long batchMillis, final long doneMillis) {
+            this.batchMillis = batchMillis;
+            this.doneMillis = doneMillis;
+        }
+    }
+
+    private final Path project;
+
+    private final Path mavenHome;
+
+    private final Path recording;
+
+    private final Path timings;
+
+    private final Properties properties = new Properties();
+
+    private final BlockingQueue<Build> builds = new LinkedBlockingQueue<>();
+
+    private LatencyHarness(final Path scratch, final String launcher) throws IOException {
+        this.project = scratch.resolve("project");
+        this.mavenHome = scratch.resolve("maven");
+        this.recording = mavenHome.resolve("recording.txt");
+        this.timings = mavenHome.resolve("timings.txt");
+
+        properties.setProperty("maven.home", mavenHome.toString());
+        properties.setProperty("launcher", launcher);
+
+        createProject();
+        createMavenHome();
+    }
+
+    public static void main(final String[] args) throws Exception {
+        int iterations = 20;
+        String launcher = "invoker";
+        Path recordings = null;
+        List<String> names = new ArrayList<>();
+        for (final Scenario scenario : SCENARIOS)
+            names.add(scenario.name);
+
+        for (final String arg : args) {
+            if (arg.startsWith("--iterations=")) {
+                iterations = Integer.parseInt(arg.substring("--iterations=".length()));
+            } else if (arg.startsWith("--scenarios=")) {
+                names = Arrays.asList(arg.substring("--scenarios=".length()).split(","));
+            } else if (arg.startsWith("--launcher=")) {
+                launcher = arg.substring("--launcher=".length());
+            } else if (arg.startsWith("--recordings=")) {
+                recordings = Paths.get(arg.substring("--recordings=".length()));
+            } else {
+                System.err.println("usage: LatencyHarness [--iterations=N] [--scenarios=NAME,...] " +
+                                   "[--launcher=invoker|process] [--recordings=DIR]");
+                System.exit(1);
+            }
+        }
+
+        // builds report to the console; keep stdout for the results
+        final PrintStream results = System.out;
+        System.setOut(System.err);
+
+        final Path scratch = Files.createTempDirectory("mvn8r-latency");
+        final List<Map<String, Object>> measured = new ArrayList<>();
+
+        try {
+            final LatencyHarness harness = new LatencyHarness(scratch, launcher);
+            final WatchDir watchDir = harness.startWatching();
+
+            for (final String name : names) {
+                final Scenario scenario = find(name, recordings);
+                System.err.println("running " + scenario.name);
+                measured.add(harness.run(scenario, iterations));
+            }
+
+            watchDir.close();
+        } finally {
+            FileTrees.delete(scratch);
+        }
+
+        final Map<String, Object> root = new LinkedHashMap<>();
+        root.put("benchmark", "latency");
+        root.put("launcher", launcher);
+        root.put("iterations", iterations);
+        root.put("java", System.getProperty("java.version"));
+        root.put("scenarios", measured);
+
+        final StringBuilder json = new StringBuilder();
+        WatchDirBenchmark.appendJson(json, root);
+        results.println(json);
+        System.exit(0);
+    }
+
+    private static Scenario find(final String name, final Path recordings) throws IOException {
+        for (final Scenario scenario : SCENARIOS) {
+            if (!scenario.name.equals(name))
+                continue;
+
+            final Path replacement = recordings != null ? recordings.resolve(name + ".txt") : null;
+            if (replacement != null && Files.isRegularFile(replacement)) {
+                return new Scenario(name,
+                                    new String(Files.readAllBytes(replacement), UTF8),
+                                    scenario.pauseMillis,
+                                    scenario.files);
+            }
+            return scenario;
+        }
+        throw new IllegalArgumentException("unknown scenario: " + name);
+    }
+
+    /**
+     * edits the project once per iteration and waits for the verdict
+     */
+    private Map<String, Object> run(final Scenario scenario, final int iterations) throws Exception {
+        Files.write(recording, scenario.recording.replace("PROJECT", project.toString()).getBytes(UTF8));
+
+        final Map<String, List<Long>> stages = new LinkedHashMap<>();
+        for (final String stage : Arrays.asList("watch", "launch", "maven", "verdict", "total"))
+            stages.put(stage, new ArrayList<Long>());
+
+        int buildCount = 0;
+        int missed = 0;
+
+        for (int i = 0; i < iterations; ++i) {
+            builds.clear();
+            final int launched = readTimings().size();
+
+            // a burst's batch may come before its last save, so time from the first
+            long edited = 0;
+            for (final String file : scenario.files) {
+                if (edited != 0 && scenario.pauseMillis > 0)
+                    Thread.sleep(scenario.pauseMillis);
+                edit(project.resolve(file), scenario.name + " " + i);
+                if (edited == 0)
+                    edited = System.currentTimeMillis();
+            }
+
+            final Build build = builds.poll(BUILD_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            if (build == null) {
+                missed++;
+                continue;
+            }
+            buildCount++;
+
+            // builds of batches that came late
+            while (builds.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS) != null)
+                buildCount++;
+
+            final List<long[]> timing = readTimings();
+            if (timing.size() <= launched) {
+                missed++;
+                continue;
+            }
+            final long[] maven = timing.get(launched);
+
+            stages.get("watch").add(build.batchMillis - edited);
+            stages.get("launch").add(maven[0] - build.batchMillis);
+            stages.get("maven").add(maven[1] - maven[0]);
+            stages.get("verdict").add(build.doneMillis - maven[1]);
+            stages.get("total").add(build.doneMillis - edited);
+        }
+
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("scenario", scenario.name);
+        result.put("edits", iterations);
+        result.put("builds", buildCount);
+        result.put("missed", missed);
+        for (final Map.Entry<String, List<Long>> stage : stages.entrySet())
+            result.put(stage.getKey() + "Millis", WatchDirBenchmark.percentiles(stage.getValue()));
+        return result;
+    }
+
+    private WatchDir startWatching() throws Exception {
+        final Job job = new Job(project.resolve("pom.xml").toString(), new String[] { "test" }, null, null);
+
+        final WatchDir watchDir = new WatchDir(project,
+                                               Collections.singletonList(project.resolve("src")),
+                                               null,
+                                               Integer.MAX_VALUE,
+                                               WatchDir.DEFAULT_POLL_MILLIS);
+
+        final Thread thread = new Thread("WatchDir") {
+                @Override
+                public void run() {
+                    watchDir.processEvents(new WatchDir.Handler() {
+                            @Override
+                            public void onChange(final String[] changedFiles) {
+                                final long batch = System.currentTimeMillis();
+                                Main.perform(job, properties, false);
+                                builds.add(new Build(batch, System.currentTimeMillis()));
+                            }
+                        });
+                }
+            };
+        thread.setDaemon(true);
+        thread.start();
+
+        // let the watcher settle before editing anything
+        Thread.sleep(500);
+        return watchDir;
+    }
+
+    /**
+     * @return the start and end times of every maven process so far
+     */
+    private List<long[]> readTimings() throws IOException {
+        final List<long[]> result = new ArrayList<>();
+        if (!Files.exists(timings))
+            return result;
+
+        for (final String line : Files.readAllLines(timings, UTF8)) {
+            final String[] fields = line.trim().split(" ");
+            if (fields.length == 2)
+                result.add(new long[] { Long.parseLong(fields[0]), Long.parseLong(fields[1]) });
+        }
+        return result;
+    }
+
+    private void createProject() throws IOException {
+        Files.createDirectories(project);
+        Files.write(project.resolve("pom.xml"),
+                    ("<project><modelVersion>4.0.0</modelVersion><groupId>demo</groupId>" +
+                     "<artifactId>demo</artifactId><version>1.0-SNAPSHOT</version></project>\n").getBytes(UTF8));
+
+        for (final Scenario scenario : SCENARIOS) {
+            for (final String file : scenario.files) {
+                edit(project.resolve(file), "created");
+            }
+        }
+    }
+
+    /**
+     * writes bin/mvn, which runs FakeMaven from the directory (or jar)
+     * it was loaded from on the recording.  java.class.path is no use
+     * here: exec:java runs the harness in maven's own JVM, whose class
+     * path is maven's launcher.
+     */
+    private void createMavenHome() throws IOException {
+        final Path java = Paths.get(System.getProperty("java.home"), "bin", "java");
+        final Path mvn = mavenHome.resolve("bin").resolve("mvn");
+        Files.createDirectories(mvn.getParent());
+
+        // FakeMaven needs nothing beyond the JDK
+        final String classPath;
+        try {
+            classPath = Paths.get(FakeMaven.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+                .toAbsolutePath().toString();
+        } catch (URISyntaxException ex) {
+            throw new IOException("cannot locate FakeMaven", ex);
+        }
+
+        final String script =
+            "#!/bin/sh\n" +
+            "exec '" + java + "' -Xshare:auto -XX:TieredStopAtLevel=1" +
+            " -cp '" + classPath + "'" +
+            " com.timjstewart.FakeMaven '" + recording + "' '" + timings + "' \"$@\"\n";
+
+        Files.write(mvn, script.getBytes(UTF8));
+        mvn.toFile().setExecutable(true);
+    }
+
+    private static void edit(final Path file, final String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, ("// " + content + "\n").getBytes(UTF8));
+    }
+}
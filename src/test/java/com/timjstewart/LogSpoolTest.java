@@ -0,0 +1,106 @@
+package com.timjstewart;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+public class LogSpoolTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+
+    private LogSpool spool;
+
+    private Job job;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.newFolder("logs").toPath();
+        spool = new LogSpool(directory, Long.MAX_VALUE);
+        job = new Job(folder.getRoot().toPath().resolve("project/pom.xml").toString(),
+                      new String[] { "test" }, null, null);
+    }
+
+    @Test
+    public void testClosedSegmentIsTrimmedAndIndexed() throws Exception {
+        final LogSegment segment = spool.open(job);
+        final long second;
+        segment.append("first");
+        second = segment.append("[ERROR] second");
+        segment.mark(second, LogSegment.ERROR, "-");
+        spool.close(segment);
+
+        Assert.assertEquals(Arrays.asList("first", "[ERROR] second"),
+                            Files.readAllLines(segment.getFile(), UTF8));
+        Assert.assertEquals(Arrays.asList(second + " error -"),
+                            Files.readAllLines(LogSegment.indexFileOf(segment.getFile()), UTF8));
+        Assert.assertEquals(Arrays.asList(segment.getFile()), LogSpool.list(directory));
+    }
+
+    @Test
+    public void testSegmentBeingWrittenIsNotListed() throws Exception {
+        final LogSegment segment = spool.open(job);
+        segment.append("still building");
+
+        Assert.assertTrue(LogSpool.list(directory).isEmpty());
+
+        spool.close(segment);
+    }
+
+    @Test
+    public void testLinesLargerThanAChunkAreKept() throws Exception {
+        final char[] chars = new char[5 * 1024 * 1024];
+        Arrays.fill(chars, 'x');
+        final String large = new String(chars);
+
+        final LogSegment segment = spool.open(job);
+        segment.append("before");
+        segment.append(large);
+        segment.append("after");
+        spool.close(segment);
+
+        Assert.assertEquals(Arrays.asList("before", large, "after"),
+                            Files.readAllLines(segment.getFile(), UTF8));
+    }
+
+    @Test
+    public void testCloseTwiceAndAppendAfterClose() throws Exception {
+        final LogSegment segment = spool.open(job);
+        segment.append("line");
+        segment.close();
+        segment.close();
+
+        try {
+            segment.append("late");
+            Assert.fail();
+        } catch (IOException ex) {
+            // expected
+        }
+        Assert.assertEquals(Arrays.asList("line"), Files.readAllLines(segment.getFile(), UTF8));
+    }
+
+    @Test
+    public void testPruneDeletesOldOrphans() throws Exception {
+        final Path orphan = Files.write(directory.resolve("20000101-000000-000-x.log"), new byte[16]);
+        Files.setLastModifiedTime(orphan, FileTime.fromMillis(System.currentTimeMillis() - 48L * 3600 * 1000));
+        final Path running = Files.write(directory.resolve("20000101-000000-001-x.log"), new byte[16]);
+
+        spool.prune();
+
+        Assert.assertFalse(Files.exists(orphan));
+        Assert.assertTrue(Files.exists(running));
+    }
+}
@@ -0,0 +1,200 @@
+package com.timjstewart;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ModuleCacheTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path project;
+
+    private Path store;
+
+    private ModuleCache cache;
+
+    private Job job;
+
+    /**
+     * a reactor of three modules: app depends on core, tools stands
+     * alone
+     */
+    @Before
+    public void setUp() throws Exception {
+        project = folder.newFolder("project").toPath();
+        store = folder.newFolder("cache").toPath();
+        cache = new ModuleCache(store, new TreeHasher(), Long.MAX_VALUE);
+        job = new Job(project.resolve("pom.xml").toString(), new String[] { "test" }, null, null);
+
+        Poms.write(project, "root", "<modules><module>core</module><module>app</module><module>tools</module></modules>");
+        Poms.write(project.resolve("core"), "core", "");
+        Poms.write(project.resolve("app"), "app",
+                   "<dependencies><dependency><artifactId>core</artifactId></dependency></dependencies>");
+        Poms.write(project.resolve("tools"), "tools", "");
+
+        for (final String module : new String[] { "core", "app", "tools" }) {
+            writeSource(module, "version 1");
+        }
+    }
+
+    @Test
+    public void testEverythingMissesAnEmptyCache() throws Exception {
+        final ModuleCache.Plan plan = cache.plan(job);
+
+        Assert.assertTrue(plan.getRestored().isEmpty());
+        Assert.assertEquals(Arrays.asList("core", "app", "tools"), names(plan.getToBuild()));
+        Assert.assertNull(plan.getProjects());
+    }
+
+    @Test
+    public void testUnchangedTreeIsRestoredCompletely() throws Exception {
+        build();
+
+        final ModuleCache.Plan plan = cache.plan(job);
+
+        Assert.assertTrue(plan.isComplete());
+        Assert.assertEquals(Arrays.asList("core", "app", "tools"), names(plan.getRestored()));
+    }
+
+    @Test
+    public void testChangeMissesTheModuleAndItsDependents() throws Exception {
+        build();
+        writeSource("core", "version two");
+
+        final ModuleCache.Plan plan = cache.plan(job);
+
+        Assert.assertEquals(Arrays.asList("tools"), names(plan.getRestored()));
+        Assert.assertEquals(Arrays.asList("core", "app"), plan.getProjects());
+    }
+
+    @Test
+    public void testUpstreamOfAMissIsBuiltRatherThanRestored() throws Exception {
+        build();
+        writeSource("app", "version two");
+
+        final ModuleCache.Plan plan = cache.plan(job);
+
+        Assert.assertEquals(Arrays.asList("tools"), names(plan.getRestored()));
+        Assert.assertEquals(Arrays.asList("core", "app"), plan.getProjects());
+    }
+
+    @Test
+    public void testRestoreReplacesStaleOutputs() throws Exception {
+        build();
+        final Path classes = project.resolve("tools/target/classes/Tools.class");
+        writeSource("tools", "version two");
+        build();
+        writeSource("tools", "version 1");
+
+        cache.plan(job);
+
+        Assert.assertEquals("version 1", new String(Files.readAllBytes(classes), UTF8));
+    }
+
+    @Test
+    public void testOtherJdkMissesTheCache() throws Exception {
+        build();
+
+        final Job other = new Job(job.getPomFile(), job.getTasks(), "/opt/other-jdk", null);
+
+        Assert.assertTrue(cache.plan(other).getRestored().isEmpty());
+    }
+
+    @Test
+    public void testChangedParentOutsideTheReactorMissesTheModule() throws Exception {
+        final Path parent = folder.getRoot().toPath().resolve("build-parent");
+        Poms.write(parent, "build-parent", "<properties><level>1</level></properties>");
+        Poms.write(project.resolve("tools"), "tools",
+                   "<parent><artifactId>build-parent</artifactId><relativePath>../../build-parent</relativePath></parent>");
+        build();
+
+        Poms.write(parent, "build-parent", "<properties><level>two</level></properties>");
+
+        final ModuleCache.Plan plan = cache.plan(job);
+
+        Assert.assertEquals(Arrays.asList("core", "app"), names(plan.getRestored()));
+        Assert.assertEquals(Arrays.asList("tools"), names(plan.getToBuild()));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesArePrunedBeyondTheLimit() throws Exception {
+        build();
+        final String oldTools = key("tools");
+        Files.setLastModifiedTime(store.resolve(key("core")), FileTime.fromMillis(1000));
+        Files.setLastModifiedTime(store.resolve(oldTools), FileTime.fromMillis(2000));
+
+        // room for core and app, and for tools either before or after
+        cache = new ModuleCache(store, new TreeHasher(), 2 * "version 1".length() + "version two".length());
+        writeSource("tools", "version two");
+        build();
+
+        Assert.assertFalse(Files.exists(store.resolve(oldTools)));
+        Assert.assertTrue(Files.isDirectory(store.resolve(key("core"))));
+        Assert.assertTrue(Files.isDirectory(store.resolve(key("tools"))));
+    }
+
+    /**
+     * returns the key of the cache entry the module's outputs
+     * correspond to
+     */
+    private String key(final String module) throws Exception {
+        return new String(Files.readAllBytes(project.resolve(module).resolve("target/.mvn8r-cache-key")), UTF8);
+    }
+
+    /**
+     * "compiles" every module the cache cannot restore, then stores
+     * the outputs
+     */
+    private void build() throws Exception {
+        final ModuleCache.Plan plan = cache.plan(job);
+        for (final Module module : plan.getToBuild()) {
+            final Path source = module.getDirectory().resolve("src/main/java/" + capitalized(module) + ".java");
+            final Path classes = module.getTargetDirectory().resolve("classes");
+            Files.createDirectories(classes);
+            Files.write(classes.resolve(capitalized(module) + ".class"), Files.readAllBytes(source));
+        }
+        cache.store(plan, job);
+    }
+
+    /**
+     * writes a module's only source file; texts of different lengths
+     * keep the hasher from taking an edit in the same millisecond for
+     * the old file
+     */
+    private void writeSource(final String module, final String text) throws Exception {
+        final Path directory = project.resolve(module).resolve("src/main/java");
+        Files.createDirectories(directory);
+        final Path source = directory.resolve(capitalized(module) + ".java");
+        Files.write(source, text.getBytes(UTF8));
+    }
+
+    private static String capitalized(final Module module) {
+        return capitalized(module.getName());
+    }
+
+    private static String capitalized(final String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static List<String> names(final List<Module> modules) {
+        final List<String> names = new ArrayList<>();
+        for (final Module module : modules) {
+            names.add(module.getName());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,27 @@
+package com.timjstewart;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * writes the minimal poms tests build their reactors from
+ */
+final class Poms {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private Poms() {
+    }
+
+    /**
+     * writes directory/pom.xml naming the artifact and followed by
+     * body, creating the directory if need be
+     */
+    static void write(final Path directory, final String artifactId, final String body) throws IOException {
+        Files.createDirectories(directory);
+        Files.write(directory.resolve("pom.xml"),
+                    ("<project><artifactId>" + artifactId + "</artifactId>" + body + "</project>").getBytes(UTF8));
+    }
+}
@@ -0,0 +1,99 @@
+package com.timjstewart;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.List;
+
+public class ReactorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path root;
+
+    @Before
+    public void setUp() throws Exception {
+        root = folder.getRoot().toPath().toRealPath();
+    }
+
+    @Test
+    public void testParentAtTheDefaultRelativePath() throws Exception {
+        Poms.write(root, "parent", "<modules><module>child</module></modules>");
+        Poms.write(root.resolve("child"), "child", parent("parent", null));
+
+        final Reactor reactor = Reactor.load(root.resolve("pom.xml"));
+
+        Assert.assertNull(reactor.getModules().get(0).getParentPom());
+        Assert.assertEquals(root.resolve("pom.xml"), reactor.getModules().get(1).getParentPom());
+    }
+
+    @Test
+    public void testParentOutsideTheProject() throws Exception {
+        Poms.write(root.resolve("build-parent"), "build-parent", "");
+        Poms.write(root.resolve("project"), "project", parent("build-parent", "../build-parent"));
+
+        final Reactor reactor = Reactor.load(root.resolve("project/pom.xml"));
+
+        Assert.assertEquals(root.resolve("build-parent/pom.xml"), reactor.getModules().get(0).getParentPom());
+        Assert.assertNull(Reactor.parentPom(root.resolve("build-parent/pom.xml")));
+    }
+
+    @Test
+    public void testParentOnlyInARepository() throws Exception {
+        Poms.write(root, "aggregator", "");
+        Poms.write(root.resolve("a"), "a", parent("aggregator", ""));
+        Poms.write(root.resolve("b"), "b", parent("spring-boot-starter-parent", null));
+
+        Assert.assertNull(Reactor.parentPom(root.resolve("a/pom.xml")));
+        Assert.assertNull(Reactor.parentPom(root.resolve("b/pom.xml")));
+    }
+
+    @Test
+    public void testResourcesAreInheritedFromTheParent() throws Exception {
+        Poms.write(root, "parent",
+                   "<modules><module>child</module></modules>" +
+                   "<build><resources><resource><directory>src/main/config</directory>" +
+                   "<filtering>true</filtering></resource></resources></build>");
+        Poms.write(root.resolve("child"), "child", parent("parent", null));
+
+        final Module child = Reactor.load(root.resolve("pom.xml")).getModules().get(1);
+        final Module.Resource resource = child.getResources().get(0);
+
+        Assert.assertEquals(root.resolve("child/src/main/config"), resource.getDirectory());
+        Assert.assertEquals(root.resolve("child/target/classes"), resource.getOutputDirectory());
+        Assert.assertFalse(resource.isVerbatim());
+        Assert.assertTrue(child.getSourceRoots().contains(root.resolve("child/src/main/config")));
+    }
+
+    @Test
+    public void testOwnResourcesReplaceThoseOfTheParent() throws Exception {
+        Poms.write(root.resolve("build-parent"), "build-parent",
+                   "<build><resources><resource><directory>src/main/config</directory>" +
+                   "<filtering>true</filtering></resource></resources>" +
+                   "<testResources><testResource><directory>src/test/config</directory></testResource></testResources>" +
+                   "</build>");
+        Poms.write(root.resolve("project"), "project",
+                   parent("build-parent", "../build-parent/pom.xml") +
+                   "<build><resources><resource><directory>src/main/resources</directory></resource></resources></build>");
+
+        final List<Module.Resource> resources =
+            Reactor.load(root.resolve("project/pom.xml")).getModules().get(0).getResources();
+
+        Assert.assertEquals(2, resources.size());
+        Assert.assertEquals(root.resolve("project/src/main/resources"), resources.get(0).getDirectory());
+        Assert.assertTrue(resources.get(0).isVerbatim());
+        Assert.assertEquals(root.resolve("project/src/test/config"), resources.get(1).getDirectory());
+        Assert.assertTrue(resources.get(1).isTest());
+    }
+
+    private static String parent(final String artifactId, final String relativePath) {
+        return "<parent><artifactId>" + artifactId + "</artifactId>" +
+            (relativePath == null ? "" : "<relativePath>" + relativePath + "</relativePath>") +
+            "</parent>";
+    }
+}
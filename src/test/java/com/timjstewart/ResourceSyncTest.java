@@ -0,0 +1,141 @@
+package com.timjstewart;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+public class ResourceSyncTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path project;
+
+    private Job job;
+
+    /**
+     * the goals and modules the sync fell back to maven for
+     */
+    private final List<String> processed = new ArrayList<>();
+
+    /**
+     * a reactor of two modules: plain copies its resources as they
+     * are, filtered inherits filtering from a parent outside the
+     * project
+     */
+    @Before
+    public void setUp() throws Exception {
+        project = folder.getRoot().toPath().toRealPath().resolve("project");
+        job = new Job(project.resolve("pom.xml").toString(), new String[] { "test" }, null, null);
+
+        Poms.write(project, "root",
+                   "<modules><module>plain</module><module>filtered</module></modules>");
+        Poms.write(project.resolve("plain"), "plain", "");
+        Poms.write(project.resolve("filtered"), "filtered",
+                   "<parent><artifactId>filter-parent</artifactId><relativePath>../../filter-parent</relativePath></parent>");
+        Poms.write(project.resolve("../filter-parent"), "filter-parent",
+                   "<build><resources><resource><directory>src/main/resources</directory>" +
+                   "<filtering>true</filtering></resource></resources></build>");
+
+        for (final String module : new String[] { "plain", "filtered" }) {
+            Files.createDirectories(project.resolve(module).resolve("src/main/resources"));
+            Files.createDirectories(project.resolve(module).resolve("target/classes"));
+        }
+    }
+
+    @Test
+    public void testChangedFileIsCopied() throws Exception {
+        final ResourceSync sync = create();
+        final Path file = write("plain/src/main/resources/app/config.properties", "a=1");
+
+        sync.changed(file);
+        sync.flush();
+
+        Assert.assertEquals("a=1", read("plain/target/classes/app/config.properties"));
+        Assert.assertTrue(processed.isEmpty());
+    }
+
+    @Test
+    public void testDeletedFileIsDeleted() throws Exception {
+        final Path file = write("plain/src/main/resources/config.properties", "a=1");
+        write("plain/target/classes/config.properties", "a=1");
+        final ResourceSync sync = create();
+
+        Files.delete(file);
+        sync.changed(file);
+        sync.flush();
+
+        Assert.assertFalse(Files.exists(project.resolve("plain/target/classes/config.properties")));
+    }
+
+    @Test
+    public void testRenamedFileMovesToo() throws Exception {
+        final Path before = write("plain/src/main/resources/old.txt", "text");
+        write("plain/target/classes/old.txt", "text");
+        final ResourceSync sync = create();
+
+        final Path after = project.resolve("plain/src/main/resources/new.txt");
+        Files.move(before, after);
+        sync.changed(before);
+        sync.changed(after);
+        sync.flush();
+
+        Assert.assertFalse(Files.exists(project.resolve("plain/target/classes/old.txt")));
+        Assert.assertEquals("text", read("plain/target/classes/new.txt"));
+    }
+
+    @Test
+    public void testInheritedFilteringFallsBackToMaven() throws Exception {
+        final ResourceSync sync = create();
+        final Path file = write("filtered/src/main/resources/version.txt", "${project.version}");
+
+        sync.changed(file);
+        sync.flush();
+
+        Assert.assertFalse(Files.exists(project.resolve("filtered/target/classes/version.txt")));
+        Assert.assertEquals(Arrays.asList("process-resources [filtered]"), processed);
+    }
+
+    @Test
+    public void testEditorDroppingsAreIgnored() throws Exception {
+        final ResourceSync sync = create();
+        final Path file = write("plain/src/main/resources/config.properties~", "a=1");
+
+        sync.changed(file);
+        sync.flush();
+
+        Assert.assertFalse(Files.exists(project.resolve("plain/target/classes/config.properties~")));
+    }
+
+    private ResourceSync create() throws Exception {
+        return new ResourceSync(job, new Properties()) {
+            @Override
+            void processResources(final String goal, final Set<String> moduleNames) {
+                processed.add(goal + " " + moduleNames);
+            }
+        };
+    }
+
+    private Path write(final String path, final String text) throws Exception {
+        final Path file = project.resolve(path);
+        Files.createDirectories(file.getParent());
+        return Files.write(file, text.getBytes(UTF8));
+    }
+
+    private String read(final String path) throws Exception {
+        return new String(Files.readAllBytes(project.resolve(path)), UTF8);
+    }
+}
@@ -0,0 +1,159 @@
+package com.timjstewart;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Element;
+
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ShardCoordinatorTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testShardsAreBalancedWithinAModule() throws Exception {
+        final List<ShardCoordinator.Shard> shards = ShardCoordinator.shard(
+            Arrays.asList(unit("a", "A1", 500),
+                          unit("a", "A2", 400),
+                          unit("a", "A3", 300),
+                          unit("a", "A4", 200)),
+            2);
+
+        Assert.assertEquals(2, shards.size());
+        Assert.assertEquals(700, shards.get(0).millis);
+        Assert.assertEquals(700, shards.get(1).millis);
+    }
+
+    @Test
+    public void testEveryModuleGetsItsOwnShards() throws Exception {
+        final List<ShardCoordinator.Shard> shards = ShardCoordinator.shard(
+            Arrays.asList(unit("a", "A1", 3000),
+                          unit("a", "A2", 3000),
+                          unit("a", "A3", 3000),
+                          unit("b", "B1", 100),
+                          unit("c", "C1", 100)),
+            4);
+
+        Assert.assertEquals(Arrays.asList("a", "a", "b", "c"), modules(shards));
+        Assert.assertEquals(6000, shards.get(0).millis);
+        for (final ShardCoordinator.Shard shard : shards) {
+            for (final ShardCoordinator.Unit unit : shard.units)
+                Assert.assertEquals(shard.module, unit.module);
+        }
+    }
+
+    @Test
+    public void testNoMoreShardsThanClasses() throws Exception {
+        final List<ShardCoordinator.Shard> shards = ShardCoordinator.shard(
+            Arrays.asList(unit("a", "A1", 100), unit("b", "B1", 100)),
+            8);
+
+        Assert.assertEquals(2, shards.size());
+    }
+
+    @Test
+    public void testJvmArgumentsComeFromTheNearestSurefireConfiguration() throws Exception {
+        final Path root = folder.getRoot().toPath().toRealPath();
+        Poms.write(root, "parent",
+                   "<modules><module>child</module></modules>" +
+                   "<properties><heap>512m</heap><mode>parent</mode></properties>" +
+                   "<build><pluginManagement><plugins><plugin>" +
+                   "<artifactId>maven-surefire-plugin</artifactId>" +
+                   "<configuration><argLine>-Xmx${heap} @{argLine} -Dquoted=\"a b\"</argLine>" +
+                   "<systemPropertyVariables><mode>${mode}</mode><shared>parent</shared></systemPropertyVariables>" +
+                   "</configuration></plugin></plugins></pluginManagement></build>");
+        Poms.write(root.resolve("child"), "child",
+                   "<parent><artifactId>parent</artifactId></parent>" +
+                   "<properties><mode>child</mode></properties>" +
+                   "<build><plugins><plugin>" +
+                   "<artifactId>maven-surefire-plugin</artifactId>" +
+                   "<configuration><systemPropertyVariables><data>${project.basedir}/data</data>" +
+                   "<shared>child</shared></systemPropertyVariables></configuration>" +
+                   "</plugin></plugins></build>");
+
+        final Module child = Reactor.load(root.resolve("pom.xml")).getModules().get(1);
+
+        Assert.assertEquals(Arrays.asList("-Xmx512m",
+                                          "-Dquoted=a b",
+                                          "-Dbasedir=" + root.resolve("child"),
+                                          "-Ddata=" + root.resolve("child") + "/data",
+                                          "-Dshared=child",
+                                          "-Dmode=child"),
+                            ShardCoordinator.jvmArguments(child));
+    }
+
+    @Test
+    public void testUnknownPropertiesBecomeEmpty() throws Exception {
+        final Map<String, String> properties = new HashMap<>();
+        properties.put("a", "$1");
+
+        Assert.assertEquals("x$1y z", ShardCoordinator.interpolate("x${a}y ${b}z", properties));
+        Assert.assertEquals(Arrays.asList("-a", "-b=c d", ""),
+                            ShardCoordinator.splitArguments("  -a   -b=\"c d\" \"\" "));
+    }
+
+    @Test
+    public void testReportsAreWrittenAsSurefireWould() throws Exception {
+        final Path reports = folder.newFolder("surefire-reports").toPath();
+        final List<String[]> failures = new ArrayList<>();
+        failures.add(new String[] {
+                "FAILURE", "x.FooTest", "testBar(x.FooTest)",
+                "java.lang.AssertionError: expected <1>\n\tat x.FooTest.testBar(FooTest.java:9)\n" });
+
+        ShardCoordinator.writeReports(reports, "x.FooTest", 3, 1, 1, 1250, failures);
+
+        final Element suite = Reactor.parse(reports.resolve("TEST-x.FooTest.xml"));
+        Assert.assertEquals("1.250", suite.getAttribute("time"));
+        Assert.assertEquals("3", suite.getAttribute("tests"));
+        Assert.assertEquals("1", suite.getAttribute("failures"));
+        Assert.assertEquals("1", suite.getAttribute("skipped"));
+
+        final Element testCase = Reactor.child(suite, "testcase");
+        Assert.assertEquals("testBar", testCase.getAttribute("name"));
+        Assert.assertEquals("x.FooTest", testCase.getAttribute("classname"));
+        final Element failure = Reactor.child(testCase, "failure");
+        Assert.assertEquals("java.lang.AssertionError", failure.getAttribute("type"));
+        Assert.assertEquals("expected <1>", failure.getAttribute("message"));
+
+        final List<String> txt = Files.readAllLines(reports.resolve("x.FooTest.txt"), UTF8);
+        Assert.assertEquals("Test set: x.FooTest", txt.get(1));
+        Assert.assertTrue(txt.get(3).endsWith("<<< FAILURE!"));
+        Assert.assertEquals("testBar(x.FooTest)  Time elapsed: 0 sec  <<< FAILURE!", txt.get(4));
+    }
+
+    @Test
+    public void testPassingClassHasNoTestCases() throws Exception {
+        final Path reports = folder.getRoot().toPath().resolve("target/surefire-reports");
+
+        ShardCoordinator.writeReports(reports, "x.BazTest", 2, 0, 0, 5,
+                                      Collections.<String[]>emptyList());
+
+        final Element suite = Reactor.parse(reports.resolve("TEST-x.BazTest.xml"));
+        Assert.assertEquals("0", suite.getAttribute("failures"));
+        Assert.assertNull(Reactor.child(suite, "testcase"));
+    }
+
+    private static ShardCoordinator.Unit unit(final String module, final String className, final long millis) {
+        return new ShardCoordinator.Unit(module, className, millis);
+    }
+
+    private static List<String> modules(final List<ShardCoordinator.Shard> shards) {
+        final List<String> modules = new ArrayList<>();
+        for (final ShardCoordinator.Shard shard : shards)
+            modules.add(shard.module);
+        return modules;
+    }
+}
@@ -0,0 +1,33 @@
+package com.timjstewart;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+public class ShardWorkerTest {
+
+    @Test
+    public void testEscapedFieldsFitOnALine() throws Exception {
+        final String escaped = ShardWorker.escape("a\tb\r\nc\\d");
+
+        Assert.assertEquals("a\\tb\\nc\\\\d", escaped);
+        Assert.assertEquals(-1, escaped.indexOf('\t'));
+        Assert.assertEquals(-1, escaped.indexOf('\n'));
+    }
+
+    @Test
+    public void testUnescapeReversesEscape() throws Exception {
+        for (final String field : new String[] { "", "plain", "tab\there", "a\nb\n", "back\\slash", "\\t literal", "end\\" }) {
+            Assert.assertEquals(field, ShardWorker.unescape(ShardWorker.escape(field)));
+        }
+    }
+
+    @Test
+    public void testSendSeparatesFieldsWithTabs() throws Exception {
+        final StringWriter out = new StringWriter();
+        ShardWorker.send(out, "FAILURE", "x.FooTest", "trace\n\tat x");
+
+        Assert.assertEquals("FAILURE\tx.FooTest\ttrace\\n\\tat x\n", out.toString());
+    }
+}
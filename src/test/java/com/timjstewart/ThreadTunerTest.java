@@ -0,0 +1,94 @@
+package com.timjstewart;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+
+public class ThreadTunerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testNeverExceedsCeiling() throws Exception {
+        final ThreadTuner tuner = tuner(history(), 4, 0);
+
+        for (int i = 0; i < 50; ++i) {
+            final int threads = tuner.choose();
+            Assert.assertTrue(threads >= 1 && threads <= 4);
+            tuner.record(threads, 1000);
+        }
+    }
+
+    @Test
+    public void testConvergesOnFastestThreadCount() throws Exception {
+        final ThreadTuner tuner = tuner(history(), 8, 0);
+
+        // fastest with 3 threads
+        int threads = 0;
+        for (int i = 0; i < 40; ++i) {
+            threads = tuner.choose();
+            tuner.record(threads, 1000 + 100 * Math.abs(threads - 3));
+        }
+
+        Assert.assertEquals(3, threads);
+        Assert.assertEquals(3, tuner.choose());
+    }
+
+    @Test
+    public void testHistorySurvivesRestart() throws Exception {
+        final Path history = history();
+        final ThreadTuner first = tuner(history, 8, 0);
+        for (int i = 0; i < 40; ++i) {
+            final int threads = first.choose();
+            first.record(threads, 1000 + 100 * Math.abs(threads - 6));
+        }
+
+        Assert.assertEquals(6, tuner(history, 8, 0).choose());
+    }
+
+    @Test
+    public void testLoadIsSampledBeforeEachBuild() throws Exception {
+        final ThreadTuner tuner = tuner(history(), 8, 6, 0);
+
+        Assert.assertEquals(2, tuner.choose());
+        Assert.assertEquals(8, tuner.choose());
+    }
+
+    @Test
+    public void testLoadRightAfterOwnBuildIsIgnored() throws Exception {
+        final ThreadTuner tuner = tuner(history(), 8, 6, 0);
+
+        Assert.assertEquals(2, tuner.choose());
+        tuner.buildFinished();
+        Assert.assertEquals(2, tuner.choose());
+    }
+
+    /**
+     * @param loads the load averages sampled one after the other; the
+     * last one is repeated
+     */
+    private static ThreadTuner tuner(final Path history, final int cores, final double... loads) {
+        return new ThreadTuner(history, cores, 1) {
+
+            private int sampled = 0;
+
+            @Override
+            double loadAverage() {
+                return loads[Math.min(sampled++, loads.length - 1)];
+            }
+
+            @Override
+            long availableMemory() {
+                return -1;
+            }
+        };
+    }
+
+    private Path history() {
+        return folder.getRoot().toPath().resolve("threads.properties");
+    }
+}
@@ -0,0 +1,483 @@
+package com.timjstewart;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * puts WatchDir under synthetic file churn and reports how it copes.
+ *
+ * Every scenario runs against a fresh tree in a temporary directory:
+ *
+ *   editor-saves      files deep in a tree saved one at a time, the way
+ *                     editors do (write a temporary file, rename it over)
+ *   mass-rename       every file of a package renamed in one burst
+ *   checkout-burst    10k+ files in new directories, as a checkout writes them
+ *   mkdir-storm       chains of new directories, each with a file at the end
+ *
+ * For each scenario the harness records the latency from the end of
+ * a change to the batch that reports it, how many batches a burst was
+ * split into, the file names that were lost or overflowed, and the
+ * CPU and heap used.  The results are printed to stdout as one JSON
+ * object; everything else goes to stderr.
+ *
+ * usage: WatchDirBenchmark [--scale=FACTOR] [--scenarios=NAME,...]
+ *
+ * or: mvn -Pbenchmark test-compile exec:java -Dbenchmark.args="--scale=0.5"
+ */
+public class WatchDirBenchmark {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * how long to wait for a batch before counting names as lost
+     */
+    private static final long QUIET_MILLIS = 3000;
+
+    private static final class Batch {
+
+        final long nanos;
+
+        final Set<String> files;
+
+        Batch(final long nanos, final String[] files) {
+            this.nanos = nanos;
+            this.files = new HashSet<>(Arrays.asList(files));
+        }
+    }
+
+    /**
+     * what one scenario measured
+     */
+    private static final class Result {
+
+        final Map<String, Object> values = new LinkedHashMap<>();
+
+        Result put(final String name, final Object value) {
+            values.put(name, value);
+            return this;
+        }
+    }
+
+    private final double scale;
+
+    private final BlockingQueue<Batch> batches = new LinkedBlockingQueue<>();
+
+    private WatchDir watchDir;
+
+    private Thread watcherThread;
+
+    private WatchDirBenchmark(final double scale) {
+        this.scale = scale;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        double scale = 1.0;
+        List<String> scenarios = Arrays.asList("editor-saves", "mass-rename", "checkout-burst", "mkdir-storm");
+
+        for (final String arg : args) {
+            if (arg.startsWith("--scale=")) {
+                scale = Double.parseDouble(arg.substring("--scale=".length()));
+            } else if (arg.startsWith("--scenarios=")) {
+                scenarios = Arrays.asList(arg.substring("--scenarios=".length()).split(","));
+            } else {
+                System.err.println("usage: WatchDirBenchmark [--scale=FACTOR] [--scenarios=NAME,...]");
+                System.exit(1);
+            }
+        }
+
+        // WatchDir reports to the console; keep stdout for the results
+        final PrintStream results = System.out;
+        System.setOut(System.err);
+
+        final WatchDirBenchmark benchmark = new WatchDirBenchmark(scale);
+        final List<Result> measured = new ArrayList<>();
+
+        for (final String scenario : scenarios) {
+            System.err.println("running " + scenario);
+            measured.add(benchmark.run(scenario));
+        }
+
+        results.println(toJson(scale, measured));
+        System.exit(0);
+    }
+
+    private Result run(final String scenario) throws Exception {
+        final Path root = Files.createTempDirectory("mvn8r-bench");
+        try {
+            switch (scenario) {
+            case "editor-saves":
+                return editorSaves(root, count(200));
+            case "mass-rename":
+                return massRename(root, count(2000));
+            case "checkout-burst":
+                return checkoutBurst(root, count(12000), count(120));
+            case "mkdir-storm":
+                return mkdirStorm(root, count(500), 5);
+            default:
+                throw new IllegalArgumentException("unknown scenario: " + scenario);
+            }
+        } finally {
+            stopWatching();
+            FileTrees.delete(root);
+        }
+    }
+
+    private int count(final int base) {
+        return Math.max(1, (int) Math.round(base * scale));
+    }
+
+    /**
+     * saves files one after another, each save waiting for its batch
+     */
+    private Result editorSaves(final Path root, final int saves) throws Exception {
+        final List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) {
+            Path dir = root;
+            for (int depth = 0; depth < 10; ++depth)
+                dir = dir.resolve("d" + (i + depth) % 7);
+            Files.createDirectories(dir);
+            final Path file = dir.resolve(String.format("Edited%02d.java", i));
+            write(file, "class X {}");
+            files.add(file);
+        }
+
+        startWatching(root);
+        final Usage usage = new Usage(watcherThread);
+
+        final List<Long> latencies = new ArrayList<>();
+        int lost = 0;
+
+        for (int i = 0; i < saves; ++i) {
+            final Path file = files.get(i % files.size());
+            final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            write(temporary, "class X { int version = " + i + "; }");
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            final long saved = System.nanoTime();
+
+            final Batch batch = awaitName(file.getFileName().toString());
+            if (batch == null) {
+                lost++;
+            } else {
+                latencies.add(TimeUnit.NANOSECONDS.toMillis(batch.nanos - saved));
+            }
+        }
+
+        return usage.finish(new Result()
+                            .put("scenario", "editor-saves")
+                            .put("operations", saves)
+                            .put("lostSaves", lost)
+                            .put("latencyMillis", percentiles(latencies)));
+    }
+
+    /**
+     * renames every file of one directory as fast as possible
+     */
+    private Result massRename(final Path root, final int files) throws Exception {
+        final Path dir = root.resolve("src/main/java/com/example/renamed");
+        Files.createDirectories(dir);
+        final Set<String> expected = new HashSet<>();
+        for (int i = 0; i < files; ++i) {
+            write(dir.resolve(String.format("Old%05d.java", i)), "class X {}");
+        }
+
+        startWatching(root);
+        final Usage usage = new Usage(watcherThread);
+        final long started = System.nanoTime();
+
+        for (int i = 0; i < files; ++i) {
+            final String from = String.format("Old%05d.java", i);
+            final String to = String.format("New%05d.java", i);
+            Files.move(dir.resolve(from), dir.resolve(to));
+            expected.add(from);
+            expected.add(to);
+        }
+
+        return usage.finish(burst("mass-rename", files, expected, started));
+    }
+
+    /**
+     * writes many files into directories that do not exist yet
+     */
+    private Result checkoutBurst(final Path root, final int files, final int directories) throws Exception {
+        startWatching(root);
+        final Usage usage = new Usage(watcherThread);
+        final long started = System.nanoTime();
+
+        final Set<String> expected = new HashSet<>();
+        for (int i = 0; i < files; ++i) {
+            final int d = i % directories;
+            final Path dir = root.resolve("module" + d % 10).resolve("src/main/java/pkg" + d);
+            Files.createDirectories(dir);
+            final String name = String.format("Checked%06d.java", i);
+            write(dir.resolve(name), "class X {}");
+            expected.add(name);
+        }
+
+        return usage.finish(burst("checkout-burst", files, expected, started));
+    }
+
+    /**
+     * creates chains of directories, each ending in a file
+     */
+    private Result mkdirStorm(final Path root, final int chains, final int depth) throws Exception {
+        startWatching(root);
+        final Usage usage = new Usage(watcherThread);
+        final long started = System.nanoTime();
+
+        final Set<String> expected = new HashSet<>();
+        for (int i = 0; i < chains; ++i) {
+            Path dir = root.resolve("storm" + i);
+            for (int level = 0; level < depth; ++level)
+                dir = dir.resolve("level" + level);
+            Files.createDirectories(dir);
+            final String name = String.format("Leaf%05d.java", i);
+            write(dir.resolve(name), "class X {}");
+            expected.add(name);
+        }
+
+        return usage.finish(burst("mkdir-storm", chains * depth, expected, started));
+    }
+
+    /**
+     * collects the batches a burst of changes produces and compares
+     * them with the names that changed.  Batches may arrive while the
+     * burst is still running, so their latency is taken from its start;
+     * settleMillis is how long after the last change the last batch came.
+     */
+    private Result burst(final String scenario,
+                         final int operations,
+                         final Set<String> expected,
+                         final long started) throws InterruptedException {
+
+        final long ended = System.nanoTime();
+        final Set<String> reported = new HashSet<>();
+        final List<Long> latencies = new ArrayList<>();
+        long lastBatch = ended;
+        int batchCount = 0;
+        boolean overflowed = false;
+
+        while (!reported.containsAll(expected)) {
+            final Batch batch = batches.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+            if (batch == null)
+                break;
+
+            batchCount++;
+            latencies.add(TimeUnit.NANOSECONDS.toMillis(batch.nanos - started));
+            lastBatch = Math.max(lastBatch, batch.nanos);
+            overflowed |= batch.files.remove(WatchDir.OVERFLOW_MARKER);
+            reported.addAll(batch.files);
+        }
+
+        final Set<String> lost = new HashSet<>(expected);
+        lost.removeAll(reported);
+
+        final Set<String> extra = new HashSet<>(reported);
+        extra.removeAll(expected);
+
+        return new Result()
+            .put("scenario", scenario)
+            .put("operations", operations)
+            .put("expectedNames", expected.size())
+            .put("reportedNames", reported.size() - extra.size())
+            .put("lostNames", lost.size())
+            .put("extraNames", extra.size())
+            .put("batches", batchCount)
+            .put("overflowMarker", overflowed)
+            .put("burstMillis", TimeUnit.NANOSECONDS.toMillis(ended - started))
+            .put("settleMillis", TimeUnit.NANOSECONDS.toMillis(lastBatch - ended))
+            .put("latencyMillis", percentiles(latencies));
+    }
+
+    /**
+     * waits for a batch naming the file, skipping batches without it
+     *
+     * @return the batch, or null if none came
+     */
+    private Batch awaitName(final String name) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(QUIET_MILLIS);
+
+        for (long left; (left = deadline - System.nanoTime()) > 0; ) {
+            final Batch batch = batches.poll(left, TimeUnit.NANOSECONDS);
+            if (batch == null)
+                return null;
+            if (batch.files.contains(name) || batch.files.contains(WatchDir.OVERFLOW_MARKER))
+                return batch;
+        }
+        return null;
+    }
+
+    private void startWatching(final Path root) throws Exception {
+        batches.clear();
+        watchDir = new WatchDir(root, null);
+
+        watcherThread = new Thread("WatchDir") {
+                @Override
+                public void run() {
+                    watchDir.processEvents(new WatchDir.Handler() {
+                            @Override
+                            public void onChange(final String[] changedFiles) {
+                                batches.add(new Batch(System.nanoTime(), changedFiles));
+                            }
+                        });
+                }
+            };
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+
+        // let the watcher settle before changing anything
+        Thread.sleep(500);
+        batches.clear();
+    }
+
+    private void stopWatching() throws Exception {
+        if (watchDir != null) {
+            watchDir.close();
+            watcherThread.join(5000);
+            watchDir = null;
+        }
+    }
+
+    private static void write(final Path file, final String text) throws IOException {
+        Files.write(file, text.getBytes(UTF8));
+    }
+
+    /**
+     * CPU and heap use from the start of a scenario's changes
+     */
+    private final class Usage {
+
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        private final long watcherThreadId;
+
+        private final long watcherCpu;
+
+        private final long processCpu;
+
+        private final long started = System.nanoTime();
+
+        Usage(final Thread watcher) {
+            this.watcherThreadId = watcher.getId();
+            this.watcherCpu = threads.getThreadCpuTime(watcherThreadId);
+            this.processCpu = processCpuNanos();
+            for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                pool.resetPeakUsage();
+            }
+        }
+
+        Result finish(final Result result) {
+            long peakHeap = 0;
+            for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP)
+                    peakHeap += pool.getPeakUsage().getUsed();
+            }
+
+            return result
+                .put("wallMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started))
+                .put("watcherCpuMillis",
+                     TimeUnit.NANOSECONDS.toMillis(threads.getThreadCpuTime(watcherThreadId) - watcherCpu))
+                .put("processCpuMillis", TimeUnit.NANOSECONDS.toMillis(processCpuNanos() - processCpu))
+                .put("peakHeapBytes", peakHeap)
+                .put("overflows", watchDir.getOverflowCount());
+        }
+
+        private long processCpuNanos() {
+            final java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+            if (os instanceof com.sun.management.OperatingSystemMXBean)
+                return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+            return 0;
+        }
+    }
+
+    static Map<String, Object> percentiles(final List<Long> samples) {
+        final Map<String, Object> result = new LinkedHashMap<>();
+        final List<Long> sorted = new ArrayList<>(samples);
+        Collections.sort(sorted);
+
+        result.put("count", sorted.size());
+        if (!sorted.isEmpty()) {
+            result.put("p50", percentile(sorted, 50));
+            result.put("p90", percentile(sorted, 90));
+            result.put("p99", percentile(sorted, 99));
+            result.put("max", sorted.get(sorted.size() - 1));
+        }
+        return result;
+    }
+
+    static long percentile(final List<Long> sorted, final int percent) {
+        final int index = (int) Math.ceil(percent / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index)));
+    }
+
+    private static String toJson(final double scale, final List<Result> results) {
+        final Map<String, Object> root = new LinkedHashMap<>();
+        root.put("benchmark", "watchdir");
+        root.put("scale", scale);
+        root.put("os", System.getProperty("os.name") + " " + System.getProperty("os.version"));
+        root.put("java", System.getProperty("java.version"));
+
+        final List<Object> scenarios = new ArrayList<>();
+        for (final Result result : results)
+            scenarios.add(result.values);
+        root.put("scenarios", scenarios);
+
+        final StringBuilder json = new StringBuilder();
+        appendJson(json, root);
+        return json.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    static void appendJson(final StringBuilder json, final Object value) {
+        if (value instanceof Map) {
+            json.append('{');
+            boolean first = true;
+            for (final Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                if (!first)
+                    json.append(',');
+                first = false;
+                appendJson(json, entry.getKey());
+                json.append(':');
+                appendJson(json, entry.getValue());
+            }
+            json.append('}');
+        } else if (value instanceof List) {
+            json.append('[');
+            boolean first = true;
+            for (final Object element : (List<Object>) value) {
+                if (!first)
+                    json.append(',');
+                first = false;
+                appendJson(json, element);
+            }
+            json.append(']');
+        } else if (value instanceof String) {
+            json.append('"')
+                .append(((String) value).replace("\\", "\\\\").replace("\"", "\\\""))
+                .append('"');
+        } else if (value instanceof Double) {
+            json.append(String.format(Locale.US, "%.3f", (Double) value));
+        } else {
+            json.append(value);
+        }
+    }
+}
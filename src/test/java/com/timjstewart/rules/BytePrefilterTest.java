@@ -0,0 +1,63 @@
+package com.timjstewart.rules;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fusesource.jansi.Ansi.Color.*;
+
+public class BytePrefilterTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static boolean isIgnored(final BytePrefilter prefilter, final String line) {
+        final byte[] bytes = ("xx" + line + "yy").getBytes(UTF8);
+        return prefilter.isIgnored(bytes, 2, bytes.length - 4);
+    }
+
+    @Test
+    public void testIgnoresLiteralLines() {
+        final List<BlockRule> rules = new ArrayList<>();
+        rules.add(new IgnoreLineContainingRule("Compiling "));
+
+        final BytePrefilter prefilter = BytePrefilter.compile(rules);
+
+        Assert.assertTrue(isIgnored(prefilter, "[INFO] Compiling 3 source files"));
+        Assert.assertFalse(isIgnored(prefilter, "[INFO] Compiled"));
+    }
+
+    @Test
+    public void testEarlierRulesGuardLiterals() {
+        final List<BlockRule> rules = new ArrayList<>();
+        rules.add(new SingleLineRegexRule(WHITE, "(Running .*)"));
+        rules.add(new IgnoreLineContainingRule("Building "));
+
+        final BytePrefilter prefilter = BytePrefilter.compile(rules);
+
+        Assert.assertTrue(isIgnored(prefilter, "[INFO] Building foo"));
+        Assert.assertFalse(isIgnored(prefilter, "Running Building tests"));
+    }
+
+    @Test
+    public void testStopsAtRulesWithoutLiteral() {
+        final List<BlockRule> rules = new ArrayList<>();
+        rules.add(new SingleLineRegexRule(RED, "\\d+ errors"));
+        rules.add(new IgnoreLineContainingRule("---"));
+
+        Assert.assertEquals(0, BytePrefilter.compile(rules).size());
+    }
+
+    @Test
+    public void testRequiredLiteral() {
+        Assert.assertEquals("Running ", BytePrefilter.requiredLiteral("(Running .*)"));
+        Assert.assertEquals("[ERROR] ", BytePrefilter.requiredLiteral("\\[ERROR\\] (.*)"));
+        Assert.assertEquals("Tests run: ", BytePrefilter.requiredLiteral("(Tests run: [0-9]+)"));
+        Assert.assertEquals("No tests to run.", BytePrefilter.requiredLiteral("(No tests to run\\.)"));
+        Assert.assertNull(BytePrefilter.requiredLiteral("( *symbol: .*)"));
+        Assert.assertEquals("BUILD SUCCES", BytePrefilter.requiredLiteral("(BUILD SUCCESS?)"));
+        Assert.assertNull(BytePrefilter.requiredLiteral("(a|b)"));
+    }
+}
@@ -0,0 +1,67 @@
+package com.timjstewart.rules;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.StringReader;
+
+public class RuleSetTest {
+
+    @Test
+    public void testDefaultsLoad() {
+        final RuleSet rules = RuleSet.defaults();
+
+        Assert.assertFalse(rules.getRules().isEmpty());
+        Assert.assertTrue(rules.getPrefilter().size() > 0);
+    }
+
+    @Test
+    public void testParsesEveryKind() throws Exception {
+        final RuleSet rules = RuleSet.parse(new StringReader(
+            "# comment\n" +
+            "\n" +
+            "show GREEN:(Tests run: [0-9]+)\n" +
+            "failure RED:(Failures: [1-9])\n" +
+            "ignore \"Compiling \"\n" +
+            "ignore-regex ^\\[INFO\\] *$\n" +
+            "block BLUE:(Results :.*) => (Tests run:.*)\n"), "test");
+
+        Assert.assertEquals(5, rules.getRules().size());
+        Assert.assertTrue(rules.getRules().get(0).isStartOfBlock("Tests run: 3"));
+        Assert.assertTrue(rules.isTestFailure(rules.getRules().get(1)));
+        Assert.assertFalse(rules.isTestFailure(rules.getRules().get(0)));
+        Assert.assertTrue(rules.getRules().get(2).isStartOfBlock("[INFO] Compiling 3 files"));
+        Assert.assertFalse(rules.getRules().get(2).isStartOfBlock("[INFO] Compiling"));
+        Assert.assertTrue(rules.getRules().get(4) instanceof MultiLineRule);
+        Assert.assertTrue(rules.getRules().get(4).isEndOfBlock("Tests run: 3"));
+    }
+
+    @Test(expected = RuleParseException.class)
+    public void testRejectsBadColor() throws Exception {
+        RuleSet.parse(new StringReader("show PINK:(x)\n"), "test");
+    }
+
+    @Test(expected = RuleParseException.class)
+    public void testRejectsBadRegex() throws Exception {
+        RuleSet.parse(new StringReader("ignore-regex ([a\n"), "test");
+    }
+
+    @Test
+    public void testRejectsRegexWithoutAGroupToShow() throws Exception {
+        for (final String rule : new String[] { "show RED:BUILD FAILURE",
+                                                "failure RED:(?:Failures: [1-9])",
+                                                "block BLUE:Results : => (Tests run:.*)" }) {
+            try {
+                RuleSet.parse(new StringReader("# rules\n" + rule + "\n"), "test.rules");
+                Assert.fail(rule);
+            } catch (RuleParseException ex) {
+                Assert.assertTrue(ex.getMessage(), ex.getMessage().startsWith("test.rules:2: "));
+            }
+        }
+    }
+
+    @Test(expected = RuleParseException.class)
+    public void testRejectsUnknownKind() throws Exception {
+        RuleSet.parse(new StringReader("hide foo\n"), "test");
+    }
+}